@@ -121,6 +121,12 @@ public class ClientMain {
                                     System.out.println("Invalid password (min 2 characters).");
                                 } else if (result == 102) {
                                     System.out.println("Username already in use.");
+                                } else if (result == 103) {
+                                    System.out.println("Invalid username (1 to 64 characters).");
+                                } else if (result == 104) {
+                                    System.out.println("Registration could not be saved, please try again.");
+                                } else if (result == 105) {
+                                    System.out.println("Server busy, please try again in a few seconds.");
                                 } else {
                                     System.out.println("Unknown error.");
                                 }
@@ -191,7 +197,8 @@ public class ClientMain {
                     System.out.println("4 - View your orders");
                     System.out.println("5 - Cancel a Order");
                     System.out.println("6 - Print Price History");
-                    System.out.println("7 - Log out \n> ");
+                    System.out.println("7 - View your trades");
+                    System.out.println("8 - Log out \n> ");
                     String choiceStr = scanner.nextLine().trim();
                     int choice = -1;
                     try {
@@ -201,68 +208,81 @@ public class ClientMain {
                         continue;
                     }
 
-                    switch (choice) {
-                        case 1:
-                            System.out.println("0 - ASK \n1 - BID: ");
-                            int ask = Integer.parseInt(scanner.nextLine());
-                            System.out.println("Quantity: ");
-                            int quantity = Integer.parseInt(scanner.nextLine());
+                    try {
+                        switch (choice) {
+                            case 1:
+                                System.out.println("0 - ASK \n1 - BID: ");
+                                int ask = Integer.parseInt(scanner.nextLine());
+                                System.out.println("Quantity: ");
+                                int quantity = Integer.parseInt(scanner.nextLine());
 
-                            client.sendMarketOrder(actualUsername, ask, quantity);
-                            break;
-                        case 2:
-                            System.out.println("0 - ASK \n1 - BID: ");
-                            int askBid = Integer.parseInt(scanner.nextLine());
-                            System.out.println("Quantity: ");
-                            int size = Integer.parseInt(scanner.nextLine());
-                            System.out.println("Price: ");
-                            int price = Integer.parseInt(scanner.nextLine());
-                            client.sendLimitOrder(actualUsername, askBid, size, price);
-                            break;
-                        case 3:
-                            System.out.println("0 - ASK \n1 - BID: ");
-                            int askBidStop = Integer.parseInt(scanner.nextLine());
-                            System.out.println("Size: ");
-                            int sizeStop = Integer.parseInt(scanner.nextLine());
-                            System.out.println("Price: ");
-                            int priceStop = Integer.parseInt(scanner.nextLine());
-                            client.sendStopOrder(actualUsername, askBidStop, sizeStop, priceStop);
-                            break;
-                        case 4:
-                            System.out.println("Your Active Orders: ");
-                            client.sendPrintOrders(actualUsername);
-                            break;
-                        case 5:
-                            System.out.println("Which order do you want to cancel: ");
-                            client.sendPrintOrders(actualUsername);
-                            int orderID = Integer.parseInt(scanner.nextLine());
-                            client.sendCancelOrder(actualUsername, orderID);
-                            break;
-                        case 6:
-                            System.out.println("Which month do you want the price history\n1 - January\n2 - February\n" +
-                                    "3 - March\n 4 - April\n5 - May\n6 - June\n7 - July\n8 - August\n9 - September\n10 - October\n" +
-                                    "11 - November\n12 - December\n>  ");
-                            int month = Integer.parseInt(scanner.nextLine());
-                            client.sendPriceHistory(month, actualUsername);
-                            break;
-                        case 7:
-                            client.sendLogout(actualUsername);
-                            isLogged = false;
-                            actualUsername = "";
-                            if (udpMulticastPriceListener != null) {
-                                try {
-                                    udpMulticastPriceListener.leaveMulticastGroup();
-                                } catch (IOException e) {
-                                    System.err.println("Error during leaveGroup on logout: " + e.getMessage());
-                                } finally {
-                                    udpMulticastPriceListener.stopListening();
+                                client.sendMarketOrder(actualUsername, ask, quantity);
+                                break;
+                            case 2:
+                                System.out.println("0 - ASK \n1 - BID: ");
+                                int askBid = Integer.parseInt(scanner.nextLine());
+                                System.out.println("Quantity: ");
+                                int size = Integer.parseInt(scanner.nextLine());
+                                System.out.println("Price: ");
+                                int price = Integer.parseInt(scanner.nextLine());
+                                client.sendLimitOrder(actualUsername, askBid, size, price);
+                                break;
+                            case 3:
+                                System.out.println("0 - ASK \n1 - BID: ");
+                                int askBidStop = Integer.parseInt(scanner.nextLine());
+                                System.out.println("Size: ");
+                                int sizeStop = Integer.parseInt(scanner.nextLine());
+                                System.out.println("Price: ");
+                                int priceStop = Integer.parseInt(scanner.nextLine());
+                                client.sendStopOrder(actualUsername, askBidStop, sizeStop, priceStop);
+                                break;
+                            case 4:
+                                System.out.println("Your Active Orders: ");
+                                client.sendPrintOrders(actualUsername);
+                                break;
+                            case 5:
+                                System.out.println("Which order do you want to cancel: ");
+                                client.sendPrintOrders(actualUsername);
+                                int orderID = Integer.parseInt(scanner.nextLine());
+                                client.sendCancelOrder(actualUsername, orderID);
+                                break;
+                            case 6:
+                                System.out.println("Which month do you want the price history\n1 - January\n2 - February\n" +
+                                        "3 - March\n 4 - April\n5 - May\n6 - June\n7 - July\n8 - August\n9 - September\n10 - October\n" +
+                                        "11 - November\n12 - December\n>  ");
+                                int month = Integer.parseInt(scanner.nextLine());
+                                client.sendPriceHistory(month, actualUsername);
+                                break;
+                            case 7:
+                                System.out.println("Which page do you want to see (1 = most recent)?\n> ");
+                                int page = Integer.parseInt(scanner.nextLine().trim());
+                                client.sendMyTrades(actualUsername, Math.max(page, 1) - 1, 10);
+                                break;
+                            case 8:
+                                client.sendLogout(actualUsername);
+                                isLogged = false;
+                                actualUsername = "";
+                                if (udpMulticastPriceListener != null) {
+                                    try {
+                                        udpMulticastPriceListener.leaveMulticastGroup();
+                                    } catch (IOException e) {
+                                        System.err.println("Error during leaveGroup on logout: " + e.getMessage());
+                                    } finally {
+                                        udpMulticastPriceListener.stopListening();
+                                    }
                                 }
-                            }
-                            System.out.println("Logged out successfully.");
-                            break;
-                        default:
-                            System.out.println("Invalid choice. Please select a valid option (1-7).");
-                            break;
+                                System.out.println("Logged out successfully.");
+                                break;
+                            default:
+                                System.out.println("Invalid choice. Please select a valid option (1-8).");
+                                break;
+                        }
+                    } catch (IOException e) {
+                        System.out.println("Connection lost (" + e.getMessage() + "), reconnecting...");
+                        if (!client.sendResume(localClientIp, clientUdpUnicastPort)) {
+                            throw e;
+                        }
+                        System.out.println("Session restored, please repeat the last operation.");
                     }
                 }
             }
@@ -1,6 +1,23 @@
+import protocol.BinaryCodec;
+import protocol.Message;
+
 import java.io.*;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * Client side of the TCP protocol. At connect it asks the server for binary frames (see BinaryCodec) and falls back
+ * to the text protocol if the server does not support them. Order requests are then sent and answered as fixed
+ * binary layouts through reused buffers; the other commands carry the same lines as in the text protocol.
+ * Over binary frames every request carries a correlation ID and a reader thread hands each reply to the request
+ * with the same ID, so the submit methods can put many orders in flight on one connection without waiting for
+ * each round trip. The send methods wait for their reply.
+ */
 public class TCPClient {
     private static final String SERVER_ADDRESS = "127.0.0.1";
     private static final int SERVER_PORT = 1234;
@@ -8,9 +25,14 @@ public class TCPClient {
     private Socket socket;
     private BufferedReader in;
     private BufferedWriter out;
+    private boolean binary;
+    private ReplyReader replies;
+    private int nextCorrelationId;
+    private final ByteBuffer requestBuffer = ByteBuffer.allocate(BinaryCodec.MAX_REQUEST_LENGTH);
+    private String sessionTicket;
 
     /**
-     * Creates a connection to the server.
+     * Creates a connection to the server and negotiates binary frames.
      * Synchronizes access to socket and I/O streams during connection.
      *
      * @throws IOException If an I/O error occurs when creating the socket or streams.
@@ -21,6 +43,16 @@ public class TCPClient {
                 this.socket = new Socket(SERVER_ADDRESS, SERVER_PORT);
                 this.in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
                 this.out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream()));
+                out.write(BinaryCodec.HANDSHAKE + "\n");
+                out.flush();
+                binary = "100".equals(in.readLine());
+                if (binary) {
+                    socket.setTcpNoDelay(true);
+                    replies = new ReplyReader(new DataInputStream(new BufferedInputStream(socket.getInputStream())));
+                    Thread reader = new Thread(replies, "tcp-replies");
+                    reader.setDaemon(true);
+                    reader.start();
+                }
             }
         }
     }
@@ -42,7 +74,73 @@ public class TCPClient {
                 socket = null;
                 in = null;
                 out = null;
+                replies = null;
+                binary = false;
+            }
+        }
+    }
+
+    /**
+     * Sends a command with its argument lines.
+     *
+     * @return a reader over the reply lines.
+     */
+    private BufferedReader request(String command, String... args) throws IOException {
+        if (binary) {
+            int correlationId = nextCorrelationId++;
+            requestBuffer.clear();
+            BinaryCodec.encodeCommand(requestBuffer, correlationId, command, args);
+            return new BufferedReader(new StringReader(await(sendFrame(correlationId)).getText()));
+        }
+        out.write(command + "\n");
+        for (String arg : args) {
+            out.write(arg + "\n");
+        }
+        out.flush();
+        return in;
+    }
+
+    /**
+     * Writes the frame encoded in the request buffer. Must be called holding this client's lock.
+     *
+     * @param correlationId The frame's correlation ID.
+     * @return a future completed with the reply frame.
+     */
+    private CompletableFuture<Message> sendFrame(int correlationId) throws IOException {
+        CompletableFuture<Message> reply = replies.expect(correlationId);
+        try {
+            socket.getOutputStream().write(requestBuffer.array(), 0, requestBuffer.position());
+        } catch (IOException e) {
+            replies.forget(correlationId);
+            throw e;
+        }
+        return reply;
+    }
+
+    /**
+     * @return the result code of an order reply. An error line fails as in the text protocol.
+     */
+    private static int orderResult(Message reply) {
+        if (reply.getType() == BinaryCodec.RESULT) {
+            return reply.getCode();
+        }
+        return Integer.parseInt(reply.getText().trim());
+    }
+
+    /**
+     * Waits for a reply, rethrowing the failure that completed it exceptionally.
+     */
+    private static <T> T await(CompletableFuture<T> reply) throws IOException {
+        try {
+            return reply.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
             }
+            throw e;
         }
     }
 
@@ -58,13 +156,11 @@ public class TCPClient {
             if (socket == null || socket.isClosed()) {
                 throw new IOException("Connessione al server non attiva per visualizzare gli ordini.");
             }
-            out.write("PRINT\n");
-            out.write(username + "\n");
-            out.flush();
+            BufferedReader reply = request("PRINT", username);
 
             StringBuilder ordersBuilder = new StringBuilder();
             String response;
-            while ((response = in.readLine()) != null) {
+            while ((response = reply.readLine()) != null) {
                 if (response.equals("END")) {
                     break;
                 }
@@ -90,16 +186,12 @@ public class TCPClient {
             if (socket == null || socket.isClosed()) {
                 throw new IOException("Connessione al server non attiva per il login.");
             }
-            out.write("LOGIN\n");
-            out.write(username + "\n");
-            out.write(password + "\n");
-            out.write(clientIp + "\n");
-            out.write(String.valueOf(udpPort) + "\n");
-            out.flush();
+            BufferedReader reply = request("LOGIN", username, password, clientIp, String.valueOf(udpPort));
 
-            String response = in.readLine();
+            String response = reply.readLine();
             int code = Integer.parseInt(response);
             if (code == 100) {
+                sessionTicket = reply.readLine();
                 System.out.println("User logged in successfully");
                 return true;
             }
@@ -112,6 +204,9 @@ public class TCPClient {
             if (code == 103) {
                 System.out.println("Error logging in");
             }
+            if (code == 105) {
+                System.out.println("Server busy, please try again in a few seconds");
+            }
             return false;
         }
     }
@@ -131,13 +226,9 @@ public class TCPClient {
                 throw new IOException("Connessione al server non attiva per l'aggiornamento credenziali.");
             }
             System.out.println("Sending update credentials");
-            out.write("UPDATE_CREDENTIALS\n");
-            out.write(username + "\n");
-            out.write(password + "\n");
-            out.write(newPassword + "\n");
-            out.flush();
+            BufferedReader reply = request("UPDATE_CREDENTIALS", username, password, newPassword);
             System.out.println("Sei arrivato dopo la scrittura sul buffer");
-            String response = in.readLine();
+            String response = reply.readLine();
             System.out.println("Server risponde " + response);
             int code = Integer.parseInt(response);
             if (code == 100) {
@@ -148,6 +239,8 @@ public class TCPClient {
                 System.out.println("Username or password incorrect");
             } else if (code == 103) {
                 System.out.println("You cannot use the same password");
+            } else if (code == 105) {
+                System.out.println("Server busy, please try again in a few seconds");
             }
             return code;
         }
@@ -167,11 +260,8 @@ public class TCPClient {
             if (socket == null || socket.isClosed()) {
                 throw new IOException("Connessione al server non attiva per il logout.");
             }
-            out.write("LOGOUT\n");
-            out.write(username + "\n");
-            out.flush();
-
-            String response = in.readLine();
+            sessionTicket = null;
+            String response = request("LOGOUT", username).readLine();
             int code = Integer.parseInt(response);
             if (code == 100) {
                 System.out.println("User logged out successfully (server response).");
@@ -182,6 +272,36 @@ public class TCPClient {
         }
     }
 
+    /**
+     * Opens a new connection and restores the session with the ticket received at login,
+     * without sending the password again.
+     *
+     * @param clientIp Client's IP address for UDP unicast.
+     * @param udpPort  Client's UDP port for unicast.
+     * @return true if the session was restored, false if there is no ticket or the server rejected it.
+     * @throws IOException If the server cannot be reached.
+     */
+    public boolean sendResume(String clientIp, int udpPort) throws IOException {
+        synchronized (this) {
+            if (sessionTicket == null) {
+                return false;
+            }
+            String ticket = sessionTicket;
+            close();
+            connect();
+            BufferedReader reply = request("RESUME", ticket, clientIp, String.valueOf(udpPort));
+
+            String response = reply.readLine();
+            if (!"100".equals(response)) {
+                System.out.println("Session expired, please log in again");
+                return false;
+            }
+            reply.readLine();
+            sessionTicket = reply.readLine();
+            return true;
+        }
+    }
+
     /**
      * Sends to the server a request for a new market order.
      *
@@ -192,17 +312,32 @@ public class TCPClient {
      * @throws IOException If an I/O error occurs during communication.
      */
     public int sendMarketOrder(String username, int ask, int quantity) throws IOException {
+        return await(submitMarketOrder(username, ask, quantity));
+    }
+
+    /**
+     * Sends a market order without waiting for its result, so that more orders can follow on the connection.
+     * On a text-only server the result is read before returning.
+     *
+     * @param username The username placing the order.
+     * @param ask      0 for ASK (sell), 1 for BID (buy).
+     * @param quantity The amount to trade.
+     * @return a future completed with the integer code result from the server.
+     * @throws IOException If an I/O error occurs while sending.
+     */
+    public CompletableFuture<Integer> submitMarketOrder(String username, int ask, int quantity) throws IOException {
         synchronized (this) {
             if (socket == null || socket.isClosed()) {
                 throw new IOException("Connessione al server non attiva per Market Order.");
             }
-            out.write("MARKET_ORDER\n");
-            out.write(username + "\n");
-            out.write(ask + "\n");
-            out.write(quantity + "\n");
-            out.flush();
-            String response = in.readLine();
-            return Integer.parseInt(response);
+            if (!binary) {
+                String response = request("MARKET_ORDER", username, String.valueOf(ask), String.valueOf(quantity)).readLine();
+                return CompletableFuture.completedFuture(Integer.parseInt(response));
+            }
+            int correlationId = nextCorrelationId++;
+            requestBuffer.clear();
+            BinaryCodec.encodeMarketOrder(requestBuffer, correlationId, ask, quantity);
+            return sendFrame(correlationId).thenApply(TCPClient::orderResult);
         }
     }
 
@@ -217,18 +352,33 @@ public class TCPClient {
      * @throws IOException If an I/O error occurs during communication.
      */
     public int sendLimitOrder(String username, int ask, int quantity, int price) throws IOException {
+        return await(submitLimitOrder(username, ask, quantity, price));
+    }
+
+    /**
+     * Sends a limit order without waiting for its result, so that more orders can follow on the connection.
+     * On a text-only server the result is read before returning.
+     *
+     * @param username The username.
+     * @param ask      0 if it's an ask (sell), 1 if it's a bid (buy).
+     * @param quantity The amount to trade.
+     * @param price    The limit price.
+     * @return a future completed with the integer code result from the server.
+     * @throws IOException If an I/O error occurs while sending.
+     */
+    public CompletableFuture<Integer> submitLimitOrder(String username, int ask, int quantity, int price) throws IOException {
         synchronized (this) {
             if (socket == null || socket.isClosed()) {
                 throw new IOException("Connessione al server non attiva per Limit Order.");
             }
-            out.write("LIMIT_ORDER\n");
-            out.write(username + "\n");
-            out.write(ask + "\n");
-            out.write(quantity + "\n");
-            out.write(price + "\n");
-            out.flush();
-            String response = in.readLine();
-            return Integer.parseInt(response);
+            if (!binary) {
+                String response = request("LIMIT_ORDER", username, String.valueOf(ask), String.valueOf(quantity), String.valueOf(price)).readLine();
+                return CompletableFuture.completedFuture(Integer.parseInt(response));
+            }
+            int correlationId = nextCorrelationId++;
+            requestBuffer.clear();
+            BinaryCodec.encodeLimitOrder(requestBuffer, correlationId, ask, quantity, price);
+            return sendFrame(correlationId).thenApply(TCPClient::orderResult);
         }
     }
 
@@ -241,22 +391,37 @@ public class TCPClient {
      * @throws IOException If an I/O error occurs during communication.
      */
     public int sendCancelOrder(String username, int orderID) throws IOException {
+        int result = await(submitCancelOrder(username, orderID));
+        if (result == 100) {
+            System.out.println("Order [" + orderID + "] Canceled successfully");
+        } else {
+            System.out.println("Error");
+        }
+        return result;
+    }
+
+    /**
+     * Sends a cancellation without waiting for its result, so that more orders can follow on the connection.
+     * On a text-only server the result is read before returning.
+     *
+     * @param username The username.
+     * @param orderID  The ID of the order to cancel.
+     * @return a future completed with the integer code result from the server.
+     * @throws IOException If an I/O error occurs while sending.
+     */
+    public CompletableFuture<Integer> submitCancelOrder(String username, int orderID) throws IOException {
         synchronized (this) {
             if (socket == null || socket.isClosed()) {
                 throw new IOException("Connessione al server non attiva per la cancellazione dell'ordine.");
             }
-            out.write("CANCEL\n");
-            out.write(username + "\n");
-            out.write(orderID + "\n");
-            out.flush();
-            String response = in.readLine();
-            int result = Integer.parseInt(response);
-            if (result == 100) {
-                System.out.println("Order [" + orderID + "] Canceled successfully");
-            } else {
-                System.out.println("Error");
-            }
-            return result;
+            if (!binary) {
+                String response = request("CANCEL", username, String.valueOf(orderID)).readLine();
+                return CompletableFuture.completedFuture(Integer.parseInt(response));
+            }
+            int correlationId = nextCorrelationId++;
+            requestBuffer.clear();
+            BinaryCodec.encodeCancel(requestBuffer, correlationId, orderID);
+            return sendFrame(correlationId).thenApply(TCPClient::orderResult);
         }
     }
 
@@ -271,19 +436,33 @@ public class TCPClient {
      * @throws IOException If an I/O error occurs during communication.
      */
     public int sendStopOrder(String username, int askBid, int size, int price) throws IOException {
+        return await(submitStopOrder(username, askBid, size, price));
+    }
+
+    /**
+     * Sends a stop order without waiting for its result, so that more orders can follow on the connection.
+     * On a text-only server the result is read before returning.
+     *
+     * @param username The username.
+     * @param askBid   0 if it's an ask (sell), 1 if it's a bid (buy).
+     * @param size     The amount to trade.
+     * @param price    The stop price.
+     * @return a future completed with the integer code result from the server.
+     * @throws IOException If an I/O error occurs while sending.
+     */
+    public CompletableFuture<Integer> submitStopOrder(String username, int askBid, int size, int price) throws IOException {
         synchronized (this) {
             if (socket == null || socket.isClosed()) {
                 throw new IOException("Connessione al server non attiva per Stop Order.");
             }
-            out.write("STOP_ORDER\n");
-            out.write(username + "\n");
-            out.write(askBid + "\n");
-            out.write(size + "\n");
-            out.write(price + "\n");
-            out.flush();
-
-            String response = in.readLine();
-            return Integer.parseInt(response);
+            if (!binary) {
+                String response = request("STOP_ORDER", username, String.valueOf(askBid), String.valueOf(size), String.valueOf(price)).readLine();
+                return CompletableFuture.completedFuture(Integer.parseInt(response));
+            }
+            int correlationId = nextCorrelationId++;
+            requestBuffer.clear();
+            BinaryCodec.encodeStopOrder(requestBuffer, correlationId, askBid, size, price);
+            return sendFrame(correlationId).thenApply(TCPClient::orderResult);
         }
     }
 
@@ -300,12 +479,7 @@ public class TCPClient {
             if (socket == null || socket.isClosed()) {
                 throw new IOException("Connessione al server non attiva per la registrazione multicast.");
             }
-            out.write("REGISTER_PRICE_INTEREST\n");
-            out.write(username + "\n");
-            out.write(String.valueOf(multicastPort) + "\n");
-            out.flush();
-
-            String response = in.readLine();
+            String response = request("REGISTER_PRICE_INTEREST", username, String.valueOf(multicastPort)).readLine();
             System.out.println("Server response for price interest: " + response);
             return Integer.parseInt(response);
         }
@@ -324,14 +498,11 @@ public class TCPClient {
                 throw new IOException("Connessione al server non attiva per la cronologia prezzi.");
             }
 
-            out.write("PRICE_HISTORY\n");
-            out.write(username + "\n");
-            out.write(month + "\n");
-            out.flush();
+            BufferedReader reply = request("PRICE_HISTORY", username, String.valueOf(month));
 
             System.out.println("\n--- Cronologia Prezzi (Mese: " + month + ") ---");
             String line;
-            while ((line = in.readLine()) != null) {
+            while ((line = reply.readLine()) != null) {
                 if (line.equals("END_HISTORY")) {
                     break;
                 }
@@ -340,4 +511,90 @@ public class TCPClient {
             System.out.println("--- Fine Cronologia ---");
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Requests one page of the trades the user took part in, most recent first, and prints it.
+     *
+     * @param username The logged-in user.
+     * @param page     The page number, starting from 0.
+     * @param pageSize The number of trades per page.
+     * @throws IOException If the connection is not active or an I/O error occurs.
+     */
+    public void sendMyTrades(String username, int page, int pageSize) throws IOException {
+        synchronized (this) {
+            if (socket == null || socket.isClosed()) {
+                throw new IOException("Connessione al server non attiva per lo storico delle operazioni.");
+            }
+
+            BufferedReader reply = request("MY_TRADES", username, String.valueOf(page), String.valueOf(pageSize));
+
+            System.out.println("\n--- Le tue operazioni (Pagina: " + (page + 1) + ") ---");
+            String line;
+            while ((line = reply.readLine()) != null) {
+                if (line.equals("END_TRADES")) {
+                    break;
+                }
+                System.out.println(line);
+            }
+            System.out.println("--- Fine Operazioni ---");
+        }
+    }
+
+    /**
+     * Reads the reply frames of one binary connection and completes the request waiting for each, by correlation ID.
+     * When the connection ends, every request still waiting fails with the I/O error.
+     */
+    private static class ReplyReader implements Runnable {
+        private final DataInputStream in;
+        private final Map<Integer, CompletableFuture<Message>> waiting = new ConcurrentHashMap<>();
+        private volatile IOException failure;
+
+        ReplyReader(DataInputStream in) {
+            this.in = in;
+        }
+
+        CompletableFuture<Message> expect(int correlationId) throws IOException {
+            CompletableFuture<Message> reply = new CompletableFuture<>();
+            waiting.put(correlationId, reply);
+            IOException failed = failure;
+            if (failed != null) {
+                waiting.remove(correlationId);
+                throw failed;
+            }
+            return reply;
+        }
+
+        void forget(int correlationId) {
+            waiting.remove(correlationId);
+        }
+
+        @Override
+        public void run() {
+            ByteBuffer buffer = ByteBuffer.allocate(1024);
+            IOException error;
+            try {
+                ByteBuffer frame;
+                while ((frame = BinaryCodec.readFrame(in, buffer, BinaryCodec.MAX_REPLY_LENGTH)) != null) {
+                    buffer = frame;
+                    Message reply = new Message();
+                    BinaryCodec.decode(frame, BinaryCodec.MAX_REPLY_LENGTH, reply);
+                    CompletableFuture<Message> request = waiting.remove(reply.getCorrelationId());
+                    if (request != null) {
+                        request.complete(reply);
+                    } else {
+                        System.err.println("Risposta per una richiesta sconosciuta: " + reply.getCorrelationId());
+                    }
+                }
+                error = new EOFException("Connessione chiusa dal server.");
+            } catch (IOException e) {
+                error = e;
+            }
+            failure = error;
+            Iterator<CompletableFuture<Message>> requests = waiting.values().iterator();
+            while (requests.hasNext()) {
+                requests.next().completeExceptionally(error);
+                requests.remove();
+            }
+        }
+    }
+}
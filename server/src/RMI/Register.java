@@ -1,74 +1,178 @@
 package RMI;
 
-import auth.BCrypt;
 import auth.DataUser;
-import auth.FileManager;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import auth.PasswordHasher;
+import auth.UserDirectory;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.rmi.Remote;
 import java.rmi.RemoteException;
 import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.locks.Lock;
 
 public class Register extends UnicastRemoteObject implements RegisterInterface {
-    private static final ObjectMapper objectMapper = new ObjectMapper();
     private static final String FILE_NAME = "users.json";
 
     public Register() throws RemoteException {
         super();
     }
 
+    /**
+     * Registers an account.
+     *
+     * @param username the username.
+     * @param password the password.
+     * @return 100 -> OK, the account is on disk; 101 -> Invalid password, 102 -> Username already in use,
+     * 103 -> Invalid username, 104 -> The account could not be saved, 105 -> password hashing pool saturated.
+     */
     @Override
     public int Register(String username, String password) {
         try {
-            HashMap<String, DataUser> users = FileManager.loadUsers();
-
             if (password.length() < 2) {
                 return 101;
             }
-            if (users.containsKey(username)) {
-                return 102;
+            if (!UserDirectory.isValidUsername(username)) {
+                return 103;
             }
+            Lock userLock = UserDirectory.lockFor(username);
+            userLock.lock();
+            try {
+                if (UserDirectory.get(username) != null) {
+                    return 102;
+                }
 
-            String hashedPassword = BCrypt.hashpw(password, BCrypt.gensalt(12));
-            users.put(username, new DataUser(hashedPassword));
+                String hashedPassword = PasswordHasher.hash(password).join();
+                try {
+                    if (!UserDirectory.putIfAbsent(username, new DataUser(hashedPassword))) {
+                        return 102;
+                    }
+                } catch (IOException e) {
+                    System.err.println("Registrazione di " + username + " non salvata: " + e.getMessage());
+                    return 104;
+                }
+                return 100;
+            } finally {
+                userLock.unlock();
+            }
+        } catch (RejectedExecutionException e) {
+            return PasswordHasher.BUSY;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Registers a batch of accounts: the passwords are hashed in parallel on the hashing pool and the new users
+     * are written to the user store in one batch.
+     *
+     * @param usernames the usernames.
+     * @param passwords the passwords, in the same order as the usernames.
+     * @return one result code per account: 100 -> OK, the account is on disk; 101 -> Invalid password,
+     * 102 -> Username already in use or repeated in the batch, 103 -> Invalid username,
+     * 104 -> The account could not be saved.
+     */
+    @Override
+    public int[] registerBatch(String[] usernames, String[] passwords) {
+        if (usernames == null || passwords == null || usernames.length != passwords.length) {
+            throw new IllegalArgumentException("usernames and passwords must have the same length");
+        }
+        int[] results = new int[usernames.length];
+        List<Integer> accepted = new ArrayList<>();
+        List<String> acceptedPasswords = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        try {
+            for (int i = 0; i < usernames.length; i++) {
+                if (passwords[i] == null || passwords[i].length() < 2) {
+                    results[i] = 101;
+                } else if (!UserDirectory.isValidUsername(usernames[i])) {
+                    results[i] = 103;
+                } else if (!seen.add(usernames[i]) || UserDirectory.get(usernames[i]) != null) {
+                    results[i] = 102;
+                } else {
+                    accepted.add(i);
+                    acceptedPasswords.add(passwords[i]);
+                }
+            }
 
-            FileManager.saveUsers(users);
-            return 100;
+            List<String> hashes = PasswordHasher.hashAll(acceptedPasswords);
+            Map<String, DataUser> newUsers = new HashMap<>();
+            for (int j = 0; j < accepted.size(); j++) {
+                newUsers.put(usernames[accepted.get(j)], new DataUser(hashes.get(j)));
+            }
+            Set<String> added = UserDirectory.putAllIfAbsent(newUsers);
+            for (int i : accepted) {
+                if (added.contains(usernames[i])) {
+                    results[i] = 100;
+                } else {
+                    results[i] = UserDirectory.get(usernames[i]) != null ? 102 : 104;
+                }
+            }
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
 
     /**
-     * Update Credential function
+     * Update Credential function.
+     * The old password is checked and the new one hashed on the PasswordHasher pool, chained so that no thread
+     * waits for them. The record is then swapped only if it is still the one the old password was checked against,
+     * so of two concurrent changes of the same password only one succeeds.
      *
      * @param username    client username
      * @param oldPassword old password
      * @param newPassword new password
-     * @return 100 -> OK, 101 -> Invalid new Password, 102 -> Invalid Username or old password, 103 -> New Password equals old password
-     * @throws IOException
+     * @return a future completed with 100 -> OK, 101 -> Invalid new Password, 102 -> Invalid Username or old password,
+     * 103 -> New Password equals old password, 105 -> password hashing pool saturated
+     * @throws IOException If the user directory cannot be loaded.
      */
-    public static int updatePassword(String username, String oldPassword, String newPassword) throws IOException {
-        HashMap<String, DataUser> users = FileManager.loadUsers();
-
-        if ((!users.containsKey(username)) || !BCrypt.checkpw(oldPassword, users.get(username).getHashedPassword())) {
-            return 102;
-        }
-
-        if (newPassword.equals(oldPassword)) {
-            return 103;
+    public static CompletableFuture<Integer> updatePassword(String username, String oldPassword, String newPassword) throws IOException {
+        DataUser user = UserDirectory.get(username);
+        if (user == null) {
+            return CompletableFuture.completedFuture(102);
         }
-        if (newPassword.length() < 2) {
-            return 101;
+        CompletableFuture<Boolean> verified;
+        try {
+            verified = PasswordHasher.verify(oldPassword, user.getHashedPassword());
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.completedFuture(PasswordHasher.BUSY);
         }
-
-        String newHashedPassword = BCrypt.hashpw(newPassword, BCrypt.gensalt(12));
-        users.put(username, new DataUser(newHashedPassword));
-
-        FileManager.saveUsers(users);
-        return 100;
+        return verified.thenCompose(match -> {
+            if (!match) {
+                return CompletableFuture.completedFuture(102);
+            }
+            if (newPassword.equals(oldPassword)) {
+                return CompletableFuture.completedFuture(103);
+            }
+            if (newPassword.length() < 2) {
+                return CompletableFuture.completedFuture(101);
+            }
+            CompletableFuture<String> hashed;
+            try {
+                hashed = PasswordHasher.hash(newPassword);
+            } catch (RejectedExecutionException e) {
+                return CompletableFuture.completedFuture(PasswordHasher.BUSY);
+            }
+            return hashed.thenApply(newHashedPassword -> {
+                try {
+                    return UserDirectory.replace(username, user, new DataUser(newHashedPassword)) ? 100 : 102;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        });
     }
 
 }
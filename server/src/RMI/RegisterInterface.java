@@ -5,5 +5,15 @@ import java.rmi.RemoteException;
 
 public interface RegisterInterface extends Remote {
     int Register(String username, String password) throws RemoteException;
-    
+
+    /**
+     * Registers many accounts in one call, e.g. when onboarding users in bulk.
+     *
+     * @param usernames the usernames.
+     * @param passwords the passwords, in the same order as the usernames.
+     * @return one result code per account: 100 -> OK, the account is on disk; 101 -> Invalid password,
+     * 102 -> Username already in use or repeated in the batch, 103 -> Invalid username,
+     * 104 -> The account could not be saved.
+     */
+    int[] registerBatch(String[] usernames, String[] passwords) throws RemoteException;
 }
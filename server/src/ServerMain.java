@@ -1,7 +1,11 @@
 import RMI.Register;
 import RMI.RegisterInterface;
+import auth.UserDirectory;
+import manager.BlockingServer;
 import manager.OrderManager;
-import manager.TCPServer;
+import manager.ReactorServer;
+import manager.SessionCheckpointer;
+import manager.StorageCompactor;
 import manager.UdpSessionManager;
 import orderBook.OrderBook;
 
@@ -9,29 +13,29 @@ import java.io.IOException;
 import java.net.Inet4Address;
 import java.net.InetAddress;
 import java.net.NetworkInterface;
-import java.net.ServerSocket;
-import java.net.Socket;
 import java.net.SocketException;
 import java.net.UnknownHostException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
+import java.util.Arrays;
 import java.util.Enumeration;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.CompletableFuture;
 
 public class ServerMain {
-    private static final Set<String> loggedUsers = ConcurrentHashMap.newKeySet();
-
     private static final int SERVER_PORT = 1234;
-    private static final LinkedBlockingQueue<Runnable> taskQueue = new LinkedBlockingQueue<>();
-    private static final ExecutorService threadPool = new ThreadPoolExecutor(4, 10, 60L, TimeUnit.SECONDS, taskQueue);
 
     public static void main(String[] args) {
         System.out.println("Server starting...");
+        CompletableFuture<OrderBook> orderBookLoad = CompletableFuture.supplyAsync(OrderBook::new);
+
+        try {
+            UserDirectory.load();
+        } catch (IOException e) {
+            System.err.println("Impossibile caricare gli utenti registrati:");
+            e.printStackTrace();
+            System.exit(1);
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> UserDirectory.shutdown(5000), "user-directory-shutdown"));
 
         try {
             Registry registry = LocateRegistry.createRegistry(1099);
@@ -84,19 +88,26 @@ public class ServerMain {
             System.err.println("Attenzione: IP locale del server non disponibile. Il multicast potrebbe non funzionare correttamente.");
         }
 
-        OrderBook orderBook = new OrderBook();
+        OrderBook orderBook = orderBookLoad.join();
         System.out.println("OrderBook inizializzato e ordini esistenti caricati.");
+        Runtime.getRuntime().addShutdownHook(new Thread(orderBook::shutdownPersistence, "orderbook-shutdown"));
 
-        OrderManager orderManager = new OrderManager(orderBook);
+        StorageCompactor storageCompactor = new StorageCompactor();
+        storageCompactor.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> storageCompactor.shutdown(10000), "compactor-shutdown"));
 
-        try (ServerSocket serverSocket = new ServerSocket(SERVER_PORT)) {
-            System.out.println("Server TCP avviato sulla porta " + SERVER_PORT);
+        SessionCheckpointer.restore();
+        SessionCheckpointer sessionCheckpointer = new SessionCheckpointer();
+        sessionCheckpointer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(sessionCheckpointer::shutdown, "session-checkpoint-shutdown"));
 
-            while (true) {
-                Socket clientSocket = serverSocket.accept();
-                System.out.println("Nuovo client connesso: " + clientSocket.getRemoteSocketAddress());
+        OrderManager orderManager = new OrderManager(orderBook);
 
-                threadPool.submit(new TCPServer(clientSocket, loggedUsers, orderManager));
+        try {
+            if (Arrays.asList(args).contains("--virtual-threads")) {
+                new BlockingServer(SERVER_PORT, orderManager).run();
+            } else {
+                new ReactorServer(SERVER_PORT, orderManager).run();
             }
         } catch (IOException e) {
             System.err.println("Errore del Server TCP:");
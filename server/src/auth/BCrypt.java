@@ -12,8 +12,9 @@ package auth;// Copyright (c) 2006 Damien Miller <djm@mindrot.org>
 // ACTION OF CONTRACT, NEGLIGENCE OR OTHER TORTIOUS ACTION, ARISING OUT OF
 // OR IN CONNECTION WITH THE USE OR PERFORMANCE OF THIS SOFTWARE.
 
-import java.io.UnsupportedEncodingException;
+import java.nio.charset.StandardCharsets;
 import java.security.SecureRandom;
+import java.util.Arrays;
 
 /**
  * BCrypt implements OpenBSD-style Blowfish password hashing using
@@ -368,9 +369,27 @@ public class BCrypt {
             51, 52, 53, -1, -1, -1, -1, -1
     };
 
+    // Length of the key material XORed into P by each key expansion
+    private static final int P_LEN = 18;
+
+    // One engine per thread, so the key schedule and scratch buffers
+    // are allocated once instead of on every hash
+    private static final ThreadLocal<BCrypt> engines =
+            ThreadLocal.withInitial(BCrypt::new);
+
+    // Shared source of salts; SecureRandom is thread-safe
+    private static final SecureRandom random = new SecureRandom();
+
     // Expanded Blowfish key
-    private int P[];
-    private int S[];
+    private final int P[] = new int[P_orig.length];
+    private final int S[] = new int[S_orig.length];
+
+    // Scratch buffers: key material of the password and of the salt
+    // (cycled as in streamtoword), one Blowfish block and the plaintext
+    private final int passwordWords[] = new int[P_LEN];
+    private final int saltWords[] = new int[P_LEN];
+    private final int lr[] = new int[2];
+    private final int cdata[] = new int[bf_crypt_ciphertext.length];
 
     /**
      * Encode a byte array using bcrypt's slightly-modified base64
@@ -385,7 +404,7 @@ public class BCrypt {
     private static String encode_base64(byte d[], int len)
             throws IllegalArgumentException {
         int off = 0;
-        StringBuffer rs = new StringBuffer();
+        StringBuilder rs = new StringBuilder((len * 4 + 2) / 3);
         int c1, c2;
 
         if (len <= 0 || len > d.length)
@@ -415,6 +434,41 @@ public class BCrypt {
         return rs.toString();
     }
 
+    /**
+     * Append a byte array to a builder using bcrypt's base64
+     * encoding scheme, without an intermediate String.
+     *
+     * @param rs  the builder to append to
+     * @param d   the byte array to encode
+     * @param len the number of bytes to encode
+     */
+    private static void encode_base64(StringBuilder rs, byte d[], int len) {
+        int off = 0;
+        int c1, c2;
+
+        while (off < len) {
+            c1 = d[off++] & 0xff;
+            rs.append(base64_code[(c1 >> 2) & 0x3f]);
+            c1 = (c1 & 0x03) << 4;
+            if (off >= len) {
+                rs.append(base64_code[c1 & 0x3f]);
+                break;
+            }
+            c2 = d[off++] & 0xff;
+            c1 |= (c2 >> 4) & 0x0f;
+            rs.append(base64_code[c1 & 0x3f]);
+            c1 = (c2 & 0x0f) << 2;
+            if (off >= len) {
+                rs.append(base64_code[c1 & 0x3f]);
+                break;
+            }
+            c2 = d[off++] & 0xff;
+            c1 |= (c2 >> 6) & 0x03;
+            rs.append(base64_code[c1 & 0x3f]);
+            rs.append(base64_code[c2 & 0x3f]);
+        }
+    }
+
     /**
      * Look up the 3 bits base64-encoded by the specified character,
      * range-checking againt conversion table
@@ -423,7 +477,7 @@ public class BCrypt {
      * @return the decoded value of x
      */
     private static byte char64(char x) {
-        if ((int) x < 0 || (int) x > index_64.length)
+        if ((int) x >= index_64.length)
             return -1;
         return index_64[(int) x];
     }
@@ -440,13 +494,13 @@ public class BCrypt {
      */
     private static byte[] decode_base64(String s, int maxolen)
             throws IllegalArgumentException {
-        StringBuffer rs = new StringBuffer();
         int off = 0, slen = s.length(), olen = 0;
         byte ret[];
         byte c1, c2, c3, c4, o;
 
         if (maxolen <= 0)
             throw new IllegalArgumentException("Invalid maxolen");
+        ret = new byte[maxolen];
 
         while (off < slen - 1 && olen < maxolen) {
             c1 = char64(s.charAt(off++));
@@ -455,7 +509,7 @@ public class BCrypt {
                 break;
             o = (byte) (c1 << 2);
             o |= (c2 & 0x30) >> 4;
-            rs.append((char) o);
+            ret[olen] = o;
             if (++olen >= maxolen || off >= slen)
                 break;
             c3 = char64(s.charAt(off++));
@@ -463,49 +517,44 @@ public class BCrypt {
                 break;
             o = (byte) ((c2 & 0x0f) << 4);
             o |= (c3 & 0x3c) >> 2;
-            rs.append((char) o);
+            ret[olen] = o;
             if (++olen >= maxolen || off >= slen)
                 break;
             c4 = char64(s.charAt(off++));
             o = (byte) ((c3 & 0x03) << 6);
             o |= c4;
-            rs.append((char) o);
+            ret[olen] = o;
             ++olen;
         }
 
-        ret = new byte[olen];
-        for (off = 0; off < olen; off++)
-            ret[off] = (byte) rs.charAt(off);
-        return ret;
+        return olen == maxolen ? ret : Arrays.copyOf(ret, olen);
     }
 
     /**
      * Blowfish encipher a single 64-bit block encoded as
-     * two 32-bit halves
+     * two 32-bit halves. The rounds are unrolled in pairs and
+     * the tables are read through locals, which lets the JIT
+     * keep them in registers.
      *
      * @param lr  an array containing the two 32-bit half blocks
      * @param off the position in the array of the blocks
      */
-    private final void encipher(int lr[], int off) {
-        int i, n, l = lr[off], r = lr[off + 1];
+    private void encipher(int lr[], int off) {
+        final int p[] = P, s[] = S;
+        int l = lr[off] ^ p[0], r = lr[off + 1];
 
-        l ^= P[0];
-        for (i = 0; i <= BLOWFISH_NUM_ROUNDS - 2; ) {
+        for (int i = 1; i < BLOWFISH_NUM_ROUNDS; i += 2) {
             // Feistel substitution on left word
-            n = S[(l >> 24) & 0xff];
-            n += S[0x100 | ((l >> 16) & 0xff)];
-            n ^= S[0x200 | ((l >> 8) & 0xff)];
-            n += S[0x300 | (l & 0xff)];
-            r ^= n ^ P[++i];
+            r ^= ((s[l >>> 24] + s[0x100 | ((l >> 16) & 0xff)])
+                    ^ s[0x200 | ((l >> 8) & 0xff)])
+                    + s[0x300 | (l & 0xff)] ^ p[i];
 
             // Feistel substitution on right word
-            n = S[(r >> 24) & 0xff];
-            n += S[0x100 | ((r >> 16) & 0xff)];
-            n ^= S[0x200 | ((r >> 8) & 0xff)];
-            n += S[0x300 | (r & 0xff)];
-            l ^= n ^ P[++i];
+            l ^= ((s[r >>> 24] + s[0x100 | ((r >> 16) & 0xff)])
+                    ^ s[0x200 | ((r >> 8) & 0xff)])
+                    + s[0x300 | (r & 0xff)] ^ p[i + 1];
         }
-        lr[off] = r ^ P[BLOWFISH_NUM_ROUNDS + 1];
+        lr[off] = r ^ p[BLOWFISH_NUM_ROUNDS + 1];
         lr[off + 1] = l;
     }
 
@@ -531,28 +580,42 @@ public class BCrypt {
         return word;
     }
 
+    /**
+     * Extract the first P_LEN words of key material from data,
+     * which are the same on every expansion keyed with it
+     *
+     * @param data  the key material
+     * @param words the array to fill
+     */
+    private static void streamtowords(byte data[], int words[]) {
+        int offp[] = {0};
+
+        for (int i = 0; i < P_LEN; i++)
+            words[i] = streamtoword(data, offp);
+    }
+
     /**
      * Initialise the Blowfish key schedule
      */
     private void init_key() {
-        P = (int[]) P_orig.clone();
-        S = (int[]) S_orig.clone();
+        System.arraycopy(P_orig, 0, P, 0, P.length);
+        System.arraycopy(S_orig, 0, S, 0, S.length);
     }
 
     /**
      * Key the Blowfish cipher
      *
-     * @param key an array containing the key
+     * @param words the key material, as extracted by streamtowords
      */
-    private void key(byte key[]) {
+    private void key(int words[]) {
         int i;
-        int koffp[] = {0};
-        int lr[] = {0, 0};
         int plen = P.length, slen = S.length;
 
         for (i = 0; i < plen; i++)
-            P[i] = P[i] ^ streamtoword(key, koffp);
+            P[i] ^= words[i];
 
+        lr[0] = 0;
+        lr[1] = 0;
         for (i = 0; i < plen; i += 2) {
             encipher(lr, 0);
             P[i] = lr[0];
@@ -571,29 +634,30 @@ public class BCrypt {
      * Provos and Mazieres in "A Future-Adaptable Password Scheme"
      * http://www.openbsd.org/papers/bcrypt-paper.ps
      *
-     * @param data salt information
-     * @param key  password information
+     * @param data salt information, as extracted by streamtowords
+     *             from the 16-byte salt, so its words repeat every 4
+     * @param key  password information, as extracted by streamtowords
      */
-    private void ekskey(byte data[], byte key[]) {
-        int i;
-        int koffp[] = {0}, doffp[] = {0};
-        int lr[] = {0, 0};
+    private void ekskey(int data[], int key[]) {
+        int i, d = 0;
         int plen = P.length, slen = S.length;
 
         for (i = 0; i < plen; i++)
-            P[i] = P[i] ^ streamtoword(key, koffp);
+            P[i] ^= key[i];
 
+        lr[0] = 0;
+        lr[1] = 0;
         for (i = 0; i < plen; i += 2) {
-            lr[0] ^= streamtoword(data, doffp);
-            lr[1] ^= streamtoword(data, doffp);
+            lr[0] ^= data[d++ & 3];
+            lr[1] ^= data[d++ & 3];
             encipher(lr, 0);
             P[i] = lr[0];
             P[i + 1] = lr[1];
         }
 
         for (i = 0; i < slen; i += 2) {
-            lr[0] ^= streamtoword(data, doffp);
-            lr[1] ^= streamtoword(data, doffp);
+            lr[0] ^= data[d++ & 3];
+            lr[1] ^= data[d++ & 3];
             encipher(lr, 0);
             S[i] = lr[0];
             S[i + 1] = lr[1];
@@ -623,12 +687,16 @@ public class BCrypt {
         if (salt.length != BCRYPT_SALT_LEN)
             throw new IllegalArgumentException("Bad salt length");
 
+        streamtowords(password, passwordWords);
+        streamtowords(salt, saltWords);
+
         init_key();
-        ekskey(salt, password);
+        ekskey(saltWords, passwordWords);
         for (i = 0; i != rounds; i++) {
-            key(password);
-            key(salt);
+            key(passwordWords);
+            key(saltWords);
         }
+        Arrays.fill(passwordWords, 0);
 
         for (i = 0; i < 64; i++) {
             for (j = 0; j < (clen >> 1); j++)
@@ -659,7 +727,7 @@ public class BCrypt {
         byte passwordb[], saltb[], hashed[];
         char minor = (char) 0;
         int rounds, off = 0;
-        StringBuffer rs = new StringBuffer();
+        StringBuilder rs = new StringBuilder(60);
 
         if (salt.charAt(0) != '$' || salt.charAt(1) != '2')
             throw new IllegalArgumentException("Invalid salt version");
@@ -678,17 +746,15 @@ public class BCrypt {
         rounds = Integer.parseInt(salt.substring(off, off + 2));
 
         real_salt = salt.substring(off + 3, off + 25);
-        try {
-            passwordb = (password + (minor >= 'a' ? "\000" : "")).getBytes("UTF-8");
-        } catch (UnsupportedEncodingException uee) {
-            throw new AssertionError("UTF-8 is not supported");
-        }
+        passwordb = (minor >= 'a' ? password + "\000" : password)
+                .getBytes(StandardCharsets.UTF_8);
 
         saltb = decode_base64(real_salt, BCRYPT_SALT_LEN);
 
-        B = new BCrypt();
-        hashed = B.crypt_raw(passwordb, saltb, rounds,
-                (int[]) bf_crypt_ciphertext.clone());
+        B = engines.get();
+        System.arraycopy(bf_crypt_ciphertext, 0, B.cdata, 0, B.cdata.length);
+        hashed = B.crypt_raw(passwordb, saltb, rounds, B.cdata);
+        Arrays.fill(passwordb, (byte) 0);
 
         rs.append("$2");
         if (minor >= 'a')
@@ -702,9 +768,8 @@ public class BCrypt {
         }
         rs.append(Integer.toString(rounds));
         rs.append("$");
-        rs.append(encode_base64(saltb, saltb.length));
-        rs.append(encode_base64(hashed,
-                bf_crypt_ciphertext.length * 4 - 1));
+        encode_base64(rs, saltb, saltb.length);
+        encode_base64(rs, hashed, bf_crypt_ciphertext.length * 4 - 1);
         return rs.toString();
     }
 
@@ -718,7 +783,7 @@ public class BCrypt {
      * @return an encoded salt value
      */
     public static String gensalt(int log_rounds, SecureRandom random) {
-        StringBuffer rs = new StringBuffer();
+        StringBuilder rs = new StringBuilder(29);
         byte rnd[] = new byte[BCRYPT_SALT_LEN];
 
         random.nextBytes(rnd);
@@ -732,7 +797,7 @@ public class BCrypt {
         }
         rs.append(Integer.toString(log_rounds));
         rs.append("$");
-        rs.append(encode_base64(rnd, rnd.length));
+        encode_base64(rs, rnd, rnd.length);
         return rs.toString();
     }
 
@@ -745,7 +810,7 @@ public class BCrypt {
      * @return an encoded salt value
      */
     public static String gensalt(int log_rounds) {
-        return gensalt(log_rounds, new SecureRandom());
+        return gensalt(log_rounds, random);
     }
 
     /**
@@ -761,27 +826,19 @@ public class BCrypt {
 
     /**
      * Check that a plaintext password matches a previously hashed
-     * one
+     * one. The comparison takes the same time wherever the
+     * hashes differ.
      *
      * @param plaintext the plaintext password to verify
      * @param hashed    the previously-hashed password
      * @return true if the passwords match, false otherwise
      */
     public static boolean checkpw(String plaintext, String hashed) {
-        byte hashed_bytes[];
-        byte try_bytes[];
-        try {
-            String try_pw = hashpw(plaintext, hashed);
-            hashed_bytes = hashed.getBytes("UTF-8");
-            try_bytes = try_pw.getBytes("UTF-8");
-        } catch (UnsupportedEncodingException uee) {
-            return false;
-        }
-        if (hashed_bytes.length != try_bytes.length)
-            return false;
-        byte ret = 0;
-        for (int i = 0; i < try_bytes.length; i++)
-            ret |= hashed_bytes[i] ^ try_bytes[i];
+        String try_pw = hashpw(plaintext, hashed);
+        int len = hashed.length();
+        int ret = len ^ try_pw.length();
+        for (int i = 0; i < len; i++)
+            ret |= hashed.charAt(i) ^ try_pw.charAt(i % try_pw.length());
         return ret == 0;
     }
 }
@@ -0,0 +1,120 @@
+package auth;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Hand-written codec for the user records, without reflective data binding.
+ * The JSON form is the one of users.json: an object keyed by username whose values hold the hashed password.
+ */
+public final class DataUserCodec {
+
+    private DataUserCodec() {
+    }
+
+    /**
+     * Writes the users as a JSON object keyed by username.
+     *
+     * @param generator the JSON generator.
+     * @param users     the users.
+     * @throws IOException if the generator fails.
+     */
+    public static void writeUsers(JsonGenerator generator, Map<String, DataUser> users) throws IOException {
+        generator.writeStartObject();
+        for (Map.Entry<String, DataUser> entry : users.entrySet()) {
+            generator.writeFieldName(entry.getKey());
+            write(generator, entry.getValue());
+        }
+        generator.writeEndObject();
+    }
+
+    /**
+     * Reads a JSON object of users keyed by username.
+     *
+     * @param parser the JSON parser, positioned on START_OBJECT.
+     * @return the users.
+     * @throws IOException if the input is not a valid object of users.
+     */
+    public static HashMap<String, DataUser> readUsers(JsonParser parser) throws IOException {
+        if (parser.currentToken() != JsonToken.START_OBJECT) {
+            throw new IOException("Expected an object of users but found " + parser.currentToken() + " at " + parser.currentLocation());
+        }
+        HashMap<String, DataUser> users = new HashMap<>();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String username = parser.currentName();
+            parser.nextToken();
+            users.put(username, read(parser));
+        }
+        return users;
+    }
+
+    /**
+     * Writes a user record as a JSON object.
+     *
+     * @param generator the JSON generator.
+     * @param user      the user record.
+     * @throws IOException if the generator fails.
+     */
+    public static void write(JsonGenerator generator, DataUser user) throws IOException {
+        generator.writeStartObject();
+        generator.writeStringField("hashedPassword", user.getHashedPassword());
+        generator.writeEndObject();
+    }
+
+    /**
+     * Reads a user record from the JSON object the parser is positioned on.
+     * On return the parser is on the END_OBJECT token of the record.
+     *
+     * @param parser the JSON parser, positioned on START_OBJECT.
+     * @return the user record.
+     * @throws IOException if the input is not a valid user object.
+     */
+    public static DataUser read(JsonParser parser) throws IOException {
+        if (parser.currentToken() != JsonToken.START_OBJECT) {
+            throw new IOException("Expected a user object but found " + parser.currentToken() + " at " + parser.currentLocation());
+        }
+        DataUser user = new DataUser();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            parser.nextToken();
+            if ("hashedPassword".equals(field)) {
+                user.setHashedPassword(parser.getValueAsString());
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return user;
+    }
+
+    /**
+     * Writes a user record in binary form.
+     *
+     * @param out  the output.
+     * @param user the user record.
+     * @throws IOException if the output fails.
+     */
+    public static void write(DataOutput out, DataUser user) throws IOException {
+        out.writeBoolean(user.getHashedPassword() != null);
+        if (user.getHashedPassword() != null) {
+            out.writeUTF(user.getHashedPassword());
+        }
+    }
+
+    /**
+     * Reads a user record written by write(DataOutput, DataUser).
+     *
+     * @param in the input.
+     * @return the user record.
+     * @throws IOException if the input fails or ends early.
+     */
+    public static DataUser read(DataInput in) throws IOException {
+        return new DataUser(in.readBoolean() ? in.readUTF() : null);
+    }
+}
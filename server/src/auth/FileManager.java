@@ -1,55 +1,36 @@
 package auth;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.core.type.TypeReference;
-
-import java.io.File;
 import java.io.IOException;
 import java.util.HashMap;
+import java.util.Map;
 
 public class FileManager {
-    private static ObjectMapper objectMapper = new ObjectMapper();
-    private static final String FILE_NAME = "users.json";
-
-
-    private static final Object FILE_LOCK = new Object();
 
     /**
      * @return a hashmap with all the users registred
      * @throws IOException If an I/O error occurs during file reading.
      */
     public static HashMap<String, DataUser> loadUsers() throws IOException {
-
-        synchronized (FILE_LOCK) {
-            File file = new File(FILE_NAME);
-            if (file.exists() && file.length() > 0) {
-                try {
-                    return objectMapper.readValue(file, new TypeReference<HashMap<String, DataUser>>() {
-                    });
-                } catch (IOException e) {
-                    System.err.println("Errore durante il caricamento degli utenti da " + FILE_NAME + ": " + e.getMessage());
-                    throw e;
-                }
-            } else {
-                return new HashMap<>();
-            }
+        try {
+            return UserStore.readAll();
+        } catch (IOException e) {
+            System.err.println("Errore durante il caricamento degli utenti: " + e.getMessage());
+            throw e;
         }
     }
 
     /**
-     * Saves users in json file
+     * Saves a batch of new or changed users in the user store.
      *
-     * @param users The HashMap of users to save.
+     * @param users The users to save, by username.
      * @throws IOException If an I/O error occurs during file writing.
      */
-    public static void saveUsers(HashMap<String, DataUser> users) throws IOException {
-        synchronized (FILE_LOCK) {
-            try {
-                objectMapper.writerWithDefaultPrettyPrinter().writeValue(new File(FILE_NAME), users);
-            } catch (IOException e) {
-                System.err.println("Errore durante il salvataggio degli utenti in " + FILE_NAME + ": " + e.getMessage());
-                throw e;
-            }
+    public static void saveUsers(Map<String, DataUser> users) throws IOException {
+        try {
+            UserStore.putAll(users);
+        } catch (IOException e) {
+            System.err.println("Errore durante il salvataggio degli utenti: " + e.getMessage());
+            throw e;
         }
     }
 
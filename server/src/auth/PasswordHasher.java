@@ -0,0 +1,105 @@
+package auth;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Dedicated executor for BCrypt hashing and verification, separate from the threads serving trading commands.
+ * It has one thread per two cores and a short queue: when the queue is full new requests are rejected at once with
+ * BUSY instead of piling up. A login storm therefore keeps at most half the cores busy, leaving the others to order
+ * entry, and cannot build an unbounded backlog. The threads also run at low priority, but that is only a hint
+ * which Linux ignores by default.
+ */
+public class PasswordHasher {
+    /**
+     * Result code returned to clients when the hashing pool is saturated.
+     */
+    public static final int BUSY = 105;
+
+    private static final int LOG_ROUNDS = 12;
+    private static final int QUEUE_LIMIT = 64;
+    private static final int THREADS = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    private static final AtomicInteger threadCount = new AtomicInteger();
+
+    private static final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+            THREADS, THREADS,
+            60L, TimeUnit.SECONDS, new ArrayBlockingQueue<>(QUEUE_LIMIT),
+            runnable -> {
+                Thread thread = new Thread(runnable, "bcrypt-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                thread.setPriority(Thread.NORM_PRIORITY - 1);
+                return thread;
+            },
+            new ThreadPoolExecutor.AbortPolicy());
+
+    /**
+     * Checks a password against a stored hash on the hashing pool.
+     *
+     * @param password       the plaintext password.
+     * @param hashedPassword the stored BCrypt hash.
+     * @return a future completed with true if the password matches.
+     * @throws RejectedExecutionException if the pool's queue is full.
+     */
+    public static CompletableFuture<Boolean> verify(String password, String hashedPassword) {
+        return CompletableFuture.supplyAsync(() -> BCrypt.checkpw(password, hashedPassword), executor);
+    }
+
+    /**
+     * Hashes a password with a new salt on the hashing pool.
+     *
+     * @param password the plaintext password.
+     * @return a future completed with the BCrypt hash.
+     * @throws RejectedExecutionException if the pool's queue is full.
+     */
+    public static CompletableFuture<String> hash(String password) {
+        return CompletableFuture.supplyAsync(() -> BCrypt.hashpw(password, BCrypt.gensalt(LOG_ROUNDS)), executor);
+    }
+
+    /**
+     * Hashes a list of passwords in parallel on the hashing pool, for bulk provisioning.
+     * At most one batch task per pool thread is in flight at a time, so a batch never fills the queue and logins
+     * keep being accepted while it runs. When logins have filled the queue, the password is hashed on the caller's
+     * thread instead.
+     *
+     * @param passwords the plaintext passwords.
+     * @return the BCrypt hashes, in the same order.
+     * @throws InterruptedException if the caller is interrupted while waiting for a pool thread.
+     */
+    public static List<String> hashAll(List<String> passwords) throws InterruptedException {
+        Semaphore inFlight = new Semaphore(THREADS);
+        List<CompletableFuture<String>> futures = new ArrayList<>(passwords.size());
+        for (String password : passwords) {
+            inFlight.acquire();
+            CompletableFuture<String> future;
+            try {
+                future = hash(password);
+            } catch (RejectedExecutionException e) {
+                inFlight.release();
+                futures.add(CompletableFuture.completedFuture(BCrypt.hashpw(password, BCrypt.gensalt(LOG_ROUNDS))));
+                continue;
+            }
+            future.whenComplete((hash, error) -> inFlight.release());
+            futures.add(future);
+        }
+
+        List<String> hashes = new ArrayList<>(futures.size());
+        for (CompletableFuture<String> future : futures) {
+            hashes.add(future.join());
+        }
+        return hashes;
+    }
+
+    /**
+     * @return the number of hashing requests waiting for a thread.
+     */
+    public static int queueDepth() {
+        return executor.getQueue().size();
+    }
+}
@@ -0,0 +1,185 @@
+package auth;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.ToLongFunction;
+
+/**
+ * Short-lived session tickets, handed out on a successful login so that a client reconnecting after a network
+ * blip can restore its session without a new BCrypt check.
+ * A ticket is the Base64url payload "username|expiry|nonce" followed by a dot and the Base64url HMAC-SHA256 of the
+ * payload. The key is generated on first use and kept in a file readable only by the server, so tickets survive a
+ * restart and clients can resume their sessions instead of logging in again.
+ * Logging out revokes every ticket issued to the user until then; the revocations are checkpointed with the sessions.
+ * A ticket expires long before the session it was issued for, so a client that stayed connected may only hold an
+ * expired ticket when it has to reconnect, e.g. after a restart. Such a ticket is still accepted while the session
+ * it was issued for is active.
+ */
+public class SessionTicket {
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final long TTL_MS = 15 * 60 * 1000;
+    private static final int NONCE_BYTES = 16;
+    private static final int KEY_BYTES = 32;
+    private static final String KEY_FILE_PATH = "session_ticket.key";
+    private static final SecureRandom random = new SecureRandom();
+    private static final Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder decoder = Base64.getUrlDecoder();
+    private static final SecretKeySpec key = newKey();
+    private static final ThreadLocal<Mac> macs = ThreadLocal.withInitial(SessionTicket::newMac);
+    private static final ConcurrentHashMap<String, Long> revokedAt = new ConcurrentHashMap<>();
+
+    /**
+     * Issues a ticket for a user who has just authenticated.
+     *
+     * @param username the user.
+     * @return the signed ticket.
+     */
+    public static String issue(String username) {
+        byte[] nonce = new byte[NONCE_BYTES];
+        random.nextBytes(nonce);
+        String payload = username + "|" + (System.currentTimeMillis() + TTL_MS) + "|" + encoder.encodeToString(nonce);
+        byte[] payloadBytes = payload.getBytes(StandardCharsets.UTF_8);
+        return encoder.encodeToString(payloadBytes) + "." + encoder.encodeToString(macs.get().doFinal(payloadBytes));
+    }
+
+    /**
+     * Checks a ticket's signature and expiry.
+     *
+     * @param ticket the ticket sent by the client.
+     * @return the ticket's username, or null if the ticket is malformed, forged or expired.
+     */
+    public static String validate(String ticket) {
+        return validate(ticket, username -> Long.MAX_VALUE);
+    }
+
+    /**
+     * Checks a ticket's signature, expiry and revocation, accepting an expired ticket if it was issued after the
+     * user's active session started.
+     *
+     * @param ticket       the ticket sent by the client.
+     * @param sessionStart gives the start time of the user's active session, or Long.MAX_VALUE if there is none.
+     * @return the ticket's username, or null if the ticket is malformed, forged or revoked, or expired and not
+     * issued during the user's active session.
+     */
+    public static String validate(String ticket, ToLongFunction<String> sessionStart) {
+        if (ticket == null) {
+            return null;
+        }
+        int dot = ticket.indexOf('.');
+        if (dot < 0) {
+            return null;
+        }
+        try {
+            byte[] payloadBytes = decoder.decode(ticket.substring(0, dot));
+            byte[] signature = decoder.decode(ticket.substring(dot + 1));
+            if (!MessageDigest.isEqual(signature, macs.get().doFinal(payloadBytes))) {
+                return null;
+            }
+            String payload = new String(payloadBytes, StandardCharsets.UTF_8);
+            int nonceSeparator = payload.lastIndexOf('|');
+            int expirySeparator = payload.lastIndexOf('|', nonceSeparator - 1);
+            if (expirySeparator <= 0) {
+                return null;
+            }
+            long expiry = Long.parseLong(payload.substring(expirySeparator + 1, nonceSeparator));
+            String username = payload.substring(0, expirySeparator);
+            if (expiry < System.currentTimeMillis() && expiry - TTL_MS < sessionStart.applyAsLong(username)) {
+                return null;
+            }
+            Long revoked = revokedAt.get(username);
+            if (revoked != null && expiry - TTL_MS <= revoked) {
+                return null;
+            }
+            return username;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Revokes the tickets issued to a user so far, e.g. on logout.
+     *
+     * @param username the user.
+     */
+    public static void revoke(String username) {
+        long now = System.currentTimeMillis();
+        revokedAt.put(username, now);
+        revokedAt.values().removeIf(time -> time < now - TTL_MS);
+    }
+
+    /**
+     * @return a copy of the revocations that can still matter, by username.
+     */
+    public static Map<String, Long> revocations() {
+        return new HashMap<>(revokedAt);
+    }
+
+    /**
+     * Restores the revocations of a checkpoint, keeping the later time where both have one.
+     *
+     * @param revocations the revocation times, by username.
+     */
+    public static void restoreRevocations(Map<String, Long> revocations) {
+        revocations.forEach((username, time) -> revokedAt.merge(username, time, Math::max));
+    }
+
+    /**
+     * Loads the key from its file, creating the file with a random key if it is missing or damaged.
+     * If the file cannot be written the key is kept in memory only.
+     */
+    private static SecretKeySpec newKey() {
+        Path path = Paths.get(KEY_FILE_PATH);
+        try {
+            if (Files.exists(path)) {
+                byte[] bytes = Files.readAllBytes(path);
+                if (bytes.length == KEY_BYTES) {
+                    return new SecretKeySpec(bytes, ALGORITHM);
+                }
+                System.err.println("Chiave dei ticket di sessione non valida, ne viene generata una nuova.");
+            }
+        } catch (IOException e) {
+            System.err.println("Impossibile leggere la chiave dei ticket di sessione: " + e.getMessage());
+        }
+
+        byte[] bytes = new byte[KEY_BYTES];
+        random.nextBytes(bytes);
+        Path tmp = Paths.get(KEY_FILE_PATH + ".tmp");
+        try {
+            Files.deleteIfExists(tmp);
+            try {
+                Files.createFile(tmp, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+            } catch (UnsupportedOperationException e) {
+                Files.createFile(tmp);
+            }
+            Files.write(tmp, bytes);
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("Impossibile salvare la chiave dei ticket di sessione, i ticket non sopravviveranno al riavvio: " + e.getMessage());
+        }
+        return new SecretKeySpec(bytes, ALGORITHM);
+    }
+
+    private static Mac newMac() {
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(key);
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HMAC non disponibile", e);
+        }
+    }
+}
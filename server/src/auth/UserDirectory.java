@@ -0,0 +1,289 @@
+package auth;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * In-memory directory of the registered users, loaded from the user store once at startup and then served from a
+ * ConcurrentHashMap, so a login costs only the BCrypt check.
+ * Registrations are written to the user store before they are acknowledged, so an accepted account survives a
+ * crash. Password changes update the map immediately and are written behind by a single background thread: the
+ * usernames changed meanwhile are drained from a queue and their latest records are saved in one batch.
+ * When a batch fails its records are saved one at a time, so a record that cannot be written does not hold back
+ * the others; it is retried a few times and then given up with an error in the log.
+ * Read-modify-write sequences on a user, such as a registration, hold that user's lock from lockFor; locks are
+ * striped by username, so changes to different users run in parallel. A password change holds no lock across its
+ * BCrypt rounds: it swaps the record with replace, which fails if the record changed meanwhile.
+ */
+public class UserDirectory {
+    /**
+     * Longest username accepted at registration, in characters. It keeps every record well inside a user store page.
+     */
+    public static final int MAX_USERNAME_LENGTH = 64;
+    private static final int MAX_BATCH = 512;
+    private static final long POLL_MS = 200;
+    private static final long RETRY_DELAY_MS = 1000;
+    private static final int MAX_ATTEMPTS = 5;
+    private static final int LOCK_STRIPES = 1024;
+    private static final Object LOAD_LOCK = new Object();
+    private static final ReentrantLock[] userLocks = new ReentrantLock[LOCK_STRIPES];
+
+    static {
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            userLocks[i] = new ReentrantLock();
+        }
+    }
+
+    private static final ConcurrentHashMap<String, DataUser> users = new ConcurrentHashMap<>();
+    private static final BlockingQueue<String> pending = new LinkedBlockingQueue<>();
+    private static volatile boolean loaded = false;
+    private static volatile boolean stopping = false;
+    private static Thread writer;
+
+    /**
+     * Loads every user from the user store and starts the writer thread. Later calls do nothing.
+     *
+     * @throws IOException If the user store cannot be read.
+     */
+    public static void load() throws IOException {
+        synchronized (LOAD_LOCK) {
+            if (loaded) {
+                return;
+            }
+            users.putAll(FileManager.loadUsers());
+            writer = new Thread(UserDirectory::runWriter, "user-writer");
+            writer.setDaemon(true);
+            writer.start();
+            loaded = true;
+            System.out.println("UserDirectory: " + users.size() + " utenti caricati.");
+        }
+    }
+
+    /**
+     * @param username The username.
+     * @return true if the username may be registered: not empty and at most MAX_USERNAME_LENGTH characters.
+     */
+    public static boolean isValidUsername(String username) {
+        return username != null && !username.isEmpty() && username.length() <= MAX_USERNAME_LENGTH;
+    }
+
+    /**
+     * Returns the lock guarding a user's read-modify-write sequences. Different users may share a lock.
+     *
+     * @param username The username.
+     * @return the lock.
+     */
+    public static Lock lockFor(String username) {
+        int hash = username.hashCode();
+        return userLocks[(hash ^ (hash >>> 16)) & (LOCK_STRIPES - 1)];
+    }
+
+    /**
+     * @param username The username to look up.
+     * @return the user's data, or null if the user is not registered.
+     * @throws IOException If the directory was not loaded yet and the user store cannot be read.
+     */
+    public static DataUser get(String username) throws IOException {
+        if (!loaded) {
+            load();
+        }
+        return users.get(username);
+    }
+
+    /**
+     * Registers a new user, unless the username is already taken, and writes the record to the user store before
+     * returning.
+     *
+     * @param username The username.
+     * @param user     The user's data.
+     * @return true if the user was added, false if the username is already registered.
+     * @throws IOException If the user store cannot be read or the record cannot be written; the user is then not
+     *                     registered.
+     */
+    public static boolean putIfAbsent(String username, DataUser user) throws IOException {
+        if (!loaded) {
+            load();
+        }
+        if (users.putIfAbsent(username, user) != null) {
+            return false;
+        }
+        try {
+            FileManager.saveUsers(Map.of(username, user));
+        } catch (IOException e) {
+            users.remove(username, user);
+            throw e;
+        }
+        return true;
+    }
+
+    /**
+     * Registers many new users at once, skipping the usernames already taken, and writes them to the user store
+     * in a single batch before returning. If the batch fails the users are written one at a time, and those that
+     * still cannot be written are not registered.
+     *
+     * @param newUsers The users to add, by username.
+     * @return the usernames that were added and written.
+     * @throws IOException If the directory was not loaded yet and the user store cannot be read.
+     */
+    public static Set<String> putAllIfAbsent(Map<String, DataUser> newUsers) throws IOException {
+        if (!loaded) {
+            load();
+        }
+        Map<String, DataUser> added = new HashMap<>();
+        for (Map.Entry<String, DataUser> entry : newUsers.entrySet()) {
+            if (users.putIfAbsent(entry.getKey(), entry.getValue()) == null) {
+                added.put(entry.getKey(), entry.getValue());
+            }
+        }
+        if (added.isEmpty()) {
+            return added.keySet();
+        }
+        try {
+            FileManager.saveUsers(added);
+        } catch (IOException e) {
+            System.err.println("UserDirectory: salvataggio di " + added.size() + " nuovi utenti fallito, salvataggio uno per uno.");
+            for (Map.Entry<String, DataUser> failed : saveEach(added).entrySet()) {
+                users.remove(failed.getKey(), failed.getValue());
+                added.remove(failed.getKey());
+            }
+        }
+        return added.keySet();
+    }
+
+    /**
+     * Replaces the data of a user, e.g. after a password change. The record is written behind.
+     *
+     * @param username The username.
+     * @param user     The user's new data.
+     * @throws IOException If the directory was not loaded yet and the user store cannot be read.
+     */
+    public static void put(String username, DataUser user) throws IOException {
+        if (!loaded) {
+            load();
+        }
+        users.put(username, user);
+        pending.add(username);
+    }
+
+    /**
+     * Replaces the data of a user only if it is still the given record. The new record is written behind.
+     *
+     * @param username The username.
+     * @param expected The record the change was computed from.
+     * @param user     The user's new data.
+     * @return true if the record was replaced, false if it changed meanwhile.
+     * @throws IOException If the directory was not loaded yet and the user store cannot be read.
+     */
+    public static boolean replace(String username, DataUser expected, DataUser user) throws IOException {
+        if (!loaded) {
+            load();
+        }
+        if (!users.replace(username, expected, user)) {
+            return false;
+        }
+        pending.add(username);
+        return true;
+    }
+
+    /**
+     * Writes the changes still queued and stops the writer thread.
+     *
+     * @param timeoutMs The maximum time to wait in milliseconds.
+     */
+    public static void shutdown(long timeoutMs) {
+        stopping = true;
+        Thread current = writer;
+        if (current == null) {
+            return;
+        }
+        try {
+            current.join(timeoutMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (current.isAlive()) {
+            System.err.println("UserDirectory: " + pending.size() + " utenti non ancora salvati allo spegnimento.");
+        }
+    }
+
+    /**
+     * Saves records one at a time.
+     *
+     * @param records The records to save, by username.
+     * @return the records that could not be saved.
+     */
+    private static Map<String, DataUser> saveEach(Map<String, DataUser> records) {
+        Map<String, DataUser> failed = new HashMap<>();
+        for (Map.Entry<String, DataUser> entry : records.entrySet()) {
+            try {
+                FileManager.saveUsers(Map.of(entry.getKey(), entry.getValue()));
+            } catch (IOException e) {
+                failed.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return failed;
+    }
+
+    /**
+     * The writer is never interrupted: an interrupt would close the store's file channel.
+     */
+    private static void runWriter() {
+        List<String> batch = new ArrayList<>(MAX_BATCH);
+        Map<String, Integer> attempts = new HashMap<>();
+        while (true) {
+            try {
+                String first = pending.poll(POLL_MS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    if (stopping) {
+                        return;
+                    }
+                    continue;
+                }
+                batch.add(first);
+            } catch (InterruptedException e) {
+                continue;
+            }
+            pending.drainTo(batch, MAX_BATCH - batch.size());
+
+            Map<String, DataUser> changes = new HashMap<>();
+            for (String username : batch) {
+                changes.put(username, users.get(username));
+            }
+            Map<String, DataUser> failed;
+            try {
+                FileManager.saveUsers(changes);
+                failed = Map.of();
+            } catch (IOException e) {
+                e.printStackTrace();
+                failed = saveEach(changes);
+            }
+            for (String username : changes.keySet()) {
+                if (!failed.containsKey(username)) {
+                    attempts.remove(username);
+                } else if (attempts.merge(username, 1, Integer::sum) < MAX_ATTEMPTS) {
+                    pending.add(username);
+                } else {
+                    attempts.remove(username);
+                    System.err.println("UserDirectory: impossibile salvare l'utente " + username + " dopo " + MAX_ATTEMPTS + " tentativi, modifica abbandonata.");
+                }
+            }
+            if (!failed.isEmpty()) {
+                try {
+                    Thread.sleep(RETRY_DELAY_MS);
+                } catch (InterruptedException ignored) {
+                }
+            }
+            batch.clear();
+        }
+    }
+}
@@ -0,0 +1,393 @@
+package auth;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UTFDataFormatException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Embedded on-disk store of the registered users, keyed by username: an extendible hash file.
+ * users.db holds fixed-size bucket pages; users.db.dir holds the directory, 2^globalDepth page numbers indexed by
+ * the low bits of the username's hash. A lookup reads at most one page and an insert writes one page, or two pages
+ * and a few directory entries when the bucket has to be split. Recently used pages are kept decoded in an LRU cache.
+ * A split writes the new page before pointing the directory to it and rewrites the old page last, so a crash can
+ * only leave stale copies in the old page; they are dropped the next time the page is read.
+ * The legacy users.json is imported on first use and renamed only once every user is in the store. Until then
+ * the import runs again each time the store is opened, adding the users still missing without overwriting the
+ * ones already stored, so an import cut short by a crash or an error is completed on the next start.
+ * A record must fit in a page on its own; a larger one is rejected before the store is touched, since no number of
+ * splits could make room for it.
+ */
+public class UserStore {
+    private static final String FILE_NAME = "users.db";
+    private static final String DIRECTORY_FILE_NAME = "users.db.dir";
+    private static final String LEGACY_FILE_NAME = "users.json";
+    private static final String MIGRATED_SUFFIX = ".migrated";
+    private static final int PAGE_SIZE = 4096;
+    private static final int BUCKET_HEADER = 8;
+    private static final int DIRECTORY_MAGIC = 0x55444952;
+    private static final int DIRECTORY_HEADER = 8;
+    private static final int MAX_DEPTH = 24;
+    private static final int CACHE_PAGES = 1024;
+    private static final JsonFactory jsonFactory = new JsonFactory();
+    private static final Object STORE_LOCK = new Object();
+
+    private static final Map<Integer, Bucket> cache = new LinkedHashMap<>(CACHE_PAGES, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Bucket> eldest) {
+            return size() > CACHE_PAGES;
+        }
+    };
+    private static FileChannel pages;
+    private static FileChannel directoryChannel;
+    private static int[] directory;
+    private static int globalDepth;
+    private static int pageCount;
+
+    /**
+     * Reads a user record.
+     *
+     * @param username the username.
+     * @return the user record, or null if the user is not registered.
+     * @throws IOException if the store cannot be read.
+     */
+    public static DataUser get(String username) throws IOException {
+        synchronized (STORE_LOCK) {
+            ensureOpen();
+            return bucket(directory[slot(hash(username))]).users.get(username);
+        }
+    }
+
+    /**
+     * Adds a user record unless the username is already registered.
+     *
+     * @param username the username.
+     * @param user     the user record.
+     * @return true if the record was added, false if the username is taken.
+     * @throws IOException if the store cannot be written.
+     */
+    public static boolean putIfAbsent(String username, DataUser user) throws IOException {
+        synchronized (STORE_LOCK) {
+            ensureOpen();
+            return insert(username, user, false);
+        }
+    }
+
+    /**
+     * Adds or replaces a user record.
+     *
+     * @param username the username.
+     * @param user     the user record.
+     * @throws IOException if the store cannot be written.
+     */
+    public static void put(String username, DataUser user) throws IOException {
+        synchronized (STORE_LOCK) {
+            ensureOpen();
+            insert(username, user, true);
+        }
+    }
+
+    /**
+     * Adds or replaces a batch of user records and forces them to disk once.
+     *
+     * @param users the user records, by username.
+     * @throws IOException if the store cannot be written.
+     */
+    public static void putAll(Map<String, DataUser> users) throws IOException {
+        synchronized (STORE_LOCK) {
+            ensureOpen();
+            for (Map.Entry<String, DataUser> entry : users.entrySet()) {
+                insert(entry.getKey(), entry.getValue(), true);
+            }
+            pages.force(false);
+        }
+    }
+
+    /**
+     * Reads every user record, one page at a time.
+     *
+     * @return all registered users.
+     * @throws IOException if the store cannot be read.
+     */
+    public static HashMap<String, DataUser> readAll() throws IOException {
+        synchronized (STORE_LOCK) {
+            ensureOpen();
+            HashMap<String, DataUser> users = new HashMap<>();
+            for (int page = 0; page < pageCount; page++) {
+                users.putAll(bucket(page).users);
+            }
+            return users;
+        }
+    }
+
+    private static boolean insert(String username, DataUser user, boolean replace) throws IOException {
+        if (!fitsInPage(username, user)) {
+            throw new IOException("Record utente troppo grande per una pagina del file utenti (username di " + username.length() + " caratteri)");
+        }
+        int hash = hash(username);
+        while (true) {
+            int page = directory[slot(hash)];
+            Bucket bucket = bucket(page);
+            DataUser previous = bucket.users.get(username);
+            if (previous != null && !replace) {
+                return false;
+            }
+            bucket.users.put(username, user);
+            byte[] encoded = encode(bucket);
+            if (encoded.length <= PAGE_SIZE) {
+                writePage(page, encoded);
+                return true;
+            }
+            if (previous != null) {
+                bucket.users.put(username, previous);
+            } else {
+                bucket.users.remove(username);
+            }
+            split(page, bucket);
+        }
+    }
+
+    /**
+     * Splits a full bucket on the next bit of the hash, doubling the directory first if the bucket is as deep as it.
+     */
+    private static void split(int page, Bucket bucket) throws IOException {
+        if (bucket.depth == globalDepth) {
+            if (globalDepth == MAX_DEPTH) {
+                throw new IOException("Profondita' massima del file utenti raggiunta");
+            }
+            int[] doubled = new int[directory.length * 2];
+            System.arraycopy(directory, 0, doubled, 0, directory.length);
+            System.arraycopy(directory, 0, doubled, directory.length, directory.length);
+            directory = doubled;
+            globalDepth++;
+            saveDirectory();
+        }
+
+        int bit = bucket.depth;
+        Bucket sibling = new Bucket(bit + 1);
+        Iterator<Map.Entry<String, DataUser>> entries = bucket.users.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<String, DataUser> entry = entries.next();
+            if (((hash(entry.getKey()) >>> bit) & 1) == 1) {
+                sibling.users.put(entry.getKey(), entry.getValue());
+                entries.remove();
+            }
+        }
+        bucket.depth = bit + 1;
+
+        int siblingPage = pageCount++;
+        writePage(siblingPage, encode(sibling));
+        cache.put(siblingPage, sibling);
+        for (int slot = 0; slot < directory.length; slot++) {
+            if (directory[slot] == page && ((slot >>> bit) & 1) == 1) {
+                directory[slot] = siblingPage;
+                ByteBuffer entry = ByteBuffer.allocate(4).putInt(0, siblingPage);
+                directoryChannel.write(entry, DIRECTORY_HEADER + 4L * slot);
+            }
+        }
+        writePage(page, encode(bucket));
+    }
+
+    private static Bucket bucket(int page) throws IOException {
+        Bucket bucket = cache.get(page);
+        if (bucket != null) {
+            return bucket;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(PAGE_SIZE);
+        while (buffer.hasRemaining()) {
+            if (pages.read(buffer, (long) page * PAGE_SIZE + buffer.position()) < 0) {
+                throw new IOException("Pagina " + page + " del file utenti incompleta");
+            }
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(buffer.array()));
+        bucket = new Bucket(in.readInt());
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            String username = in.readUTF();
+            DataUser user = DataUserCodec.read(in);
+            if (directory[slot(hash(username))] == page) {
+                bucket.users.put(username, user);
+            }
+        }
+        cache.put(page, bucket);
+        return bucket;
+    }
+
+    /**
+     * @return true if a bucket holding only this record fits in a page. False as well if the username is too long
+     * for writeUTF, whose limit is 65535 encoded bytes.
+     */
+    private static boolean fitsInPage(String username, DataUser user) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeUTF(username);
+        } catch (UTFDataFormatException e) {
+            return false;
+        }
+        DataUserCodec.write(out, user);
+        return BUCKET_HEADER + bytes.size() <= PAGE_SIZE;
+    }
+
+    private static byte[] encode(Bucket bucket) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(PAGE_SIZE);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(bucket.depth);
+        out.writeInt(bucket.users.size());
+        for (Map.Entry<String, DataUser> entry : bucket.users.entrySet()) {
+            out.writeUTF(entry.getKey());
+            DataUserCodec.write(out, entry.getValue());
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void writePage(int page, byte[] encoded) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(PAGE_SIZE);
+        buffer.put(encoded).clear();
+        while (buffer.hasRemaining()) {
+            pages.write(buffer, (long) page * PAGE_SIZE + buffer.position());
+        }
+    }
+
+    /**
+     * Writes the whole directory through a temporary file and an atomic rename, then reopens it.
+     */
+    private static void saveDirectory() throws IOException {
+        Path path = Paths.get(DIRECTORY_FILE_NAME);
+        Path tmp = Paths.get(DIRECTORY_FILE_NAME + ".tmp");
+        ByteBuffer buffer = ByteBuffer.allocate(DIRECTORY_HEADER + 4 * directory.length);
+        buffer.putInt(DIRECTORY_MAGIC).putInt(globalDepth);
+        for (int page : directory) {
+            buffer.putInt(page);
+        }
+        buffer.flip();
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        if (directoryChannel != null) {
+            directoryChannel.close();
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        directoryChannel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Opens the store, creating it if it does not exist yet, and imports the legacy users.json if it is still there.
+     * If the import fails the store is closed again, so the next call retries it instead of serving a store with
+     * users missing.
+     * Must be called while holding STORE_LOCK.
+     */
+    private static void ensureOpen() throws IOException {
+        if (pages != null) {
+            return;
+        }
+        Path path = Paths.get(FILE_NAME);
+        Path directoryPath = Paths.get(DIRECTORY_FILE_NAME);
+        if (Files.exists(path) && Files.exists(directoryPath)) {
+            ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(directoryPath));
+            if (buffer.remaining() < DIRECTORY_HEADER || buffer.getInt() != DIRECTORY_MAGIC) {
+                throw new IOException("Directory del file utenti non valida");
+            }
+            globalDepth = buffer.getInt();
+            directory = new int[1 << globalDepth];
+            for (int i = 0; i < directory.length; i++) {
+                directory[i] = buffer.getInt();
+            }
+            pages = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            pageCount = (int) (pages.size() / PAGE_SIZE);
+            directoryChannel = FileChannel.open(directoryPath, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            importLegacyFile();
+            return;
+        }
+
+        pages = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        globalDepth = 0;
+        directory = new int[]{0};
+        pageCount = 1;
+        cache.clear();
+        Bucket first = new Bucket(0);
+        writePage(0, encode(first));
+        cache.put(0, first);
+        saveDirectory();
+        importLegacyFile();
+    }
+
+    private static void importLegacyFile() throws IOException {
+        try {
+            migrateLegacyFile();
+        } catch (IOException | RuntimeException e) {
+            pages.close();
+            pages = null;
+            directoryChannel.close();
+            directoryChannel = null;
+            cache.clear();
+            throw e;
+        }
+    }
+
+    /**
+     * Adds the users of the legacy file that are not in the store yet, then renames the file.
+     */
+    private static void migrateLegacyFile() throws IOException {
+        File legacy = new File(LEGACY_FILE_NAME);
+        if (!legacy.exists() || legacy.length() == 0) {
+            return;
+        }
+        HashMap<String, DataUser> users;
+        try (JsonParser parser = jsonFactory.createParser(legacy)) {
+            parser.nextToken();
+            users = DataUserCodec.readUsers(parser);
+        }
+        for (Map.Entry<String, DataUser> entry : users.entrySet()) {
+            if (!fitsInPage(entry.getKey(), entry.getValue())) {
+                System.err.println("Utente con username di " + entry.getKey().length() + " caratteri non migrato: record troppo grande.");
+                continue;
+            }
+            insert(entry.getKey(), entry.getValue(), false);
+        }
+        pages.force(false);
+        Files.move(legacy.toPath(), Paths.get(LEGACY_FILE_NAME + MIGRATED_SUFFIX), StandardCopyOption.REPLACE_EXISTING);
+        System.out.println("Migrati " + users.size() + " utenti da " + LEGACY_FILE_NAME + " a " + FILE_NAME + ".");
+    }
+
+    private static int hash(String username) {
+        int h = username.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private static int slot(int hash) {
+        return hash & ((1 << globalDepth) - 1);
+    }
+
+    /**
+     * A decoded bucket page.
+     */
+    private static class Bucket {
+        private int depth;
+        private final Map<String, DataUser> users = new HashMap<>();
+
+        Bucket(int depth) {
+            this.depth = depth;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package manager;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Thread-per-connection TCP server, the alternative to ReactorServer selected with --virtual-threads: each
+ * connection is served by the blocking TCPServer on its own virtual thread, so the handler code stays sequential
+ * while idle connections cost almost nothing.
+ * Virtual threads need Java 21; the executor is looked up by reflection so the server still builds and runs on
+ * older runtimes, where it falls back to one platform thread per connection.
+ * The locks on the command path are ReentrantLocks rather than monitors, so a virtual thread blocked on one, or on
+ * I/O while holding one, does not pin its carrier thread.
+ */
+public class BlockingServer {
+    private static final int ACCEPT_BACKLOG = 1024;
+
+    private final int port;
+    private final OrderManager orderManager;
+
+    /**
+     * @param port         The TCP port to listen on.
+     * @param orderManager The order manager, which must be thread-safe or have synchronized methods.
+     */
+    public BlockingServer(int port, OrderManager orderManager) {
+        this.port = port;
+        this.orderManager = orderManager;
+    }
+
+    /**
+     * Accepts connections on the calling thread until the server socket fails.
+     *
+     * @throws IOException If the port cannot be bound or accepting fails.
+     */
+    public void run() throws IOException {
+        ExecutorService executor = newConnectionExecutor();
+        try (ServerSocket serverSocket = new ServerSocket(port, ACCEPT_BACKLOG)) {
+            System.out.println("Server TCP avviato sulla porta " + port);
+
+            while (true) {
+                Socket clientSocket = serverSocket.accept();
+                System.out.println("Nuovo client connesso: " + clientSocket.getRemoteSocketAddress());
+
+                executor.execute(new TCPServer(clientSocket, orderManager));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * @return an executor starting a virtual thread per task, or a platform thread per task if the runtime has no
+     * virtual threads.
+     */
+    private static ExecutorService newConnectionExecutor() {
+        try {
+            ExecutorService executor = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            System.out.println("BlockingServer: un thread virtuale per connessione.");
+            return executor;
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            System.out.println("BlockingServer: thread virtuali non disponibili su Java " + Runtime.version().feature()
+                    + ", uso un thread di piattaforma per connessione.");
+            AtomicInteger count = new AtomicInteger();
+            return Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "client-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+}
@@ -0,0 +1,508 @@
+package manager;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.zip.CRC32C;
+
+/**
+ * Record framing of the append-only logs (order book journal and trade partitions).
+ * Each record is one line: the sequence number, the CRC32C of the sequence number and payload as 8 hex digits,
+ * and the JSON payload, separated by single spaces. Lines written before the framing was introduced start
+ * directly with the JSON object; they are accepted as they are, without a checksum or a sequence number.
+ * Verification splits every file into chunks aligned on line boundaries and checks them in parallel, so that
+ * recovery time depends on the number of cores rather than on the size of the logs.
+ */
+public final class ChecksummedLog {
+    /**
+     * Sequence number of a record written without framing.
+     */
+    public static final long NO_SEQUENCE = -1;
+
+    private static final int MIN_CHUNK = 1 << 20;
+    private static final int MAX_CHUNK = 64 << 20;
+    private static final int READ_BUFFER = 1 << 16;
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * Decodes the payload of one record.
+     *
+     * @param <T> the record type.
+     */
+    public interface PayloadDecoder<T> {
+        T decode(byte[] bytes, int offset, int length) throws IOException;
+    }
+
+    private ChecksummedLog() {
+    }
+
+    /**
+     * Writes one framed record, line terminator included.
+     *
+     * @param out      the destination.
+     * @param sequence the record's sequence number.
+     * @param payload  the buffer holding the JSON payload, which must not contain line terminators.
+     * @param offset   the payload's offset.
+     * @param length   the payload's length.
+     * @throws IOException if the destination cannot be written.
+     */
+    public static void writeRecord(ByteArrayOutputStream out, long sequence, byte[] payload, int offset, int length) throws IOException {
+        byte[] sequenceBytes = Long.toString(sequence).getBytes(StandardCharsets.US_ASCII);
+        CRC32C crc = new CRC32C();
+        crc.update(sequenceBytes);
+        crc.update(payload, offset, length);
+        long checksum = crc.getValue();
+
+        out.write(sequenceBytes);
+        out.write(' ');
+        for (int shift = 28; shift >= 0; shift -= 4) {
+            out.write(HEX[(int) (checksum >>> shift) & 0xF]);
+        }
+        out.write(' ');
+        out.write(payload, offset, length);
+        out.write('\n');
+    }
+
+    /**
+     * Checks one record, without its line terminator, and locates its payload.
+     *
+     * @param line     the buffer holding the record.
+     * @param offset   the record's offset.
+     * @param length   the record's length.
+     * @param sequence if not null, receives the sequence number in its first element (NO_SEQUENCE for a legacy record).
+     * @return the payload's offset, or -1 if the record is malformed or its checksum does not match.
+     */
+    public static int payloadOffset(byte[] line, int offset, int length, long[] sequence) {
+        if (length <= 0) {
+            return -1;
+        }
+        if (line[offset] == '{') {
+            if (sequence != null) {
+                sequence[0] = NO_SEQUENCE;
+            }
+            return offset;
+        }
+
+        int end = offset + length;
+        int i = offset;
+        long value = 0;
+        while (i < end && line[i] >= '0' && line[i] <= '9' && i - offset < 19) {
+            value = value * 10 + (line[i] - '0');
+            i++;
+        }
+        int sequenceEnd = i;
+        if (sequenceEnd == offset || i >= end || line[i] != ' ') {
+            return -1;
+        }
+        i++;
+        if (end - i < 10 || line[i + 8] != ' ') {
+            return -1;
+        }
+        long expected = 0;
+        for (int j = 0; j < 8; j++) {
+            int digit = Character.digit(line[i + j], 16);
+            if (digit < 0) {
+                return -1;
+            }
+            expected = (expected << 4) | digit;
+        }
+        int payload = i + 9;
+
+        CRC32C crc = new CRC32C();
+        crc.update(line, offset, sequenceEnd - offset);
+        crc.update(line, payload, end - payload);
+        if (crc.getValue() != expected) {
+            return -1;
+        }
+        if (sequence != null) {
+            sequence[0] = value;
+        }
+        return payload;
+    }
+
+    /**
+     * Strips the framing from a record read as text. The checksum is not checked: the file is expected to have
+     * been verified already.
+     *
+     * @param line the record, without its line terminator.
+     * @return the JSON payload.
+     */
+    public static String payload(String line) {
+        if (line.isEmpty() || line.charAt(0) == '{') {
+            return line;
+        }
+        int first = line.indexOf(' ');
+        int second = first < 0 ? -1 : line.indexOf(' ', first + 1);
+        return second < 0 ? line : line.substring(second + 1);
+    }
+
+    /**
+     * Streams the records of a log, checking each one. A record that fails the check ends the iteration
+     * with an UncheckedIOException.
+     *
+     * @param in      the log, limited to its complete records. Closed with the iterator.
+     * @param decoder the decoder of the payloads.
+     * @param <T>     the record type.
+     * @return an iterator over the decoded records. Must be closed.
+     */
+    public static <T> CloseableIterator<T> records(InputStream in, PayloadDecoder<T> decoder) {
+        return new RecordIterator<>(in, decoder);
+    }
+
+    /**
+     * Verifies a set of log files in parallel, each one split into chunks checked concurrently.
+     * A file is valid up to its first torn, malformed or corrupt record, or up to the first record whose sequence
+     * number does not follow the previous one.
+     *
+     * @param paths the files; missing files verify as empty.
+     * @return one verification per file, in the same order.
+     * @throws IOException if a file cannot be read.
+     */
+    public static List<Verification> verifyAll(List<Path> paths) throws IOException {
+        int cores = Runtime.getRuntime().availableProcessors();
+        List<List<CompletableFuture<Chunk>>> files = new ArrayList<>(paths.size());
+        List<Long> lengths = new ArrayList<>(paths.size());
+        for (Path path : paths) {
+            long length = Files.exists(path) ? Files.size(path) : 0;
+            lengths.add(length);
+            long chunks = Math.max(1, Math.max(Math.min(cores, length / MIN_CHUNK), (length + MAX_CHUNK - 1) / MAX_CHUNK));
+            long chunkSize = (length + chunks - 1) / chunks;
+            List<CompletableFuture<Chunk>> tasks = new ArrayList<>();
+            for (long start = 0; start < length; start += chunkSize) {
+                long chunkStart = start;
+                long chunkEnd = Math.min(length, start + chunkSize);
+                tasks.add(CompletableFuture.supplyAsync(() -> verifyChunk(path, chunkStart, chunkEnd, length)));
+            }
+            files.add(tasks);
+        }
+
+        List<Verification> result = new ArrayList<>(paths.size());
+        try {
+            for (int i = 0; i < paths.size(); i++) {
+                List<Chunk> chunks = new ArrayList<>();
+                for (CompletableFuture<Chunk> task : files.get(i)) {
+                    chunks.add(task.join());
+                }
+                result.add(combine(paths.get(i), lengths.get(i), chunks));
+            }
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) e.getCause()).getCause();
+            }
+            throw e;
+        }
+        return result;
+    }
+
+    /**
+     * Verifies one log file.
+     *
+     * @param path the file.
+     * @return the verification.
+     * @throws IOException if the file cannot be read.
+     */
+    public static Verification verify(Path path) throws IOException {
+        return verifyAll(List.of(path)).get(0);
+    }
+
+    /**
+     * Cuts a file at the end of its last valid record.
+     *
+     * @param verification the file's verification.
+     * @throws IOException if the file cannot be truncated.
+     */
+    public static void truncate(Verification verification) throws IOException {
+        try (FileChannel channel = FileChannel.open(verification.getPath(), StandardOpenOption.WRITE)) {
+            if (channel.size() > verification.getValidLength()) {
+                channel.truncate(verification.getValidLength());
+            }
+        }
+    }
+
+    private static Verification combine(Path path, long length, List<Chunk> chunks) {
+        long records = 0;
+        long firstSequence = NO_SEQUENCE;
+        long lastSequence = NO_SEQUENCE;
+        boolean first = true;
+        for (Chunk chunk : chunks) {
+            if (chunk.records == 0 && chunk.invalidOffset < 0) {
+                continue;
+            }
+            if (!first && lastSequence != NO_SEQUENCE && chunk.headSequence != NO_SEQUENCE
+                    && chunk.headSequence != lastSequence + 1) {
+                return new Verification(path, length, chunk.start, records, firstSequence, lastSequence);
+            }
+            if (first) {
+                firstSequence = chunk.headSequence;
+                first = false;
+            }
+            records += chunk.records;
+            if (chunk.records > 0) {
+                lastSequence = chunk.tailSequence;
+            }
+            if (chunk.invalidOffset >= 0) {
+                return new Verification(path, length, chunk.invalidOffset, records, firstSequence, lastSequence);
+            }
+        }
+        return new Verification(path, length, length, records, firstSequence, lastSequence);
+    }
+
+    /**
+     * Checks the records starting inside [start, end). The last one may extend past end, up to the file length.
+     * The chunk is read with positional reads into a buffer that is refilled from the start of the current line.
+     */
+    private static Chunk verifyChunk(Path path, long start, long end, long length) {
+        Chunk chunk = new Chunk();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            byte[] buffer = new byte[READ_BUFFER];
+            long bufferStart = Math.max(0, start - 1);
+            int filled = fill(channel, buffer, 0, bufferStart, length);
+            int offset = 0;
+            if (start > 0) {
+                while (true) {
+                    while (offset < filled && buffer[offset] != '\n') {
+                        offset++;
+                    }
+                    if (offset < filled || bufferStart + filled >= length) {
+                        break;
+                    }
+                    bufferStart += filled;
+                    filled = fill(channel, buffer, 0, bufferStart, length);
+                    offset = 0;
+                }
+                offset++;
+            }
+            chunk.start = bufferStart + offset;
+
+            long[] sequence = new long[1];
+            long previous = NO_SEQUENCE;
+            while (bufferStart + offset < end) {
+                int lineEnd = offset;
+                while (true) {
+                    while (lineEnd < filled && buffer[lineEnd] != '\n') {
+                        lineEnd++;
+                    }
+                    if (lineEnd < filled || bufferStart + filled >= length) {
+                        break;
+                    }
+                    if (offset == 0) {
+                        buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                    } else {
+                        System.arraycopy(buffer, offset, buffer, 0, filled - offset);
+                        bufferStart += offset;
+                        lineEnd -= offset;
+                        filled -= offset;
+                        offset = 0;
+                    }
+                    filled += fill(channel, buffer, filled, bufferStart + filled, length);
+                }
+                if (lineEnd >= filled || payloadOffset(buffer, offset, lineEnd - offset, sequence) < 0
+                        || (previous != NO_SEQUENCE && sequence[0] != NO_SEQUENCE && sequence[0] != previous + 1)) {
+                    chunk.invalidOffset = bufferStart + offset;
+                    return chunk;
+                }
+                if (chunk.records == 0) {
+                    chunk.headSequence = sequence[0];
+                }
+                chunk.tailSequence = sequence[0];
+                chunk.records++;
+                previous = sequence[0];
+                offset = lineEnd + 1;
+            }
+            return chunk;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Reads from the given file position into the buffer, up to its end or to the file length.
+     *
+     * @return the number of bytes read.
+     */
+    private static int fill(FileChannel channel, byte[] buffer, int offset, long position, long length) throws IOException {
+        ByteBuffer target = ByteBuffer.wrap(buffer, offset, (int) Math.min(buffer.length - offset, Math.max(0, length - position)));
+        while (target.hasRemaining()) {
+            if (channel.read(target, position + target.position() - offset) < 0) {
+                break;
+            }
+        }
+        return target.position() - offset;
+    }
+
+    /**
+     * Outcome of the verification of one chunk.
+     */
+    private static class Chunk {
+        private long start;
+        private long invalidOffset = -1;
+        private long records;
+        private long headSequence = NO_SEQUENCE;
+        private long tailSequence = NO_SEQUENCE;
+    }
+
+    /**
+     * Outcome of the verification of a log file.
+     */
+    public static class Verification {
+        private final Path path;
+        private final long length;
+        private final long validLength;
+        private final long records;
+        private final long firstSequence;
+        private final long lastSequence;
+
+        Verification(Path path, long length, long validLength, long records, long firstSequence, long lastSequence) {
+            this.path = path;
+            this.length = length;
+            this.validLength = validLength;
+            this.records = records;
+            this.firstSequence = firstSequence;
+            this.lastSequence = lastSequence;
+        }
+
+        public Path getPath() {
+            return path;
+        }
+
+        public long getLength() {
+            return length;
+        }
+
+        /**
+         * @return the offset right after the last valid record.
+         */
+        public long getValidLength() {
+            return validLength;
+        }
+
+        /**
+         * @return the number of valid records.
+         */
+        public long getRecords() {
+            return records;
+        }
+
+        /**
+         * @return the sequence number of the first record, or NO_SEQUENCE if it is a legacy record or there is none.
+         */
+        public long getFirstSequence() {
+            return firstSequence;
+        }
+
+        /**
+         * @return the sequence number of the last valid record, or NO_SEQUENCE if it is a legacy record or there is none.
+         */
+        public long getLastSequence() {
+            return lastSequence;
+        }
+
+        /**
+         * @return true if every byte of the file belongs to a valid record.
+         */
+        public boolean isComplete() {
+            return validLength == length;
+        }
+    }
+
+    /**
+     * Reads the records of a log line by line, through a buffer refilled from the start of the current line.
+     */
+    private static class RecordIterator<T> implements CloseableIterator<T> {
+        private final InputStream in;
+        private final PayloadDecoder<T> decoder;
+        private byte[] buffer = new byte[READ_BUFFER];
+        private int offset;
+        private int filled;
+        private boolean eof;
+        private T next;
+        private boolean finished;
+
+        RecordIterator(InputStream in, PayloadDecoder<T> decoder) {
+            this.in = in;
+            this.decoder = decoder;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next != null) {
+                return true;
+            }
+            if (finished) {
+                return false;
+            }
+            try {
+                int lineEnd = offset;
+                while (true) {
+                    while (lineEnd < filled && buffer[lineEnd] != '\n') {
+                        lineEnd++;
+                    }
+                    if (lineEnd < filled || eof) {
+                        break;
+                    }
+                    if (offset == 0 && filled == buffer.length) {
+                        buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                    } else if (offset > 0) {
+                        System.arraycopy(buffer, offset, buffer, 0, filled - offset);
+                        lineEnd -= offset;
+                        filled -= offset;
+                        offset = 0;
+                    }
+                    int n = in.read(buffer, filled, buffer.length - filled);
+                    if (n < 0) {
+                        eof = true;
+                    } else {
+                        filled += n;
+                    }
+                }
+                if (lineEnd >= filled && offset == filled) {
+                    finished = true;
+                    return false;
+                }
+                int payload = payloadOffset(buffer, offset, lineEnd - offset, null);
+                if (lineEnd >= filled || payload < 0) {
+                    throw new IOException("Record non valido nel log");
+                }
+                next = decoder.decode(buffer, payload, lineEnd - payload);
+                offset = lineEnd + 1;
+                return true;
+            } catch (IOException e) {
+                finished = true;
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            T result = next;
+            next = null;
+            return result;
+        }
+
+        @Override
+        public void close() {
+            finished = true;
+            try {
+                in.close();
+            } catch (IOException e) {
+                System.err.println("Errore durante la chiusura del file: " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package manager;
+
+import java.util.Iterator;
+
+/**
+ * An iterator over records read lazily from a file. It must be closed to release the file.
+ * I/O errors while iterating are thrown as UncheckedIOException.
+ *
+ * @param <T> the record type.
+ */
+public interface CloseableIterator<T> extends Iterator<T>, AutoCloseable {
+
+    @Override
+    void close();
+}
@@ -0,0 +1,36 @@
+package manager;
+
+import java.util.Map;
+
+/**
+ * Framing of the text protocol shared by the transports: a command is one line with its name followed by a fixed
+ * number of argument lines, which this table gives. Unknown commands have no arguments and get an error reply.
+ */
+public class CommandFraming {
+    /**
+     * Longest line accepted, in bytes; a client sending a longer one is disconnected.
+     */
+    public static final int MAX_LINE_LENGTH = 8192;
+
+    private static final Map<String, Integer> ARGUMENT_LINES = Map.ofEntries(
+            Map.entry("LOGIN", 4),
+            Map.entry("UPDATE_CREDENTIALS", 3),
+            Map.entry("MARKET_ORDER", 3),
+            Map.entry("RESUME", 3),
+            Map.entry("LOGOUT", 1),
+            Map.entry("LIMIT_ORDER", 4),
+            Map.entry("PRINT", 1),
+            Map.entry("STOP_ORDER", 4),
+            Map.entry("CANCEL", 2),
+            Map.entry("REGISTER_PRICE_INTEREST", 2),
+            Map.entry("PRICE_HISTORY", 2),
+            Map.entry("MY_TRADES", 3));
+
+    /**
+     * @param command the command line.
+     * @return the number of argument lines that follow the command, 0 for an unknown command.
+     */
+    public static int argumentLines(String command) {
+        return ARGUMENT_LINES.getOrDefault(command, 0);
+    }
+}
@@ -0,0 +1,492 @@
+package manager;
+
+import auth.SessionTicket;
+import orders.ExecutedOrder;
+import protocol.BinaryCodec;
+import protocol.Message;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Executes the commands of one client connection, independently of the transport: the connection frames a command
+ * with CommandFraming and passes its argument lines here, and sends back the reply text. Order commands received as
+ * BinaryCodec frames go through handleOrder, which writes a binary reply.
+ * The handler holds the session bound to the connection. The commands of a connection must run one at a time and
+ * in order, each after the previous one's reply is complete.
+ */
+public class CommandHandler {
+    /**
+     * Room a buffer needs for the reply handleOrder writes.
+     */
+    public static final int ORDER_REPLY_CAPACITY = 64;
+    private static final int MAX_TRADES_PAGE_SIZE = 100;
+    private final OrderManager orderManager;
+    /**
+     * The session bound to this connection by LOGIN or RESUME, null while no user is logged in.
+     * Commands act on behalf of this session's user; the username the client still sends is not trusted.
+     */
+    private volatile Session session;
+
+    /**
+     * @param orderManager The order manager, which must be thread-safe or have synchronized methods.
+     */
+    public CommandHandler(OrderManager orderManager) {
+        this.orderManager = orderManager;
+    }
+
+    /**
+     * Executes a command.
+     *
+     * @param command The command line.
+     * @param args    The command's argument lines, as many as CommandFraming.argumentLines gives.
+     * @return a future completed with the reply, one or more lines each ending with a newline. It completes
+     * exceptionally if an argument is malformed, in which case the connection should be closed.
+     */
+    public CompletableFuture<String> handle(String command, String[] args) {
+        StringBuilder out = new StringBuilder();
+        try {
+            switch (command) {
+                case "LOGIN":
+                    return handleLogin(args);
+                case "UPDATE_CREDENTIALS":
+                    return handleUpdateCredentials(args);
+                case "MARKET_ORDER":
+                    handleMarketOrder(args, out);
+                    break;
+                case "RESUME":
+                    handleResume(args, out);
+                    break;
+                case "LOGOUT":
+                    handleLogout(args, out);
+                    break;
+                case "LIMIT_ORDER":
+                    handleLimitOrder(args, out);
+                    break;
+                case "PRINT":
+                    handlePrint(args, out);
+                    break;
+                case "STOP_ORDER":
+                    handleStopOrder(args, out);
+                    break;
+                case "CANCEL":
+                    handleCancelOrder(args, out);
+                    break;
+                case "REGISTER_PRICE_INTEREST":
+                    handleRegisterPriceInterest(args, out);
+                    break;
+                case "PRICE_HISTORY":
+                    handlePriceHistory(args, out);
+                    break;
+                case "MY_TRADES":
+                    handleMyTrades(args, out);
+                    break;
+                default:
+                    out.append("ERROR: Unknown command\n");
+                    break;
+            }
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        return CompletableFuture.completedFuture(out.toString());
+    }
+
+    /**
+     * Executes an order command received as a binary frame, without text parsing or formatting.
+     *
+     * @param request An order message: MARKET_ORDER, LIMIT_ORDER, STOP_ORDER or CANCEL.
+     * @param out     The buffer to write the reply frame to, with at least ORDER_REPLY_CAPACITY bytes left: a RESULT
+     *                frame with the result the text command would send, or a TEXT frame with its error line, under
+     *                the request's correlation ID.
+     */
+    public void handleOrder(Message request, ByteBuffer out) {
+        if (!isAuthorized()) {
+            BinaryCodec.encodeText(out, request.getCorrelationId(), "ERROR: User not logged in.\n");
+            return;
+        }
+        String username = session.getUsername();
+        int result;
+        switch (request.getType()) {
+            case BinaryCodec.MARKET_ORDER:
+                result = orderManager.handleMarketOrder(request.getSide(), request.getSize(), username);
+                break;
+            case BinaryCodec.LIMIT_ORDER:
+                result = orderManager.handleLimitOrder(username, request.getSide(), request.getSize(), request.getPrice());
+                break;
+            case BinaryCodec.STOP_ORDER:
+                result = orderManager.handleStopOrder(username, request.getSide(), request.getSize(), request.getPrice());
+                break;
+            case BinaryCodec.CANCEL:
+                result = orderManager.handleCancelOrder(username, request.getOrderId());
+                break;
+            default:
+                throw new IllegalArgumentException("Not an order frame: " + request.getType());
+        }
+        BinaryCodec.encodeResult(out, request.getCorrelationId(), result);
+    }
+
+    /**
+     * Handles the LOGIN command.
+     * Reads login data from the arguments, sends it to the ServerManager,
+     * and replies with the result.
+     * The password check runs on the PasswordHasher pool and the reply is completed there, so no thread waits for it.
+     * A successful login is followed by a session ticket line, which the client can use with RESUME.
+     *
+     * @param args The argument lines of the command.
+     * @return a future completed with the reply.
+     */
+    private CompletableFuture<String> handleLogin(String[] args) {
+        String username = args[0];
+        String password = args[1];
+        String clientIp = args[2];
+        int udpPort = Integer.parseInt(args[3]);
+
+        Session candidate = new Session(username, clientIp, udpPort);
+        return ServerManager.handleLogin(candidate, password).thenApply(result -> {
+            StringBuilder out = new StringBuilder();
+            out.append(result + "\n");
+            if (result == 100) {
+                session = candidate;
+                out.append(SessionTicket.issue(username) + "\n");
+            }
+            return out.toString();
+        });
+    }
+
+    /**
+     * Handles the RESUME command.
+     * Reads a session ticket and the client's UDP address, and restores the session without a password check.
+     * On success writes 100, the username and a fresh ticket; otherwise writes 101.
+     *
+     * @param args The argument lines of the command.
+     * @param out  The reply being built.
+     */
+    private void handleResume(String[] args, StringBuilder out) {
+        String ticket = args[0];
+        String clientIp = args[1];
+        int udpPort = Integer.parseInt(args[2]);
+
+        Session resumed = ServerManager.handleResume(ticket, clientIp, udpPort);
+        if (resumed == null) {
+            out.append("101\n");
+        } else {
+            session = resumed;
+            out.append("100\n");
+            out.append(resumed.getUsername() + "\n");
+            out.append(SessionTicket.issue(resumed.getUsername()) + "\n");
+        }
+    }
+
+    /**
+     * Handles the UPDATE_CREDENTIALS command.
+     * Reads update data from the arguments, sends it to the ServerManager,
+     * and replies with the result.
+     * The BCrypt work runs on the PasswordHasher pool and the reply is completed there, as for LOGIN.
+     *
+     * @param args The argument lines of the command.
+     * @return a future completed with the reply.
+     */
+    private CompletableFuture<String> handleUpdateCredentials(String[] args) {
+        String username = args[0];
+        String password = args[1];
+        String newPassword = args[2];
+        if (ServerManager.isLogged(username)) {
+            return CompletableFuture.completedFuture("ERROR: User already logged in.\n");
+        }
+        return ServerManager.handleUpdateCredentials(username, password, newPassword).thenApply(result -> result + "\n");
+    }
+
+    /**
+     * Handles the LOGOUT command.
+     * Reads the username from the arguments, ends the session bound to this connection,
+     * and writes the result to the reply: 100, or 101 if no user is logged in on this connection.
+     * This method keeps the TCP connection open.
+     *
+     * @param args The argument lines of the command.
+     * @param out  The reply being built.
+     */
+    private void handleLogout(String[] args, StringBuilder out) {
+        Session current = session;
+        session = null;
+        int result = current != null ? ServerManager.logout(current) : 101;
+        out.append(result + "\n");
+        if (current != null) {
+            System.out.println("CommandHandler: User " + current.getUsername() + " logically logged out, TCP connection remains open.");
+        }
+    }
+
+    /**
+     * Handles the MARKET_ORDER command.
+     * Reads order details from the arguments, sends them to the OrderManager,
+     * and writes the result to the reply.
+     *
+     * @param args The argument lines of the command.
+     * @param out  The reply being built.
+     */
+    private void handleMarketOrder(String[] args, StringBuilder out) {
+        int ask = Integer.parseInt(args[1]);
+        int size = Integer.parseInt(args[2]);
+        if (isAuthorized()) {
+            int result = orderManager.handleMarketOrder(ask, size, session.getUsername());
+            out.append(result + "\n");
+        } else {
+            out.append("ERROR: User not logged in.\n");
+        }
+    }
+
+    /**
+     * Handles the LIMIT_ORDER command.
+     * Reads order details from the arguments, sends them to the OrderManager,
+     * and writes the result to the reply.
+     *
+     * @param args The argument lines of the command.
+     * @param out  The reply being built.
+     */
+    private void handleLimitOrder(String[] args, StringBuilder out) {
+        int result = 101;
+        int ask = Integer.parseInt(args[1]);
+        int size = Integer.parseInt(args[2]);
+        int price = Integer.parseInt(args[3]);
+        if (isAuthorized()) {
+            result = orderManager.handleLimitOrder(session.getUsername(), ask, size, price);
+        } else {
+            out.append("ERROR: User not logged in.\n");
+            return;
+        }
+        out.append(result + "\n");
+    }
+
+    /**
+     * Handles the PRINT command.
+     * Reads the username, retrieves active orders from the OrderManager,
+     * and sends them back to the client.
+     *
+     * @param args The argument lines of the command.
+     * @param out  The reply being built.
+     */
+    private void handlePrint(String[] args, StringBuilder out) {
+        Set<Integer> result = null;
+        if (isAuthorized()) {
+            result = orderManager.handlePrint(session.getUsername());
+        } else {
+            out.append("ERROR: User not logged in.\n");
+            out.append("END\n");
+            return;
+        }
+        if (result != null) {
+            for (Integer orderId : result) {
+                out.append("Order ID: " + orderId + "\n");
+            }
+        }
+        out.append("END\n");
+    }
+
+    /**
+     * Handles the CANCEL command.
+     * Reads the username and order ID, sends to the OrderManager for cancellation,
+     * and writes the result to the reply.
+     *
+     * @param args The argument lines of the command.
+     * @param out  The reply being built.
+     */
+    private void handleCancelOrder(String[] args, StringBuilder out) {
+        String readOrderId = args[1];
+        int orderId = Integer.parseInt(readOrderId);
+
+        int result = 0;
+        if (isAuthorized()) {
+            result = orderManager.handleCancelOrder(session.getUsername(), orderId);
+        } else {
+            out.append("ERROR: User not logged in.\n");
+            return;
+        }
+        out.append(result + "\n");
+    }
+
+    /**
+     * Handles the STOP_ORDER command.
+     * Reads order details from the arguments, sends them to the OrderManager,
+     * and writes the result to the reply.
+     *
+     * @param args The argument lines of the command.
+     * @param out  The reply being built.
+     */
+    private void handleStopOrder(String[] args, StringBuilder out) {
+        try {
+            int askBid = Integer.parseInt(args[1]);
+            int size = Integer.parseInt(args[2]);
+            int price = Integer.parseInt(args[3]);
+
+            if (isAuthorized()) {
+                int result = orderManager.handleStopOrder(session.getUsername(), askBid, size, price);
+                out.append(result + "\n");
+            } else {
+                out.append("ERROR: User not logged in.\n");
+            }
+        } catch (NumberFormatException e) {
+            System.err.println("Errore di formato numero in handleStopOrder: " + e.getMessage());
+            out.append("ERROR: Invalid number format.\n");
+        } catch (Exception e) {
+            e.printStackTrace();
+            out.append("ERROR: Server internal error.\n");
+        }
+    }
+
+    /**
+     * Handles the REGISTER_PRICE_INTEREST command.
+     * Reads the username and multicast port, registers interest via ServerManager,
+     * and writes the result to the reply.
+     *
+     * @param args The argument lines of the command.
+     * @param out  The reply being built.
+     */
+    private void handleRegisterPriceInterest(String[] args, StringBuilder out) {
+        int multicastPort = Integer.parseInt(args[1]);
+        if (isAuthorized()) {
+            int result = ServerManager.handleRegisterMulticastInterest(session, multicastPort);
+            out.append(result + "\n");
+        } else {
+            out.append("ERROR: User not logged in.\n");
+        }
+    }
+
+    /**
+     * Handles the PRICE_HISTORY command.
+     * Reads the month from the arguments, processes historical trade data
+     * from a JSON file (via OrdersFileManager), calculates open, close, high, low prices for each day
+     * of that month (across all years), and sends the daily price data back to the client.
+     * Dates are considered in GMT.
+     *
+     * @param args The argument lines of the command.
+     * @param out  The reply being built.
+     */
+    private void handlePriceHistory(String[] args, StringBuilder out) {
+        try {
+            int month = Integer.parseInt(args[1]);
+
+            if (!isAuthorized()) {
+                out.append("ERROR: User not logged in.\n");
+                out.append("END_HISTORY\n");
+                return;
+            }
+
+            Map<LocalDate, DailyPriceAccumulator> tradesByDay = new TreeMap<>();
+            boolean anyTrade = false;
+
+            try (CloseableIterator<Trade> trades = OrdersFileManager.streamTradesFromStoricoOrdini()) {
+                while (trades.hasNext()) {
+                    Trade trade = trades.next();
+                    anyTrade = true;
+                    LocalDateTime tradeDateTime = LocalDateTime.ofInstant(Instant.ofEpochSecond(trade.getTimestamp()), ZoneOffset.UTC);
+
+                    if (tradeDateTime.getMonthValue() == month) {
+                        LocalDate tradeDate = tradeDateTime.toLocalDate();
+                        tradesByDay.computeIfAbsent(tradeDate, DailyPriceAccumulator::new).add(trade.getTimestamp(), trade.getPrice());
+                    }
+                }
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+
+            if (!anyTrade) {
+                out.append("NO_DATA: Nessun dato storico disponibile nel file o file vuoto.\n");
+                out.append("END_HISTORY\n");
+                return;
+            }
+
+            if (tradesByDay.isEmpty()) {
+                out.append("NO_DATA: Nessun dato trovato per il mese " + month + " in alcun anno.\n");
+                out.append("END_HISTORY\n");
+                return;
+            }
+
+            for (DailyPriceAccumulator day : tradesByDay.values()) {
+                out.append(day.toDailyPriceData().toString() + "\n");
+            }
+
+            out.append("END_HISTORY\n");
+
+        } catch (NumberFormatException e) {
+            out.append("ERROR: Invalid month format.\n");
+            out.append("END_HISTORY\n");
+            System.err.println("Errore di formato numero in handlePriceHistory: " + e.getMessage());
+        } catch (IOException e) {
+            System.err.println("Errore I/O durante il caricamento dei dati storici dal file: " + e.getMessage());
+            out.append("ERROR: Server internal error during price history retrieval (file I/O).\n");
+            out.append("END_HISTORY\n");
+        } catch (Exception e) {
+            System.err.println("Errore inatteso in handlePriceHistory: " + e.getMessage());
+            e.printStackTrace();
+            out.append("ERROR: Server internal error during price history retrieval.\n");
+            out.append("END_HISTORY\n");
+        }
+    }
+
+    /**
+     * Handles the MY_TRADES command.
+     * Reads the username, the page number and the page size, and writes the total number of trades
+     * the user took part in followed by the page's trades, most recent first.
+     *
+     * @param args The argument lines of the command.
+     * @param out  The reply being built.
+     */
+    private void handleMyTrades(String[] args, StringBuilder out) {
+        try {
+            int page = Integer.parseInt(args[1]);
+            int pageSize = Math.min(Integer.parseInt(args[2]), MAX_TRADES_PAGE_SIZE);
+
+            if (!isAuthorized()) {
+                out.append("ERROR: User not logged in.\n");
+                out.append("END_TRADES\n");
+                return;
+            }
+            if (page < 0 || pageSize <= 0) {
+                out.append("ERROR: Invalid page.\n");
+                out.append("END_TRADES\n");
+                return;
+            }
+
+            String username = session.getUsername();
+            out.append("TOTAL: " + orderManager.handleMyTradesCount(username) + "\n");
+            for (ExecutedOrder trade : orderManager.handleMyTrades(username, page, pageSize)) {
+                String side = username.equals(trade.getBuyer()) ? "BUY" : "SELL";
+                out.append(String.format("Order ID: %d, Side: %s, Size: %d, Price: %d, Type: %s, Date: %s\n",
+                        trade.getOrderID(), side, trade.getSize(), trade.getPrice(), trade.getOrderType(),
+                        Instant.ofEpochMilli(trade.getTimestamp())));
+            }
+            out.append("END_TRADES\n");
+        } catch (NumberFormatException e) {
+            out.append("ERROR: Invalid page format.\n");
+            out.append("END_TRADES\n");
+            System.err.println("Errore di formato numero in handleMyTrades: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Checks that a user is logged in on this connection and records the command as activity.
+     * A session that was closed or has expired is dropped.
+     *
+     * @return true if the command may run on behalf of the session's user.
+     */
+    private boolean isAuthorized() {
+        Session current = session;
+        if (current == null) {
+            return false;
+        }
+        if (!current.touch()) {
+            ServerManager.expire(current);
+            session = null;
+            return false;
+        }
+        return true;
+    }
+}
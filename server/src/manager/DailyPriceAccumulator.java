@@ -0,0 +1,47 @@
+package manager;
+
+import java.time.LocalDate;
+
+/**
+ * Builds the open, close, high and low prices of one day from trades seen in any order.
+ * The open is the price of the earliest trade and the close the price of the latest one; on equal timestamps the
+ * first trade seen opens and the last one seen closes, as with a stable sort by timestamp.
+ */
+public class DailyPriceAccumulator {
+    private final LocalDate date;
+    private long openTimestamp;
+    private long openPrice;
+    private long closeTimestamp;
+    private long closePrice;
+    private long highPrice = Long.MIN_VALUE;
+    private long lowPrice = Long.MAX_VALUE;
+    private boolean empty = true;
+
+    public DailyPriceAccumulator(LocalDate date) {
+        this.date = date;
+    }
+
+    /**
+     * Accounts for one trade of the day.
+     *
+     * @param timestamp the trade timestamp.
+     * @param price     the trade price.
+     */
+    public void add(long timestamp, long price) {
+        if (empty || timestamp < openTimestamp) {
+            openTimestamp = timestamp;
+            openPrice = price;
+        }
+        if (empty || timestamp >= closeTimestamp) {
+            closeTimestamp = timestamp;
+            closePrice = price;
+        }
+        highPrice = Math.max(highPrice, price);
+        lowPrice = Math.min(lowPrice, price);
+        empty = false;
+    }
+
+    public DailyPriceData toDailyPriceData() {
+        return new DailyPriceData(date, openPrice, closePrice, highPrice, lowPrice);
+    }
+}
@@ -0,0 +1,86 @@
+package manager;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterates over the JSON objects of a stream one at a time: either a sequence of root-level objects, such as a
+ * JSON lines file, or the elements of an array the parser has just entered. Each object is decoded by a codec.
+ *
+ * @param <T> the record type.
+ */
+class JsonStreamIterator<T> implements CloseableIterator<T> {
+
+    /**
+     * Decodes one record from the JSON object the parser is positioned on.
+     *
+     * @param <T> the record type.
+     */
+    interface RecordReader<T> {
+        T read(JsonParser parser) throws IOException;
+    }
+
+    private final JsonParser parser;
+    private final RecordReader<T> reader;
+    private T next;
+    private boolean finished;
+
+    /**
+     * @param parser the parser, positioned before the first object; null for an empty iterator. Closed with the iterator.
+     * @param reader the codec of the records.
+     */
+    JsonStreamIterator(JsonParser parser, RecordReader<T> reader) {
+        this.parser = parser;
+        this.reader = reader;
+        this.finished = parser == null;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next != null) {
+            return true;
+        }
+        if (finished) {
+            return false;
+        }
+        try {
+            JsonToken token = parser.nextToken();
+            if (token != JsonToken.START_OBJECT) {
+                finished = true;
+                return false;
+            }
+            next = reader.read(parser);
+            return true;
+        } catch (IOException e) {
+            finished = true;
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        T result = next;
+        next = null;
+        return result;
+    }
+
+    @Override
+    public void close() {
+        finished = true;
+        if (parser == null) {
+            return;
+        }
+        try {
+            parser.close();
+        } catch (IOException e) {
+            System.err.println("Errore durante la chiusura del file: " + e.getMessage());
+        }
+    }
+}
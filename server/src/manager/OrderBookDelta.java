@@ -0,0 +1,90 @@
+package manager;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import orders.LimitOrder;
+import orders.TypeAB;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The limit orders inserted, modified or removed since the previous flush.
+ * Upserts carry the full current state of the order, so applying the same delta twice gives the same book.
+ */
+public class OrderBookDelta {
+    private int nextOrderId;
+    private List<LimitOrder> upserts;
+    private List<Integer> removed;
+
+    public OrderBookDelta() {
+        this.upserts = new ArrayList<>();
+        this.removed = new ArrayList<>();
+    }
+
+    public OrderBookDelta(int nextOrderId, List<LimitOrder> upserts, List<Integer> removed) {
+        this.nextOrderId = nextOrderId;
+        this.upserts = upserts;
+        this.removed = removed;
+    }
+
+    public int getNextOrderId() {
+        return nextOrderId;
+    }
+
+    public void setNextOrderId(int nextOrderId) {
+        this.nextOrderId = nextOrderId;
+    }
+
+    public List<LimitOrder> getUpserts() {
+        return upserts;
+    }
+
+    public void setUpserts(List<LimitOrder> upserts) {
+        this.upserts = upserts;
+    }
+
+    public List<Integer> getRemoved() {
+        return removed;
+    }
+
+    public void setRemoved(List<Integer> removed) {
+        this.removed = removed;
+    }
+
+    @JsonIgnore
+    public boolean isEmpty() {
+        return upserts.isEmpty() && removed.isEmpty();
+    }
+
+    /**
+     * Applies the delta to the given bid and ask maps.
+     *
+     * @param bids the bid orders to update.
+     * @param asks the ask orders to update.
+     */
+    public void applyTo(Map<Integer, LimitOrder> bids, Map<Integer, LimitOrder> asks) {
+        for (Integer orderId : removed) {
+            bids.remove(orderId);
+            asks.remove(orderId);
+        }
+        for (LimitOrder order : upserts) {
+            if (order.getTypeAB() == TypeAB.ASK) {
+                bids.remove(order.getOrderID());
+                asks.put(order.getOrderID(), order);
+            } else {
+                asks.remove(order.getOrderID());
+                bids.put(order.getOrderID(), order);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "OrderBookDelta{" +
+                "nextOrderId=" + nextOrderId +
+                ", upserts=" + upserts.size() +
+                ", removed=" + removed.size() +
+                '}';
+    }
+}
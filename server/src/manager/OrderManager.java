@@ -54,6 +54,14 @@ public class OrderManager {
         return OrdersFileManager.getOrdersByMonth(year, month);
     }
 
+    public List<ExecutedOrder> handleMyTrades(String username, int page, int pageSize) {
+        return OrdersFileManager.getUserTrades(username, page, pageSize);
+    }
+
+    public int handleMyTradesCount(String username) {
+        return OrdersFileManager.countUserTrades(username);
+    }
+
     public Set<Integer> handlePrint(String username) {
         return orderBook.getUserOrderIDs(username);
     }
@@ -1,106 +1,507 @@
 package manager;
 
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.exc.MismatchedInputException;
 
 import orders.ExecutedOrder;
 import orders.LimitOrder;
 import orders.Order;
+import orders.OrderCodec;
 import orders.StopOrder;
 
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.ZoneId;
 import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
 
 
 public class OrdersFileManager {
     private static final String FILE_PATH = "orderbook.json";
+    private static final String ORDERBOOK_DELTA_FILE_PATH = "orderbook_delta.jsonl";
+    private static final String ORDERBOOK_SEGMENT_PREFIX = "orderbook_delta.";
+    private static final String ORDERBOOK_SEGMENT_SUFFIX = ".jsonl";
+    private static final String CORRUPT_SUFFIX = ".corrupt";
     private static final String STOP_ORDER_FILE_PATH = "stop_orders.json";
-    private static final String EXECUTED_ORDERS_FILE_PATH = "executed_orders.json";
     private static final String STORICO_ORDINI_FILE_PATH = "storicoOrdini.json";
+    private static final String TRADE_CHECKPOINT_FILE_PATH = "trade_checkpoint.json";
     private static final ObjectMapper mapper = new ObjectMapper();
-    private static final Object ORDERBOOK_LOCK = new Object();
-    private static final Object STOP_ORDERS_LOCK = new Object();
-    private static final Object EXECUTED_ORDERS_LOCK = new Object();
-    private static final Object STORICO_ORDINI_LOCK = new Object();
+    private static final JsonFactory jsonFactory = new JsonFactory();
+    private static final ReentrantLock ORDERBOOK_LOCK = new ReentrantLock();
+    private static final ReentrantLock JOURNAL_LOCK = new ReentrantLock();
+    private static final ReentrantLock STOP_ORDERS_LOCK = new ReentrantLock();
+    private static final ReentrantLock TRADE_CHECKPOINT_LOCK = new ReentrantLock();
+    private static long journalSequence = -1;
 
 
     /**
      * Saves the current state of bids and asks maps, along with the next available order ID, to a JSON file.
-     * This method is synchronized to prevent race conditions during file writing.
+     * The file is written under ORDERBOOK_LOCK, by the overload taking the next order ID.
      *
      * @param bids A map of bid orders.
      * @param asks A map of ask orders.
      */
     public static void saveOrders(Map<Integer, LimitOrder> bids, Map<Integer, LimitOrder> asks) {
-        synchronized (ORDERBOOK_LOCK) {
-            Map<String, Object> data = new HashMap<>();
-            data.put("bids", bids);
-            data.put("asks", asks);
-            data.put("nextOrderId", Order.getNextOrderId());
+        saveOrders(bids, asks, Order.getNextOrderId());
+    }
 
+    /**
+     * Saves a snapshot of bids and asks maps, along with the given next order ID, to a JSON file.
+     * Takes ORDERBOOK_LOCK, so the base file is never written by two threads or folded into meanwhile.
+     *
+     * @param bids        A map of bid orders.
+     * @param asks        A map of ask orders.
+     * @param nextOrderId The next available order ID at the time the snapshot was taken.
+     * @return true if the file was written, false if an I/O error occurred.
+     */
+    public static boolean saveOrders(Map<Integer, LimitOrder> bids, Map<Integer, LimitOrder> asks, int nextOrderId) {
+        ORDERBOOK_LOCK.lock();
+        try {
             try {
-                mapper.writerWithDefaultPrettyPrinter().writeValue(new File(FILE_PATH), data);
+                File tmp = new File(FILE_PATH + ".tmp");
+                try (JsonGenerator generator = jsonFactory.createGenerator(tmp, JsonEncoding.UTF8)) {
+                    generator.useDefaultPrettyPrinter();
+                    generator.writeStartObject();
+                    generator.writeNumberField("nextOrderId", nextOrderId);
+                    generator.writeFieldName("asks");
+                    OrderCodec.writeLimitOrders(generator, asks);
+                    generator.writeFieldName("bids");
+                    OrderCodec.writeLimitOrders(generator, bids);
+                    generator.writeEndObject();
+                }
+                Files.move(tmp.toPath(), new File(FILE_PATH).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                return true;
             } catch (IOException e) {
                 System.err.println("Errore durante il salvataggio degli ordini: " + e.getMessage());
                 e.printStackTrace();
+                return false;
+            }
+        } finally {
+            ORDERBOOK_LOCK.unlock();
+        }
+    }
+
+    /**
+     * Appends a delta record to the active segment of the order book journal, one JSON object per line,
+     * framed by ChecksummedLog with the next journal sequence number.
+     * Only the journal lock is taken, so appends never wait for a segment being folded into the base file.
+     * After a failed write the journal is verified again before the next append, so a torn record is cut off
+     * instead of being followed by new ones.
+     *
+     * @param delta The changes since the previous delta.
+     * @return true if the record was written, false if an I/O error occurred.
+     */
+    public static boolean appendOrderBookDelta(OrderBookDelta delta) {
+        JOURNAL_LOCK.lock();
+        try {
+            if (journalSequence < 0) {
+                recoverJournal();
+            }
+            try (OutputStream out = new FileOutputStream(ORDERBOOK_DELTA_FILE_PATH, true)) {
+                ByteArrayOutputStream payload = new ByteArrayOutputStream();
+                try (JsonGenerator generator = jsonFactory.createGenerator(payload, JsonEncoding.UTF8)) {
+                    writeOrderBookDelta(generator, delta);
+                }
+                ByteArrayOutputStream line = new ByteArrayOutputStream(payload.size() + 32);
+                ChecksummedLog.writeRecord(line, journalSequence, payload.toByteArray(), 0, payload.size());
+                line.writeTo(out);
+                journalSequence++;
+                return true;
+            } catch (IOException e) {
+                System.err.println("Errore durante il salvataggio del delta dell'orderbook: " + e.getMessage());
+                e.printStackTrace();
+                journalSequence = -1;
+                return false;
+            }
+        } finally {
+            JOURNAL_LOCK.unlock();
+        }
+    }
+
+    /**
+     * Verifies the journal segments in parallel and cuts the journal at its first torn or corrupt record, or at the
+     * first record whose sequence number does not follow the previous one, then sets the next sequence number.
+     * The segments after the cut are renamed with the .corrupt suffix and are no longer replayed.
+     * Must be called while holding JOURNAL_LOCK.
+     */
+    private static void recoverJournal() {
+        List<File> journal = sealedOrderBookSegments();
+        journal.add(new File(ORDERBOOK_DELTA_FILE_PATH));
+        List<Path> paths = new ArrayList<>(journal.size());
+        for (File segment : journal) {
+            paths.add(segment.toPath());
+        }
+
+        List<ChecksummedLog.Verification> verifications;
+        try {
+            verifications = ChecksummedLog.verifyAll(paths);
+        } catch (IOException e) {
+            System.err.println("Errore durante la verifica dei delta dell'orderbook: " + e.getMessage());
+            e.printStackTrace();
+            journalSequence = 0;
+            return;
+        }
+
+        long last = ChecksummedLog.NO_SEQUENCE;
+        boolean cut = false;
+        for (int i = 0; i < journal.size(); i++) {
+            File segment = journal.get(i);
+            if (cut) {
+                if (segment.exists()) {
+                    try {
+                        Files.move(segment.toPath(), new File(segment.getName() + CORRUPT_SUFFIX).toPath(), StandardCopyOption.REPLACE_EXISTING);
+                    } catch (IOException e) {
+                        System.err.println("Impossibile accantonare il segmento " + segment.getName() + ": " + e.getMessage());
+                    }
+                }
+                continue;
+            }
+            ChecksummedLog.Verification verification = verifications.get(i);
+            boolean continuous = last == ChecksummedLog.NO_SEQUENCE
+                    || verification.getFirstSequence() == ChecksummedLog.NO_SEQUENCE
+                    || verification.getFirstSequence() == last + 1;
+            long validLength = continuous ? verification.getValidLength() : 0;
+            if (validLength < verification.getLength()) {
+                System.err.println("Journal dell'orderbook: record non valido in " + segment.getName() + " all'offset " + validLength + ", journal troncato");
+                try (FileChannel channel = FileChannel.open(segment.toPath(), StandardOpenOption.WRITE)) {
+                    channel.truncate(validLength);
+                } catch (IOException e) {
+                    System.err.println("Impossibile troncare il segmento " + segment.getName() + ": " + e.getMessage());
+                }
+                cut = true;
+            }
+            if (validLength > 0 && verification.getLastSequence() != ChecksummedLog.NO_SEQUENCE) {
+                last = verification.getLastSequence();
+            }
+        }
+        journalSequence = last + 1;
+    }
+
+    /**
+     * Replaces the base file with a full snapshot and then empties the journal, sealed segments included.
+     * A crash between the two steps is harmless because replaying the whole journal on a newer base gives the same book.
+     * Takes ORDERBOOK_LOCK and then JOURNAL_LOCK, so no delta is appended or segment folded meanwhile.
+     *
+     * @param bids        A map of bid orders.
+     * @param asks        A map of ask orders.
+     * @param nextOrderId The next available order ID.
+     * @return true if both files were written, false if an I/O error occurred.
+     */
+    public static boolean compactOrderBook(Map<Integer, LimitOrder> bids, Map<Integer, LimitOrder> asks, int nextOrderId) {
+        ORDERBOOK_LOCK.lock();
+        try {
+            JOURNAL_LOCK.lock();
+            try {
+                if (!saveOrders(bids, asks, nextOrderId)) {
+                    return false;
+                }
+                try {
+                    for (File segment : sealedOrderBookSegments()) {
+                        Files.deleteIfExists(segment.toPath());
+                    }
+                    new FileOutputStream(ORDERBOOK_DELTA_FILE_PATH, false).close();
+                    return true;
+                } catch (IOException e) {
+                    System.err.println("Errore durante la compattazione dei delta dell'orderbook: " + e.getMessage());
+                    e.printStackTrace();
+                    return false;
+                }
+            } finally {
+                JOURNAL_LOCK.unlock();
+            }
+        } finally {
+            ORDERBOOK_LOCK.unlock();
+        }
+    }
+
+    /**
+     * Closes the active journal segment: it is renamed to the next sealed segment and appends start on an empty file.
+     * Sealed segments are folded into the base file in the background by foldOrderBookSegments.
+     *
+     * @return true if the segment was sealed or was empty, false if an I/O error occurred.
+     */
+    public static boolean sealOrderBookSegment() {
+        JOURNAL_LOCK.lock();
+        try {
+            File active = new File(ORDERBOOK_DELTA_FILE_PATH);
+            if (!active.exists() || active.length() == 0) {
+                return true;
+            }
+            List<File> sealed = sealedOrderBookSegments();
+            long next = sealed.isEmpty() ? 1 : segmentNumber(sealed.get(sealed.size() - 1)) + 1;
+            try {
+                Files.move(active.toPath(), new File(String.format("%s%06d%s", ORDERBOOK_SEGMENT_PREFIX, next, ORDERBOOK_SEGMENT_SUFFIX)).toPath(), StandardCopyOption.ATOMIC_MOVE);
+                return true;
+            } catch (IOException e) {
+                System.err.println("Errore durante la chiusura del segmento dei delta dell'orderbook: " + e.getMessage());
+                e.printStackTrace();
+                return false;
+            }
+        } finally {
+            JOURNAL_LOCK.unlock();
+        }
+    }
+
+    /**
+     * Folds the sealed journal segments into the base file and deletes them. The active segment is not touched,
+     * so this can run on a background thread while deltas are being appended.
+     *
+     * @return the number of segments folded.
+     */
+    public static int foldOrderBookSegments() {
+        ORDERBOOK_LOCK.lock();
+        try {
+            List<File> segments = sealedOrderBookSegments();
+            if (segments.isEmpty()) {
+                return 0;
+            }
+            Map<Integer, LimitOrder> bids = new HashMap<>();
+            Map<Integer, LimitOrder> asks = new HashMap<>();
+            int nextOrderId = 0;
+            try {
+                Integer baseNextOrderId = readBaseOrderBook(bids, asks);
+                if (baseNextOrderId != null) {
+                    nextOrderId = baseNextOrderId;
+                }
+            } catch (IOException e) {
+                System.err.println("Errore durante il caricamento degli ordini dal file orderbook.json, segmenti non compattati: " + e.getMessage());
+                return 0;
+            }
+            for (File segment : segments) {
+                Integer replayedNextOrderId = replayOrderBookDeltas(segment, bids, asks);
+                if (replayedNextOrderId != null) {
+                    nextOrderId = Math.max(nextOrderId, replayedNextOrderId);
+                }
+            }
+            if (!saveOrders(bids, asks, nextOrderId)) {
+                return 0;
+            }
+            for (File segment : segments) {
+                if (!segment.delete()) {
+                    System.err.println("Impossibile eliminare il segmento compattato " + segment.getName());
+                }
             }
+            return segments.size();
+        } finally {
+            ORDERBOOK_LOCK.unlock();
+        }
+    }
+
+    private static List<File> sealedOrderBookSegments() {
+        File[] files = new File(".").listFiles((dir, name) -> name.length() > ORDERBOOK_SEGMENT_PREFIX.length() + ORDERBOOK_SEGMENT_SUFFIX.length()
+                && name.startsWith(ORDERBOOK_SEGMENT_PREFIX)
+                && name.endsWith(ORDERBOOK_SEGMENT_SUFFIX)
+                && name.substring(ORDERBOOK_SEGMENT_PREFIX.length(), name.length() - ORDERBOOK_SEGMENT_SUFFIX.length()).matches("\\d+"));
+        if (files == null) {
+            return new ArrayList<>();
         }
+        List<File> segments = new ArrayList<>(Arrays.asList(files));
+        segments.sort(Comparator.comparingLong(OrdersFileManager::segmentNumber));
+        return segments;
+    }
+
+    private static long segmentNumber(File segment) {
+        String name = segment.getName();
+        return Long.parseLong(name.substring(ORDERBOOK_SEGMENT_PREFIX.length(), name.length() - ORDERBOOK_SEGMENT_SUFFIX.length()));
     }
 
     /**
-     * Loads the order book (bids and asks) from a JSON file.
+     * Loads the order book (bids and asks) from the base JSON file and replays the journal on top of it:
+     * the sealed segments not yet folded, oldest first, then the active segment.
+     * The journal is verified first and cut at its first invalid record.
      * Also sets the next available order ID based on the loaded data.
-     * This method is synchronized to prevent race conditions during file reading.
+     * Takes ORDERBOOK_LOCK and then JOURNAL_LOCK, so neither file changes while it is read.
      *
      * @return A map containing "bids" and "asks" maps.
      */
     public static Map<String, Map<Integer, LimitOrder>> loadOrdersFromOrderBook() {
-        synchronized (ORDERBOOK_LOCK) {
-            File file = new File(FILE_PATH);
+        ORDERBOOK_LOCK.lock();
+        try {
+            JOURNAL_LOCK.lock();
+            try {
+                recoverJournal();
+                Map<String, Map<Integer, LimitOrder>> result = loadBaseOrderBook();
+                int nextOrderId = Order.getNextOrderId();
+                List<File> journal = sealedOrderBookSegments();
+                journal.add(new File(ORDERBOOK_DELTA_FILE_PATH));
+                for (File segment : journal) {
+                    Integer replayedNextOrderId = replayOrderBookDeltas(segment, result.get("bids"), result.get("asks"));
+                    if (replayedNextOrderId != null) {
+                        nextOrderId = Math.max(nextOrderId, replayedNextOrderId);
+                    }
+                }
+                Order.setNextOrderId(nextOrderId);
+                return result;
+            } finally {
+                JOURNAL_LOCK.unlock();
+            }
+        } finally {
+            ORDERBOOK_LOCK.unlock();
+        }
+    }
 
-            if (!file.exists() || file.length() == 0) {
-                return createEmptyOrderBook();
+    /**
+     * Replays every complete record of a journal segment onto the given maps.
+     * A truncated last line, left by a crash during an append, is ignored.
+     *
+     * @param file The journal segment.
+     * @param bids A map of bid orders.
+     * @param asks A map of ask orders.
+     * @return the next order ID of the last delta, or null if there are no deltas.
+     */
+    private static Integer replayOrderBookDeltas(File file, Map<Integer, LimitOrder> bids, Map<Integer, LimitOrder> asks) {
+        if (!file.exists() || file.length() == 0) {
+            return null;
+        }
+
+        Integer nextOrderId = null;
+        int replayed = 0;
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                OrderBookDelta delta;
+                try (JsonParser parser = jsonFactory.createParser(ChecksummedLog.payload(line))) {
+                    parser.nextToken();
+                    delta = readOrderBookDelta(parser);
+                } catch (IOException e) {
+                    System.err.println("Delta dell'orderbook incompleto ignorato dopo " + replayed + " record: " + e.getMessage());
+                    break;
+                }
+                delta.applyTo(bids, asks);
+                nextOrderId = delta.getNextOrderId();
+                replayed++;
             }
+        } catch (IOException e) {
+            System.err.println("Errore durante la lettura dei delta dell'orderbook: " + e.getMessage());
+            e.printStackTrace();
+        }
+        return nextOrderId;
+    }
 
-            try {
-                Map<String, Object> fullData = mapper.readValue(
-                        file,
-                        new TypeReference<Map<String, Object>>() {
-                        }
-                );
-
-                Object bidsObj = fullData.get("bids");
-                Object asksObj = fullData.get("asks");
-                Object nextOrderIdObj = fullData.get("nextOrderId");
-
-                Map<Integer, LimitOrder> bids = mapper.convertValue(
-                        bidsObj, new TypeReference<Map<Integer, LimitOrder>>() {
-                        }
-                );
-                Map<Integer, LimitOrder> asks = mapper.convertValue(
-                        asksObj, new TypeReference<Map<Integer, LimitOrder>>() {
-                        }
-                );
-
-                if (nextOrderIdObj instanceof Integer) {
-                    Order.setNextOrderId((Integer) nextOrderIdObj);
-                } else if (nextOrderIdObj instanceof Number) {
-                    Order.setNextOrderId(((Number) nextOrderIdObj).intValue());
+    private static void writeOrderBookDelta(JsonGenerator generator, OrderBookDelta delta) throws IOException {
+        generator.writeStartObject();
+        generator.writeNumberField("nextOrderId", delta.getNextOrderId());
+        generator.writeArrayFieldStart("upserts");
+        for (LimitOrder order : delta.getUpserts()) {
+            OrderCodec.writeLimitOrder(generator, order);
+        }
+        generator.writeEndArray();
+        generator.writeArrayFieldStart("removed");
+        for (Integer orderId : delta.getRemoved()) {
+            generator.writeNumber(orderId);
+        }
+        generator.writeEndArray();
+        generator.writeEndObject();
+    }
+
+    private static OrderBookDelta readOrderBookDelta(JsonParser parser) throws IOException {
+        if (parser.currentToken() != JsonToken.START_OBJECT) {
+            throw new IOException("Delta non valido: " + parser.currentToken());
+        }
+        int nextOrderId = 0;
+        List<LimitOrder> upserts = new ArrayList<>();
+        List<Integer> removed = new ArrayList<>();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            if ("nextOrderId".equals(field)) {
+                nextOrderId = parser.getIntValue();
+            } else if ("upserts".equals(field) && value == JsonToken.START_ARRAY) {
+                while (parser.nextToken() == JsonToken.START_OBJECT) {
+                    upserts.add(OrderCodec.readLimitOrder(parser));
                 }
+            } else if ("removed".equals(field) && value == JsonToken.START_ARRAY) {
+                while (parser.nextToken() != JsonToken.END_ARRAY) {
+                    removed.add(parser.getIntValue());
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+        if (parser.nextToken() != null) {
+            throw new IOException("Dati inattesi dopo il delta");
+        }
+        return new OrderBookDelta(nextOrderId, upserts, removed);
+    }
+
+    /**
+     * Loads the base order book file, without the deltas, and sets the next order ID stored in it.
+     *
+     * @return A map containing "bids" and "asks" maps.
+     */
+    private static Map<String, Map<Integer, LimitOrder>> loadBaseOrderBook() {
+        Map<String, Map<Integer, LimitOrder>> result = createEmptyOrderBook();
+        try {
+            Integer nextOrderId = readBaseOrderBook(result.get("bids"), result.get("asks"));
+            if (nextOrderId != null) {
+                Order.setNextOrderId(nextOrderId);
+            }
+            return result;
+        } catch (IOException e) {
+            System.err.println("Errore durante il caricamento degli ordini dal file orderbook.json: " + e.getMessage());
+            e.printStackTrace();
+            return createEmptyOrderBook();
+        }
+    }
 
-                Map<String, Map<Integer, LimitOrder>> result = new HashMap<>();
-                result.put("bids", bids);
-                result.put("asks", asks);
+    /**
+     * Reads the base order book file into the given maps.
+     *
+     * @param bids A map to fill with the bid orders.
+     * @param asks A map to fill with the ask orders.
+     * @return the next order ID stored in the file, or null if the file is missing or does not contain it.
+     * @throws IOException if the file cannot be read or parsed.
+     */
+    private static Integer readBaseOrderBook(Map<Integer, LimitOrder> bids, Map<Integer, LimitOrder> asks) throws IOException {
+        File file = new File(FILE_PATH);
 
-                return result;
-            } catch (IOException e) {
-                System.err.println("Errore durante il caricamento degli ordini dal file orderbook.json: " + e.getMessage());
-                e.printStackTrace();
-                return createEmptyOrderBook();
+        if (!file.exists() || file.length() == 0) {
+            return null;
+        }
+
+        Integer nextOrderId = null;
+        try (JsonParser parser = jsonFactory.createParser(file)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("orderbook.json non contiene un oggetto JSON");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                parser.nextToken();
+                switch (field) {
+                    case "bids":
+                        bids.putAll(OrderCodec.readLimitOrders(parser));
+                        break;
+                    case "asks":
+                        asks.putAll(OrderCodec.readLimitOrders(parser));
+                        break;
+                    case "nextOrderId":
+                        nextOrderId = parser.getIntValue();
+                        break;
+                    default:
+                        parser.skipChildren();
+                }
             }
         }
+        return nextOrderId;
     }
 
     /**
@@ -116,127 +517,221 @@ public class OrdersFileManager {
     }
 
     /**
-     * Loads all executed orders from their JSON file.
-     * This method is synchronized to prevent race conditions during file reading.
+     * Loads all executed orders from the monthly partitions.
      *
-     * @return A list of executed orders. Returns an empty list if the file does not exist or is empty/corrupt.
+     * @return A list of executed orders. Returns an empty list if there are no executed orders.
      */
     public static List<ExecutedOrder> loadExecutedOrders() {
-        synchronized (EXECUTED_ORDERS_LOCK) {
-            File file = new File(EXECUTED_ORDERS_FILE_PATH);
-            if (!file.exists() || file.length() == 0) {
-                return new ArrayList<>();
+        return TradePartitionStore.readAll();
+    }
+
+    /**
+     * Streams all executed orders, reading one partition at a time.
+     *
+     * @return An iterator over the executed orders in execution order. Must be closed.
+     */
+    public static CloseableIterator<ExecutedOrder> streamExecutedOrders() {
+        return TradePartitionStore.iterateAll();
+    }
+
+    /**
+     * Streams the executed orders of a specific month and year.
+     *
+     * @param year  The year to filter by.
+     * @param month The month (1-12) to filter by.
+     * @return An iterator over the executed orders of that month. Must be closed.
+     * @throws IOException if the partition cannot be opened.
+     */
+    public static CloseableIterator<ExecutedOrder> streamOrdersByMonth(int year, int month) throws IOException {
+        return TradePartitionStore.iterateMonth(year, month);
+    }
+
+    /**
+     * Returns the price of the most recent executed order, taken from the trade checkpoint.
+     *
+     * @return the last execution price, or null if no order was ever executed.
+     */
+    public static Integer loadLastExecutedPrice() {
+        TradeCheckpoint checkpoint = loadTradeCheckpoint();
+        return checkpoint.getTradeCount() > 0 ? checkpoint.getLastPrice() : null;
+    }
+
+    /**
+     * Loads the trade checkpoint. If the file is missing, unreadable or does not match the number of executed
+     * orders in the partitions, it is rebuilt from the last record and the trades of the last session only.
+     * Takes TRADE_CHECKPOINT_LOCK, so it does not read the file while it is being replaced.
+     *
+     * @return the trade checkpoint, never null.
+     */
+    public static TradeCheckpoint loadTradeCheckpoint() {
+        TRADE_CHECKPOINT_LOCK.lock();
+        try {
+            long recorded = TradePartitionStore.totalCount();
+            File file = new File(TRADE_CHECKPOINT_FILE_PATH);
+            if (file.exists() && file.length() > 0) {
+                try {
+                    TradeCheckpoint checkpoint = mapper.readValue(file, TradeCheckpoint.class);
+                    if (checkpoint.getTradeCount() == recorded) {
+                        return checkpoint;
+                    }
+                    System.err.println("Checkpoint dei trade non aggiornato (" + checkpoint.getTradeCount() + " su " + recorded + " ordini eseguiti), verra' ricostruito.");
+                } catch (IOException e) {
+                    System.err.println("Checkpoint dei trade illeggibile, verra' ricostruito: " + e.getMessage());
+                }
             }
+            return rebuildTradeCheckpoint(recorded);
+        } finally {
+            TRADE_CHECKPOINT_LOCK.unlock();
+        }
+    }
+
+    private static TradeCheckpoint rebuildTradeCheckpoint(long recorded) {
+        TradeCheckpoint checkpoint = new TradeCheckpoint();
+        ExecutedOrder last = TradePartitionStore.readLast();
+        if (last == null) {
+            return checkpoint;
+        }
+        LocalDate session = LocalDate.parse(TradeCheckpoint.sessionDate(last.getTimestamp()));
+        long sessionStart = session.atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        long sessionEnd = session.plusDays(1).atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli() - 1;
+        TradePartitionStore.scanPrices(sessionStart, sessionEnd, checkpoint::addToSession);
+        checkpoint.setTradeCount(recorded);
+        checkpoint.setLastPrice(last.getPrice());
+        checkpoint.setLastTimestamp(last.getTimestamp());
+        return checkpoint;
+    }
 
+    /**
+     * Writes the trade checkpoint through a temporary file and an atomic rename, under TRADE_CHECKPOINT_LOCK.
+     *
+     * @param checkpoint the checkpoint, matching the executed orders already written.
+     * @return true if the file was written, false if an I/O error occurred.
+     */
+    public static boolean saveTradeCheckpoint(TradeCheckpoint checkpoint) {
+        TRADE_CHECKPOINT_LOCK.lock();
+        try {
             try {
-                return mapper.readValue(file, new TypeReference<List<ExecutedOrder>>() {
-                });
-            } catch (MismatchedInputException e) {
-                System.err.println("Errore di input durante il caricamento degli ordini eseguiti (file vuoto o malformato): " + e.getMessage());
-                return new ArrayList<>();
+                File tmp = new File(TRADE_CHECKPOINT_FILE_PATH + ".tmp");
+                mapper.writeValue(tmp, checkpoint);
+                Files.move(tmp.toPath(), new File(TRADE_CHECKPOINT_FILE_PATH).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                return true;
             } catch (IOException e) {
-                System.err.println("Errore I/O durante il caricamento degli ordini eseguiti: " + e.getMessage());
+                System.err.println("Errore durante il salvataggio del checkpoint dei trade: " + e.getMessage());
                 e.printStackTrace();
-                return new ArrayList<>();
+                return false;
             }
+        } finally {
+            TRADE_CHECKPOINT_LOCK.unlock();
         }
     }
 
     /**
      * Retrieves executed orders that occurred in a specific month and year.
-     * Loads all executed orders and filters them by date.
-     * This method internally calls loadExecutedOrders, which is synchronized.
+     * Only the partition of that month is read.
      *
      * @param year  The year to filter by.
      * @param month The month (1-12) to filter by.
      * @return A list of executed orders matching the criteria.
      */
     public static List<ExecutedOrder> getOrdersByMonth(int year, int month) {
-        List<ExecutedOrder> allOrders = loadExecutedOrders();
-        List<ExecutedOrder> result = new ArrayList<>();
-
-        Calendar calendar = Calendar.getInstance();
-
-        for (ExecutedOrder order : allOrders) {
-            calendar.setTimeInMillis(order.getTimestamp());
-            int orderYear = calendar.get(Calendar.YEAR);
-            int orderMonth = calendar.get(Calendar.MONTH);
+        return TradePartitionStore.readPartition(year, month);
+    }
 
-            if (orderYear == year && orderMonth == (month - 1)) {
-                result.add(order);
-            }
-        }
+    /**
+     * Retrieves one page of the executed orders a user took part in, as buyer or seller.
+     *
+     * @param username The user.
+     * @param page     The page number, starting from 0.
+     * @param pageSize The number of orders per page.
+     * @return The page's executed orders, most recent first.
+     */
+    public static List<ExecutedOrder> getUserTrades(String username, int page, int pageSize) {
+        return TradePartitionStore.readUserTrades(username, page, pageSize);
+    }
 
-        return result;
+    /**
+     * Counts the executed orders a user took part in, as buyer or seller.
+     *
+     * @param username The user.
+     * @return The number of executed orders.
+     */
+    public static int countUserTrades(String username) {
+        return TradePartitionStore.userTradeCount(username);
     }
 
     /**
-     * Appends a new executed order to the list of executed orders and saves the updated list to file.
-     * This method is synchronized to prevent race conditions during file reading and writing.
+     * Appends a new executed order to its monthly partition.
      *
      * @param executedOrder The executed order to save.
      */
     public static void saveExecutedOrder(ExecutedOrder executedOrder) {
-        synchronized (EXECUTED_ORDERS_LOCK) {
-            List<ExecutedOrder> executedOrders = loadExecutedOrders();
-            executedOrders.add(executedOrder);
+        saveExecutedOrders(Collections.singletonList(executedOrder));
+    }
 
-            try {
-                mapper.writerWithDefaultPrettyPrinter().writeValue(new File(EXECUTED_ORDERS_FILE_PATH), executedOrders);
-            } catch (IOException e) {
-                System.err.println("Errore durante il salvataggio dell'ordine eseguito: " + e.getMessage());
-                e.printStackTrace();
-            }
-        }
+    /**
+     * Appends a batch of executed orders to their monthly partitions, updating the partition index once.
+     *
+     * @param newOrders The executed orders to save, in execution order.
+     * @return The orders written; fewer than given if an I/O error occurred, and only the others must be saved again.
+     */
+    public static List<ExecutedOrder> saveExecutedOrders(List<ExecutedOrder> newOrders) {
+        return TradePartitionStore.append(newOrders);
     }
 
     /**
      * Saves the current state of stop orders to a JSON file.
-     * This method is synchronized to prevent race conditions during file writing.
+     * Takes STOP_ORDERS_LOCK, so the file is never written by two threads at once.
      *
      * @param stopOrders A map of stop orders.
+     * @return true if the file was written, false if an I/O error occurred.
      */
-    public static void saveStopOrders(Map<Integer, StopOrder> stopOrders) {
-        synchronized (STOP_ORDERS_LOCK) {
-            try {
-                mapper.writerWithDefaultPrettyPrinter().writeValue(new File(STOP_ORDER_FILE_PATH), stopOrders);
+    public static boolean saveStopOrders(Map<Integer, StopOrder> stopOrders) {
+        STOP_ORDERS_LOCK.lock();
+        try {
+            try (JsonGenerator generator = jsonFactory.createGenerator(new File(STOP_ORDER_FILE_PATH), JsonEncoding.UTF8)) {
+                generator.useDefaultPrettyPrinter();
+                OrderCodec.writeStopOrders(generator, stopOrders);
+                return true;
             } catch (IOException e) {
                 System.err.println("Errore durante il salvataggio degli ordini stop: " + e.getMessage());
                 e.printStackTrace();
+                return false;
             }
+        } finally {
+            STOP_ORDERS_LOCK.unlock();
         }
     }
 
     /**
      * Loads all stop orders from their JSON file.
-     * This method is synchronized to prevent race conditions during file reading.
+     * Takes STOP_ORDERS_LOCK, so the file is not read while it is being written.
      *
      * @return A map of stop orders. Returns an empty map if the file does not exist.
      */
     public static Map<Integer, StopOrder> loadStopOrders() {
-        synchronized (STOP_ORDERS_LOCK) {
+        STOP_ORDERS_LOCK.lock();
+        try {
             File file = new File(STOP_ORDER_FILE_PATH);
             if (!file.exists() || file.length() == 0) {
                 return new HashMap<>();
             }
 
-            try {
-                return mapper.readValue(file, new TypeReference<Map<Integer, StopOrder>>() {
-                });
-            } catch (MismatchedInputException e) {
-                System.err.println("Errore di input durante il caricamento degli ordini stop (file vuoto o malformato): " + e.getMessage());
-                return new HashMap<>();
+            try (JsonParser parser = jsonFactory.createParser(file)) {
+                parser.nextToken();
+                return OrderCodec.readStopOrders(parser);
             } catch (IOException e) {
                 System.err.println("Errore I/O durante il caricamento degli ordini stop: " + e.getMessage());
                 e.printStackTrace();
                 return new HashMap<>();
             }
+        } finally {
+            STOP_ORDERS_LOCK.unlock();
         }
     }
 
     /**
      * Groups stop orders by their price, separating them into asks and bids.
-     * This method internally calls loadStopOrders, which is synchronized.
+     * Reads the file through loadStopOrders, which takes STOP_ORDERS_LOCK.
      *
      * @return A map containing TreeMaps for "ASK" and "BID" stop orders, grouped by price.
      */
@@ -265,39 +760,56 @@ public class OrdersFileManager {
     }
 
     /**
-     * Loads trade data from the **storicoOrdini.json** file using Jackson.
-     * This method is synchronized to prevent race conditions during file reading.
+     * Loads all trades from storicoOrdini.json.
      *
-     * @return A list of Trade objects. Returns an empty list if the file is not found, cannot be read, or parsing fails.
+     * @return A list of trades. Returns an empty list if the file does not exist, is empty or is malformed.
      */
     public static List<Trade> loadTradesFromStoricoOrdini() {
-        synchronized (STORICO_ORDINI_LOCK) {
-            File file = new File(STORICO_ORDINI_FILE_PATH);
-
-            System.out.println("DEBUG: Tentativo di caricare storicoOrdini.json da: " + file.getAbsolutePath());
-
-            if (!file.exists() || file.length() == 0) {
-                System.err.println("DEBUG: File storicoOrdini.json non trovato o vuoto al percorso: " + file.getAbsolutePath());
-                return new ArrayList<>();
+        List<Trade> trades = new ArrayList<>();
+        try (CloseableIterator<Trade> iterator = streamTradesFromStoricoOrdini()) {
+            while (iterator.hasNext()) {
+                trades.add(iterator.next());
             }
+        } catch (IOException | UncheckedIOException e) {
+            System.err.println("Errore I/O durante la lettura del file JSON dei trades da " + STORICO_ORDINI_FILE_PATH + ": " + e.getMessage());
+            e.printStackTrace();
+            return new ArrayList<>();
+        }
+        return trades;
+    }
 
-            try {
-                TradeListContainer container = mapper.readValue(file, TradeListContainer.class);
-                return container != null ? container.getTrades() : new ArrayList<>();
+    /**
+     * Streams the trades of storicoOrdini.json one at a time, without building the whole list in memory.
+     * The file is expected to hold an object whose "trades" field is an array; other fields are skipped.
+     *
+     * @return An iterator over the trades. Empty if the file does not exist or is empty. Must be closed.
+     * @throws IOException if the file cannot be opened or does not contain a "trades" array.
+     */
+    public static CloseableIterator<Trade> streamTradesFromStoricoOrdini() throws IOException {
+        File file = new File(STORICO_ORDINI_FILE_PATH);
+        if (!file.exists() || file.length() == 0) {
+            System.err.println("DEBUG: File storicoOrdini.json non trovato o vuoto al percorso: " + file.getAbsolutePath());
+            return new JsonStreamIterator<>(null, TradeCodec::read);
+        }
 
-            } catch (MismatchedInputException e) {
-                System.err.println("Errore di input/formato durante il caricamento dei trades da " + file.getAbsolutePath() + " (file vuoto o malformato): " + e.getMessage());
-                e.printStackTrace();
-                return new ArrayList<>();
-            } catch (IOException e) {
-                System.err.println("Errore I/O durante la lettura del file JSON dei trades da " + file.getAbsolutePath() + ": " + e.getMessage());
-                e.printStackTrace();
-                return new ArrayList<>();
-            } catch (Exception e) {
-                System.err.println("Errore inatteso durante il parsing del JSON dei trades da " + file.getAbsolutePath() + ": " + e.getMessage());
-                e.printStackTrace();
-                return new ArrayList<>();
+        JsonParser parser = jsonFactory.createParser(file);
+        try {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("storicoOrdini.json non contiene un oggetto JSON");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                if ("trades".equals(field) && value == JsonToken.START_ARRAY) {
+                    return new JsonStreamIterator<>(parser, TradeCodec::read);
+                }
+                parser.skipChildren();
             }
+            parser.close();
+            return new JsonStreamIterator<>(null, TradeCodec::read);
+        } catch (IOException | RuntimeException e) {
+            parser.close();
+            throw e;
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,95 @@
+package manager;
+
+import orders.ExecutedOrder;
+import orders.LimitOrder;
+import orders.StopOrder;
+
+import java.util.Map;
+
+/**
+ * A state change produced by the matching engine and consumed by the PersistenceStage.
+ * Every event carries the sequence number assigned at submission time.
+ */
+class PersistenceEvent {
+    enum Type {
+        ORDER_BOOK,
+        ORDER_BOOK_DELTA,
+        STOP_ORDERS,
+        EXECUTED_ORDER,
+        SHUTDOWN
+    }
+
+    private final long sequence;
+    private final Type type;
+    private final Map<Integer, LimitOrder> bids;
+    private final Map<Integer, LimitOrder> asks;
+    private final int nextOrderId;
+    private final Map<Integer, StopOrder> stopOrders;
+    private final ExecutedOrder executedOrder;
+    private final OrderBookDelta delta;
+
+    private PersistenceEvent(long sequence, Type type, Map<Integer, LimitOrder> bids, Map<Integer, LimitOrder> asks,
+                             int nextOrderId, Map<Integer, StopOrder> stopOrders, ExecutedOrder executedOrder,
+                             OrderBookDelta delta) {
+        this.sequence = sequence;
+        this.type = type;
+        this.bids = bids;
+        this.asks = asks;
+        this.nextOrderId = nextOrderId;
+        this.stopOrders = stopOrders;
+        this.executedOrder = executedOrder;
+        this.delta = delta;
+    }
+
+    static PersistenceEvent orderBook(long sequence, Map<Integer, LimitOrder> bids, Map<Integer, LimitOrder> asks, int nextOrderId) {
+        return new PersistenceEvent(sequence, Type.ORDER_BOOK, bids, asks, nextOrderId, null, null, null);
+    }
+
+    static PersistenceEvent orderBookDelta(long sequence, OrderBookDelta delta) {
+        return new PersistenceEvent(sequence, Type.ORDER_BOOK_DELTA, null, null, delta.getNextOrderId(), null, null, delta);
+    }
+
+    static PersistenceEvent stopOrders(long sequence, Map<Integer, StopOrder> stopOrders) {
+        return new PersistenceEvent(sequence, Type.STOP_ORDERS, null, null, 0, stopOrders, null, null);
+    }
+
+    static PersistenceEvent executedOrder(long sequence, ExecutedOrder executedOrder) {
+        return new PersistenceEvent(sequence, Type.EXECUTED_ORDER, null, null, 0, null, executedOrder, null);
+    }
+
+    static PersistenceEvent shutdown(long sequence) {
+        return new PersistenceEvent(sequence, Type.SHUTDOWN, null, null, 0, null, null, null);
+    }
+
+    long getSequence() {
+        return sequence;
+    }
+
+    Type getType() {
+        return type;
+    }
+
+    Map<Integer, LimitOrder> getBids() {
+        return bids;
+    }
+
+    Map<Integer, LimitOrder> getAsks() {
+        return asks;
+    }
+
+    int getNextOrderId() {
+        return nextOrderId;
+    }
+
+    Map<Integer, StopOrder> getStopOrders() {
+        return stopOrders;
+    }
+
+    ExecutedOrder getExecutedOrder() {
+        return executedOrder;
+    }
+
+    OrderBookDelta getDelta() {
+        return delta;
+    }
+}
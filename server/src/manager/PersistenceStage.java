@@ -0,0 +1,396 @@
+package manager;
+
+import orders.ExecutedOrder;
+import orders.LimitOrder;
+import orders.StopOrder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Dedicated persistence thread for the order book.
+ * The matching engine submits state changes while holding its own lock; the events are buffered in a bounded
+ * queue and written to disk by a single background thread, so matching latency does not depend on disk latency.
+ * When the queue is full, submitters block until the writer catches up (backpressure).
+ * Every submitted event gets an increasing sequence number; the durable sequence is the highest sequence whose
+ * effects are known to be on disk.
+ * Limit orders are written as deltas appended to a journal; the writer keeps its own copy of the book for full
+ * snapshots, and seals the active journal segment every SEGMENT_MAX_DELTAS deltas so that the StorageCompactor can
+ * fold it into the base file in the background.
+ * After executed orders are appended, the trade checkpoint is rewritten so startup can read the last price directly.
+ */
+public class PersistenceStage {
+    private static final int QUEUE_CAPACITY = 4096;
+    private static final int MAX_BATCH = 512;
+    private static final long RETRY_DELAY_MS = 1000;
+    private static final int SEGMENT_MAX_DELTAS = 1000;
+
+    private final BlockingQueue<PersistenceEvent> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final ReentrantLock submitLock = new ReentrantLock();
+    private final ReentrantLock durableLock = new ReentrantLock();
+    private final Condition durableAdvanced = durableLock.newCondition();
+    private final Thread worker;
+
+    private long lastSubmittedSequence = 0;
+    private volatile long durableSequence = 0;
+    private volatile boolean stopped = false;
+
+    private final Map<Integer, LimitOrder> shadowBids = new HashMap<>();
+    private final Map<Integer, LimitOrder> shadowAsks = new HashMap<>();
+    private int shadowNextOrderId = 0;
+    private int writtenNextOrderId = 0;
+    private int deltasInSegment = 0;
+
+    private boolean pendingCompaction = false;
+    private final Map<Integer, LimitOrder> pendingUpserts = new LinkedHashMap<>();
+    private final Set<Integer> pendingRemoved = new LinkedHashSet<>();
+    private PersistenceEvent pendingStopOrders;
+    private final List<ExecutedOrder> pendingExecutedOrders = new ArrayList<>();
+    private TradeCheckpoint tradeCheckpoint;
+    private boolean pendingCheckpoint = false;
+    private long pendingSequence = 0;
+
+    /**
+     * Creates the stage and starts its writer thread.
+     *
+     * @param name the name of the writer thread.
+     */
+    public PersistenceStage(String name) {
+        worker = new Thread(this::runWorker, name);
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Enqueues a full snapshot of the limit orders, which is written as a new base file.
+     * The maps are deep-copied so the caller can keep mutating them.
+     * Blocks if the queue is full.
+     *
+     * @param bids        the bid orders.
+     * @param asks        the ask orders.
+     * @param nextOrderId the next available order ID.
+     * @return the sequence number assigned to the snapshot.
+     */
+    public long submitOrderBook(Map<Integer, LimitOrder> bids, Map<Integer, LimitOrder> asks, int nextOrderId) {
+        Map<Integer, LimitOrder> bidsCopy = copyLimitOrders(bids);
+        Map<Integer, LimitOrder> asksCopy = copyLimitOrders(asks);
+        submitLock.lock();
+        try {
+            return enqueue(PersistenceEvent.orderBook(++lastSubmittedSequence, bidsCopy, asksCopy, nextOrderId));
+        } finally {
+            submitLock.unlock();
+        }
+    }
+
+    /**
+     * Enqueues the limit orders changed since the previous delta.
+     * The orders in the delta must not be modified by the caller afterwards.
+     * Blocks if the queue is full.
+     *
+     * @param delta the changed orders.
+     * @return the sequence number assigned to the delta.
+     */
+    public long submitOrderBookDelta(OrderBookDelta delta) {
+        submitLock.lock();
+        try {
+            return enqueue(PersistenceEvent.orderBookDelta(++lastSubmittedSequence, delta));
+        } finally {
+            submitLock.unlock();
+        }
+    }
+
+    /**
+     * Enqueues a snapshot of the stop orders. Blocks if the queue is full.
+     *
+     * @param stopOrders the stop orders.
+     * @return the sequence number assigned to the snapshot.
+     */
+    public long submitStopOrders(Map<Integer, StopOrder> stopOrders) {
+        Map<Integer, StopOrder> copy = new HashMap<>();
+        for (Map.Entry<Integer, StopOrder> entry : stopOrders.entrySet()) {
+            copy.put(entry.getKey(), new StopOrder(entry.getValue()));
+        }
+        submitLock.lock();
+        try {
+            return enqueue(PersistenceEvent.stopOrders(++lastSubmittedSequence, copy));
+        } finally {
+            submitLock.unlock();
+        }
+    }
+
+    /**
+     * Enqueues a new executed order. Blocks if the queue is full.
+     *
+     * @param executedOrder the executed order.
+     * @return the sequence number assigned to the trade.
+     */
+    public long submitExecutedOrder(ExecutedOrder executedOrder) {
+        submitLock.lock();
+        try {
+            return enqueue(PersistenceEvent.executedOrder(++lastSubmittedSequence, executedOrder));
+        } finally {
+            submitLock.unlock();
+        }
+    }
+
+    /**
+     * @return the highest sequence number whose effects have been written to disk.
+     */
+    public long getDurableSequence() {
+        return durableSequence;
+    }
+
+    /**
+     * @return the highest sequence number handed to the stage.
+     */
+    public long getLastSubmittedSequence() {
+        submitLock.lock();
+        try {
+            return lastSubmittedSequence;
+        } finally {
+            submitLock.unlock();
+        }
+    }
+
+    /**
+     * Waits until the given sequence number is durable.
+     *
+     * @param sequence  the sequence to wait for.
+     * @param timeoutMs the maximum time to wait in milliseconds.
+     * @return true if the sequence is durable, false if the timeout elapsed first.
+     * @throws InterruptedException if the calling thread is interrupted while waiting.
+     */
+    public boolean awaitDurable(long sequence, long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        durableLock.lock();
+        try {
+            while (durableSequence < sequence) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return false;
+                }
+                durableAdvanced.await(remaining, TimeUnit.MILLISECONDS);
+            }
+            return true;
+        } finally {
+            durableLock.unlock();
+        }
+    }
+
+    /**
+     * Stops accepting events, writes everything still queued and waits for the writer thread to finish.
+     *
+     * @param timeoutMs the maximum time to wait in milliseconds.
+     */
+    public void shutdown(long timeoutMs) {
+        submitLock.lock();
+        try {
+            if (stopped) {
+                return;
+            }
+            stopped = true;
+            enqueue(PersistenceEvent.shutdown(lastSubmittedSequence));
+        } finally {
+            submitLock.unlock();
+        }
+        try {
+            worker.join(timeoutMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (worker.isAlive()) {
+            System.err.println("PersistenceStage: writer did not finish within " + timeoutMs + " ms, durable sequence " + durableSequence);
+        }
+    }
+
+    private long enqueue(PersistenceEvent event) {
+        if (stopped && event.getType() != PersistenceEvent.Type.SHUTDOWN) {
+            throw new IllegalStateException("PersistenceStage is shut down");
+        }
+        boolean interrupted = false;
+        while (true) {
+            try {
+                queue.put(event);
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        return event.getSequence();
+    }
+
+    private static Map<Integer, LimitOrder> copyLimitOrders(Map<Integer, LimitOrder> orders) {
+        Map<Integer, LimitOrder> copy = new HashMap<>();
+        for (Map.Entry<Integer, LimitOrder> entry : orders.entrySet()) {
+            copy.put(entry.getKey(), new LimitOrder(entry.getValue()));
+        }
+        return copy;
+    }
+
+    private void runWorker() {
+        List<PersistenceEvent> batch = new ArrayList<>(MAX_BATCH);
+        boolean shutdownRequested = false;
+
+        while (true) {
+            try {
+                if (!hasPending()) {
+                    if (shutdownRequested) {
+                        return;
+                    }
+                    batch.add(queue.take());
+                } else {
+                    PersistenceEvent event = queue.poll(RETRY_DELAY_MS, TimeUnit.MILLISECONDS);
+                    if (event != null) {
+                        batch.add(event);
+                    }
+                }
+            } catch (InterruptedException e) {
+                shutdownRequested = true;
+            }
+            queue.drainTo(batch, MAX_BATCH - batch.size());
+
+            for (PersistenceEvent event : batch) {
+                shutdownRequested |= collect(event);
+            }
+            batch.clear();
+
+            if (!hasPending() || flushPending()) {
+                markDurable(pendingSequence);
+            }
+        }
+    }
+
+    /**
+     * Folds an event into the pending state. Deltas are merged so that each order is written once per batch,
+     * only the latest stop order snapshot needs to be written, and executed orders are appended together.
+     *
+     * @return true if the event requests shutdown.
+     */
+    private boolean collect(PersistenceEvent event) {
+        switch (event.getType()) {
+            case ORDER_BOOK:
+                shadowBids.clear();
+                shadowAsks.clear();
+                shadowBids.putAll(event.getBids());
+                shadowAsks.putAll(event.getAsks());
+                shadowNextOrderId = event.getNextOrderId();
+                pendingUpserts.clear();
+                pendingRemoved.clear();
+                pendingCompaction = true;
+                break;
+            case ORDER_BOOK_DELTA:
+                OrderBookDelta delta = event.getDelta();
+                delta.applyTo(shadowBids, shadowAsks);
+                shadowNextOrderId = delta.getNextOrderId();
+                for (Integer orderId : delta.getRemoved()) {
+                    pendingUpserts.remove(orderId);
+                    pendingRemoved.add(orderId);
+                }
+                for (LimitOrder order : delta.getUpserts()) {
+                    pendingRemoved.remove(order.getOrderID());
+                    pendingUpserts.put(order.getOrderID(), order);
+                }
+                break;
+            case STOP_ORDERS:
+                pendingStopOrders = event;
+                break;
+            case EXECUTED_ORDER:
+                pendingExecutedOrders.add(event.getExecutedOrder());
+                break;
+            case SHUTDOWN:
+                if (!hasPending()) {
+                    markDurable(event.getSequence());
+                }
+                return true;
+        }
+        pendingSequence = Math.max(pendingSequence, event.getSequence());
+        return false;
+    }
+
+    private boolean hasPending() {
+        return pendingCompaction || hasPendingDelta() || pendingStopOrders != null || !pendingExecutedOrders.isEmpty() || pendingCheckpoint;
+    }
+
+    private boolean hasPendingDelta() {
+        return !pendingUpserts.isEmpty() || !pendingRemoved.isEmpty() || shadowNextOrderId != writtenNextOrderId;
+    }
+
+    /**
+     * Writes the pending state. Whatever fails to be written stays pending and is retried with the next batch.
+     *
+     * @return true if everything pending was written.
+     */
+    private boolean flushPending() {
+        if (!pendingExecutedOrders.isEmpty()) {
+            if (tradeCheckpoint == null) {
+                tradeCheckpoint = OrdersFileManager.loadTradeCheckpoint();
+            }
+            List<ExecutedOrder> written = OrdersFileManager.saveExecutedOrders(pendingExecutedOrders);
+            for (ExecutedOrder executedOrder : written) {
+                tradeCheckpoint.update(executedOrder);
+            }
+            if (written.size() == pendingExecutedOrders.size()) {
+                pendingExecutedOrders.clear();
+            } else {
+                Set<ExecutedOrder> done = Collections.newSetFromMap(new IdentityHashMap<>());
+                done.addAll(written);
+                pendingExecutedOrders.removeIf(done::contains);
+            }
+            pendingCheckpoint |= !written.isEmpty();
+        }
+        if (pendingCheckpoint && OrdersFileManager.saveTradeCheckpoint(tradeCheckpoint)) {
+            pendingCheckpoint = false;
+        }
+        if (pendingCompaction) {
+            if (OrdersFileManager.compactOrderBook(shadowBids, shadowAsks, shadowNextOrderId)) {
+                pendingCompaction = false;
+                pendingUpserts.clear();
+                pendingRemoved.clear();
+                writtenNextOrderId = shadowNextOrderId;
+                deltasInSegment = 0;
+            }
+        } else if (hasPendingDelta()) {
+            OrderBookDelta delta = new OrderBookDelta(shadowNextOrderId, new ArrayList<>(pendingUpserts.values()), new ArrayList<>(pendingRemoved));
+            if (OrdersFileManager.appendOrderBookDelta(delta)) {
+                pendingUpserts.clear();
+                pendingRemoved.clear();
+                writtenNextOrderId = shadowNextOrderId;
+                deltasInSegment++;
+            }
+        }
+        if (deltasInSegment >= SEGMENT_MAX_DELTAS && OrdersFileManager.sealOrderBookSegment()) {
+            deltasInSegment = 0;
+        }
+        if (pendingStopOrders != null && OrdersFileManager.saveStopOrders(pendingStopOrders.getStopOrders())) {
+            pendingStopOrders = null;
+        }
+        return !hasPending();
+    }
+
+    private void markDurable(long sequence) {
+        durableLock.lock();
+        try {
+            if (sequence > durableSequence) {
+                durableSequence = sequence;
+            }
+            durableAdvanced.signalAll();
+        } finally {
+            durableLock.unlock();
+        }
+    }
+}
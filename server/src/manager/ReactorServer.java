@@ -0,0 +1,444 @@
+package manager;
+
+import protocol.BinaryCodec;
+import protocol.Message;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Non-blocking TCP server: a few selector event loops serve every client connection.
+ * The first loop also accepts connections and hands them out round robin. Each connection has its own read and
+ * write buffers; the loop frames the incoming lines into commands with CommandFraming as they arrive, however
+ * they are split across reads; after the BinaryCodec handshake it decodes binary frames instead.
+ * Commands run on a small worker pool, one at a time per connection and in order; the reply is queued on the
+ * connection and written by its loop. Binary order frames pipelined back to back run as one task and their replies
+ * are written together.
+ * A connection whose client sends commands faster than they run stops being read after MAX_PENDING_COMMANDS,
+ * and commands are not started while the previous reply is still unsent, so a slow client cannot pile up memory.
+ */
+public class ReactorServer {
+    private static final int READ_BUFFER_SIZE = 8192;
+    private static final int MAX_PENDING_COMMANDS = 32;
+    private static final int ACCEPT_BACKLOG = 1024;
+    private static final int CORES = Runtime.getRuntime().availableProcessors();
+    private static final int EVENT_LOOPS = Math.max(1, Math.min(CORES, 4));
+    private static final int WORKERS = Math.max(4, CORES * 2);
+
+    private final int port;
+    private final OrderManager orderManager;
+    private final EventLoop[] loops = new EventLoop[EVENT_LOOPS];
+    private final AtomicInteger workerCount = new AtomicInteger();
+    private final ExecutorService workers = new ThreadPoolExecutor(WORKERS, WORKERS, 60L, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(), runnable -> {
+        Thread thread = new Thread(runnable, "command-worker-" + workerCount.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+    private int nextLoop;
+
+    /**
+     * @param port         The TCP port to listen on.
+     * @param orderManager The order manager, which must be thread-safe or have synchronized methods.
+     */
+    public ReactorServer(int port, OrderManager orderManager) {
+        this.port = port;
+        this.orderManager = orderManager;
+    }
+
+    /**
+     * Binds the port, starts the event loops and serves clients until the accepting loop fails.
+     *
+     * @throws IOException If the port cannot be bound.
+     */
+    public void run() throws IOException {
+        ServerSocketChannel server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(port), ACCEPT_BACKLOG);
+        server.configureBlocking(false);
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new EventLoop(i);
+        }
+        server.register(loops[0].selector, SelectionKey.OP_ACCEPT);
+        for (EventLoop loop : loops) {
+            loop.thread.start();
+        }
+        System.out.println("Server TCP avviato sulla porta " + port + " con " + loops.length + " event loop e " + WORKERS + " worker.");
+        try {
+            loops[0].thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Accepts all pending connections. Runs on the first event loop.
+     */
+    private void accept(ServerSocketChannel server) {
+        SocketChannel channel;
+        try {
+            while ((channel = server.accept()) != null) {
+                System.out.println("Nuovo client connesso: " + channel.getRemoteAddress());
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                loops[nextLoop].register(channel);
+                nextLoop = (nextLoop + 1) % loops.length;
+            }
+        } catch (IOException e) {
+            System.err.println("Errore durante l'accettazione di una connessione: " + e.getMessage());
+        }
+    }
+
+    /**
+     * A selector and its thread. Other threads hand work to the loop through its task queue.
+     */
+    private class EventLoop implements Runnable {
+        private final Selector selector;
+        private final Thread thread;
+        private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+        EventLoop(int index) throws IOException {
+            selector = Selector.open();
+            thread = new Thread(this, "reactor-" + index);
+        }
+
+        void register(SocketChannel channel) {
+            execute(() -> {
+                try {
+                    Connection connection = new Connection(channel, this);
+                    connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+                } catch (IOException e) {
+                    System.err.println("Impossibile registrare la connessione: " + e.getMessage());
+                    try {
+                        channel.close();
+                    } catch (IOException ignored) {
+                    }
+                }
+            });
+        }
+
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                try {
+                    selector.select();
+                } catch (IOException e) {
+                    System.err.println("Errore del selettore in " + thread.getName() + ": " + e.getMessage());
+                    return;
+                }
+                Runnable task;
+                while ((task = tasks.poll()) != null) {
+                    task.run();
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept((ServerSocketChannel) key.channel());
+                        continue;
+                    }
+                    Connection connection = (Connection) key.attachment();
+                    if (key.isReadable()) {
+                        connection.onReadable();
+                    }
+                    if (key.isValid() && key.isWritable()) {
+                        connection.flush();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * A client connection. Its state is only touched by its event loop, except the handler, which runs on the
+     * workers one command at a time.
+     */
+    private class Connection {
+        private final SocketChannel channel;
+        private final EventLoop loop;
+        private final CommandHandler handler = new CommandHandler(orderManager);
+        private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        private byte[] line = new byte[128];
+        private int lineLength;
+        private String command;
+        private String[] args;
+        private int argCount;
+        private final ArrayDeque<Message> pending = new ArrayDeque<>();
+        private final ArrayDeque<ByteBuffer> writeQueue = new ArrayDeque<>();
+        private boolean binary;
+        private boolean running;
+        private boolean closed;
+        private SelectionKey key;
+
+        Connection(SocketChannel channel, EventLoop loop) {
+            this.channel = channel;
+            this.loop = loop;
+        }
+
+        void onReadable() {
+            int read;
+            try {
+                read = channel.read(readBuffer);
+            } catch (IOException e) {
+                close("Errore I/O nel client handler: " + e.getMessage());
+                return;
+            }
+            if (read < 0) {
+                close(null);
+                return;
+            }
+            readBuffer.flip();
+            if (!(binary ? readFrames() : readLines())) {
+                return;
+            }
+            if (pending.size() >= MAX_PENDING_COMMANDS) {
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+            }
+            dispatch();
+        }
+
+        /**
+         * Frames the lines in the read buffer into commands, switching to binary frames after the handshake.
+         *
+         * @return false if the connection was closed.
+         */
+        private boolean readLines() {
+            byte[] bytes = readBuffer.array();
+            for (int i = readBuffer.position(); i < readBuffer.limit(); i++) {
+                if (bytes[i] == '\n') {
+                    if (!onLine()) {
+                        return false;
+                    }
+                    if (binary) {
+                        readBuffer.position(i + 1);
+                        return readFrames();
+                    }
+                } else if (lineLength == CommandFraming.MAX_LINE_LENGTH) {
+                    close("Riga troppo lunga dal client");
+                    return false;
+                } else {
+                    if (lineLength == line.length) {
+                        line = Arrays.copyOf(line, Math.min(line.length * 2, CommandFraming.MAX_LINE_LENGTH));
+                    }
+                    line[lineLength++] = bytes[i];
+                }
+            }
+            readBuffer.clear();
+            return true;
+        }
+
+        /**
+         * Decodes the complete frames in the read buffer and keeps a partial one for the next read.
+         *
+         * @return false if the connection was closed.
+         */
+        private boolean readFrames() {
+            try {
+                Message message = new Message();
+                while (BinaryCodec.decode(readBuffer, READ_BUFFER_SIZE, message)) {
+                    pending.add(message);
+                    message = new Message();
+                }
+            } catch (ProtocolException e) {
+                close("Frame non valido dal client: " + e.getMessage());
+                return false;
+            }
+            readBuffer.compact();
+            return true;
+        }
+
+        /**
+         * Adds a complete line to the command being framed. The handshake line switches the connection to binary
+         * frames; it must come when no command is outstanding, so its reply cannot overtake another.
+         *
+         * @return false if the connection was closed.
+         */
+        private boolean onLine() {
+            int length = lineLength > 0 && line[lineLength - 1] == '\r' ? lineLength - 1 : lineLength;
+            String text = new String(line, 0, length, StandardCharsets.UTF_8);
+            lineLength = 0;
+            if (command == null && text.equals(BinaryCodec.HANDSHAKE)) {
+                if (running || !pending.isEmpty()) {
+                    close("Handshake binario con comandi in corso dal client");
+                    return false;
+                }
+                binary = true;
+                writeQueue.add(ByteBuffer.wrap("100\n".getBytes(StandardCharsets.US_ASCII)));
+                flush();
+                return !closed;
+            }
+            if (command == null) {
+                command = text;
+                args = new String[CommandFraming.argumentLines(text)];
+                argCount = 0;
+            } else {
+                args[argCount++] = text;
+            }
+            if (argCount == args.length) {
+                pending.add(Message.command(command, args));
+                command = null;
+            }
+            return true;
+        }
+
+        /**
+         * Starts the next command, unless one is running or a reply is still being written.
+         */
+        private void dispatch() {
+            if (running || closed || pending.isEmpty() || !writeQueue.isEmpty()) {
+                return;
+            }
+            Message message = pending.poll();
+            boolean binaryReply = binary;
+            running = true;
+            if (message.getType() != BinaryCodec.COMMAND) {
+                Message[] orders = takeOrders(message);
+                try {
+                    workers.execute(() -> runOrders(orders));
+                } catch (RejectedExecutionException e) {
+                    close("Worker non disponibili");
+                }
+                return;
+            }
+            try {
+                workers.execute(() -> {
+                    System.out.println("Received command: " + message.getCommand());
+                    handler.handle(message.getCommand(), message.getArgs()).whenComplete((reply, error) -> {
+                        ByteBuffer bytes = error == null ? encodeReply(message, reply, binaryReply) : null;
+                        loop.execute(() -> onReply(bytes, error));
+                    });
+                });
+            } catch (RejectedExecutionException e) {
+                close("Worker non disponibili");
+            }
+        }
+
+        /**
+         * Takes the order frames pipelined right after the first one, so that a worker runs them in one go.
+         */
+        private Message[] takeOrders(Message first) {
+            int count = 1;
+            for (Message next : pending) {
+                if (next.getType() == BinaryCodec.COMMAND || count == MAX_PENDING_COMMANDS) {
+                    break;
+                }
+                count++;
+            }
+            Message[] orders = new Message[count];
+            orders[0] = first;
+            for (int i = 1; i < count; i++) {
+                orders[i] = pending.poll();
+            }
+            return orders;
+        }
+
+        /**
+         * Runs binary order frames on a worker, in order, and sends their replies back in one buffer.
+         */
+        private void runOrders(Message[] orders) {
+            ByteBuffer reply = ByteBuffer.allocate(orders.length * CommandHandler.ORDER_REPLY_CAPACITY);
+            try {
+                for (Message order : orders) {
+                    System.out.println("Received command: " + order.getCommand());
+                    handler.handleOrder(order, reply);
+                }
+            } catch (RuntimeException e) {
+                loop.execute(() -> onReply(null, e));
+                return;
+            }
+            reply.flip();
+            loop.execute(() -> onReply(reply, null));
+        }
+
+        private ByteBuffer encodeReply(Message request, String reply, boolean binaryReply) {
+            if (!binaryReply) {
+                return ByteBuffer.wrap(reply.getBytes(StandardCharsets.UTF_8));
+            }
+            ByteBuffer frame = ByteBuffer.allocate(BinaryCodec.textFrameLength(reply));
+            BinaryCodec.encodeText(frame, request.getCorrelationId(), reply);
+            return frame.flip();
+        }
+
+        private void onReply(ByteBuffer reply, Throwable error) {
+            running = false;
+            if (closed) {
+                return;
+            }
+            if (error != null) {
+                close("Comando non valido dal client: " + error);
+                return;
+            }
+            writeQueue.add(reply);
+            flush();
+            if (!closed && pending.size() < MAX_PENDING_COMMANDS) {
+                key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+            }
+        }
+
+        /**
+         * Writes as much of the queued replies as the socket takes, waiting for OP_WRITE for the rest.
+         */
+        void flush() {
+            try {
+                while (!writeQueue.isEmpty()) {
+                    ByteBuffer head = writeQueue.peek();
+                    channel.write(head);
+                    if (head.hasRemaining()) {
+                        key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                        return;
+                    }
+                    writeQueue.poll();
+                }
+            } catch (IOException e) {
+                close("Errore I/O nel client handler: " + e.getMessage());
+                return;
+            }
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+            dispatch();
+        }
+
+        private void close(String reason) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            Object address = channel.socket().getInetAddress();
+            if (reason != null) {
+                System.err.println(reason + " (" + address + ")");
+            }
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                System.err.println("Errore durante la chiusura del socket del client: " + e.getMessage());
+            }
+            System.out.println("ClientHandler per " + address + " terminato e socket chiuso.");
+        }
+    }
+}
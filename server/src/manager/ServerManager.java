@@ -1,89 +1,273 @@
 package manager;
 
 import auth.Login;
+import auth.PasswordHasher;
+import auth.SessionTicket;
 import RMI.Register;
 
 import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 
 public class ServerManager {
-    private static final ConcurrentHashMap<String, Long> loggedUsers = new ConcurrentHashMap<>();
-    private static final long TIMEOUT = 100 * 60 * 1000;
+    private static final ConcurrentHashMap<String, Session> sessions = new ConcurrentHashMap<>();
 
-    public static int handleLogin(String username, String password, String clientIP, int udpPort) {
+    /**
+     * Checks the credentials on the password hashing pool and, on success, registers the session.
+     * The session is claimed with an atomic putIfAbsent, so two concurrent logins of the same user cannot both
+     * succeed; an expired session is replaced.
+     *
+     * @param session  the new session, built from the username and UDP address sent with LOGIN.
+     * @param password the password.
+     * @return a future completed with the login result code.
+     */
+    public static CompletableFuture<Integer> handleLogin(Session session, String password) {
+        String username = session.getUsername();
         try {
-            int code = Login.login(username, password, loggedUsers.keySet());
-            if (code == 100) {
-                System.out.println("User logged in successfully");
-                loggedUsers.put(username, System.currentTimeMillis());
-                UdpSessionManager.registerClientUdpInfo(username, clientIP, udpPort);
-            }
-            if (code == 101) {
-                System.out.println("Username or password incorrect");
-            }
-            if (code == 102) {
-                System.out.println("User already logged in");
-            }
-            if (code == 103) {
-                System.out.println("Error logging in");
-            }
-            return code;
+            return Login.login(username, password).thenApply(code -> {
+                if (code == 100 && !register(session)) {
+                    code = 102;
+                }
+                if (code == 100) {
+                    System.out.println("User logged in successfully");
+                }
+                if (code == 101) {
+                    System.out.println("Username or password incorrect");
+                }
+                if (code == 102) {
+                    System.out.println("User already logged in");
+                }
+                if (code == 103) {
+                    System.out.println("Error logging in");
+                }
+                if (code == PasswordHasher.BUSY) {
+                    System.out.println("Login rejected, password hashing pool saturated (" + PasswordHasher.queueDepth() + " queued)");
+                }
+                return code;
+            });
         } catch (Exception e) {
             System.err.println("Errore durante l'handleLogin per " + username + ": " + e.getMessage());
             e.printStackTrace();
-            return 103;
+            return CompletableFuture.completedFuture(103);
         }
     }
 
-    public static int handleUpdateCredentials(String username, String password, String newPassword) {
-        try {
-            int result = Register.updatePassword(username, password, newPassword);
-            if (result == 100) {
-                System.out.println("Password updated successfully");
+    /**
+     * Restores a session from a ticket issued at login, without checking the password again.
+     * A session still active for the user is taken over with the new UDP address; otherwise a new one is registered
+     * with the same putIfAbsent/replace loop as a login, so a session registered concurrently is never overwritten,
+     * and an expired one it displaces is closed.
+     * An expired ticket is accepted if it was issued during the user's active session, which may have been restored
+     * from a checkpoint: sessions last much longer than tickets.
+     *
+     * @param ticket   the session ticket sent by the client.
+     * @param clientIP the client's IP address for UDP unicast.
+     * @param udpPort  the client's UDP port for unicast.
+     * @return the resumed session, or null if the ticket is invalid, revoked, or expired with no active session
+     * that it was issued for.
+     */
+    public static Session handleResume(String ticket, String clientIP, int udpPort) {
+        String username = SessionTicket.validate(ticket, ServerManager::activeSessionStart);
+        if (username == null) {
+            System.out.println("Session ticket rejected");
+            return null;
+        }
+        Session fresh = null;
+        while (true) {
+            Session current = sessions.get(username);
+            if (current != null && current.touch()) {
+                current.setUdpAddress(clientIP, udpPort);
+                System.out.println("Session of " + username + " resumed");
+                return current;
             }
-            if (result == 101) {
-                System.out.println("Invalid new password");
+            if (fresh == null) {
+                fresh = new Session(username, clientIP, udpPort);
             }
-            if (result == 102) {
-                System.out.println("Username or password incorrect");
+            boolean claimed;
+            if (current == null) {
+                claimed = sessions.putIfAbsent(username, fresh) == null;
+            } else {
+                current.close();
+                claimed = sessions.replace(username, current, fresh);
             }
-            if (result == 103) {
-                System.out.println("You cannot use the same password");
+            if (claimed) {
+                SessionWheel.schedule(fresh);
+                System.out.println("Session of " + username + " resumed");
+                return fresh;
             }
-            return result;
+        }
+    }
+
+    /**
+     * Changes a user's password. The BCrypt work runs on the password hashing pool, like a login's.
+     *
+     * @param username    the user.
+     * @param password    the current password.
+     * @param newPassword the new password.
+     * @return a future completed with the result code of Register.updatePassword, or 104 on an unexpected error.
+     */
+    public static CompletableFuture<Integer> handleUpdateCredentials(String username, String password, String newPassword) {
+        try {
+            return Register.updatePassword(username, password, newPassword).handle((result, error) -> {
+                if (error != null) {
+                    System.err.println("Errore durante l'handleUpdateCredentials per " + username + ": " + error.getMessage());
+                    error.printStackTrace();
+                    return 104;
+                }
+                logUpdateCredentials(result);
+                return result;
+            });
         } catch (IOException e) {
             System.err.println("Errore durante l'handleUpdateCredentials per " + username + ": " + e.getMessage());
             e.printStackTrace();
-            return 104;
+            return CompletableFuture.completedFuture(104);
         }
     }
 
+    private static void logUpdateCredentials(int result) {
+        if (result == 100) {
+            System.out.println("Password updated successfully");
+        }
+        if (result == 101) {
+            System.out.println("Invalid new password");
+        }
+        if (result == 102) {
+            System.out.println("Username or password incorrect");
+        }
+        if (result == 103) {
+            System.out.println("You cannot use the same password");
+        }
+        if (result == PasswordHasher.BUSY) {
+            System.out.println("Password update rejected, password hashing pool saturated");
+        }
+    }
+
+    /**
+     * @param username the user.
+     * @return true if the user has an active session.
+     */
     public static boolean isLogged(String username) {
-        Long lastActive = loggedUsers.get(username);
-        if (lastActive == null) return false;
+        Session session = sessions.get(username);
+        if (session == null) return false;
+
+        if (!session.isActive(System.currentTimeMillis())) {
+            expire(session);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @param username the user.
+     * @return the user's session, or null if the user is not logged in. The session may have expired meanwhile.
+     */
+    public static Session getSession(String username) {
+        return sessions.get(username);
+    }
+
+    /**
+     * Removes a session that was found closed or expired.
+     *
+     * @param session the session.
+     */
+    public static void expire(Session session) {
+        session.close();
+        if (sessions.remove(session.getUsername(), session)) {
+            System.out.println("Session of " + session.getUsername() + " expired");
+        }
+    }
 
-        long now = System.currentTimeMillis();
-        if (now - lastActive > TIMEOUT) {
-            loggedUsers.remove(username);
-            UdpSessionManager.removeClientUdpInfo(username);
+    /**
+     * @return a view of the registered sessions, some of which may have expired.
+     */
+    static Collection<Session> activeSessions() {
+        return sessions.values();
+    }
+
+    /**
+     * Registers a session restored from a checkpoint at startup.
+     *
+     * @param session the session.
+     * @return false if the user already has a session.
+     */
+    static boolean restore(Session session) {
+        if (sessions.putIfAbsent(session.getUsername(), session) != null) {
             return false;
         }
+        SessionWheel.schedule(session);
         return true;
     }
 
-    public static void updateActivity(String username) {
-        loggedUsers.put(username, System.currentTimeMillis());
+    /**
+     * Removes a batch of sessions found expired by the SessionWheel sweeper.
+     *
+     * @param expired the sessions.
+     */
+    static void expireAll(List<Session> expired) {
+        int removed = 0;
+        for (Session session : expired) {
+            session.close();
+            if (sessions.remove(session.getUsername(), session)) {
+                removed++;
+            }
+        }
+        if (removed > 0) {
+            System.out.println("Sessions expired: " + removed + ", still active: " + sessions.size());
+        }
     }
 
-    public static int logout(String username) {
-        loggedUsers.remove(username);
-        UdpSessionManager.removeClientUdpInfo(username);
-        System.out.println("User " + username + " logged out successfully.");
+    /**
+     * Ends a session on the user's request and revokes the user's session tickets.
+     *
+     * @param session the session bound to the connection.
+     * @return 100
+     */
+    public static int logout(Session session) {
+        session.close();
+        sessions.remove(session.getUsername(), session);
+        SessionTicket.revoke(session.getUsername());
+        System.out.println("User " + session.getUsername() + " logged out successfully.");
         return 100;
     }
 
-    public static int handleRegisterMulticastInterest(String username, int multicastPort) {
-        return UdpSessionManager.handleMulticastInterest(username, multicastPort);
+    public static int handleRegisterMulticastInterest(Session session, int multicastPort) {
+        return UdpSessionManager.handleMulticastInterest(session, multicastPort);
+    }
+
+    /**
+     * @param username the user.
+     * @return the start time of the user's active session, or Long.MAX_VALUE if the user has none.
+     */
+    private static long activeSessionStart(String username) {
+        Session session = sessions.get(username);
+        if (session == null || !session.isActive(System.currentTimeMillis())) {
+            return Long.MAX_VALUE;
+        }
+        return session.getStartedAt();
     }
 
-}
\ No newline at end of file
+    /**
+     * Claims the user's slot for a new session, replacing an expired one.
+     *
+     * @return false if the user already has an active session.
+     */
+    private static boolean register(Session session) {
+        while (true) {
+            Session current = sessions.putIfAbsent(session.getUsername(), session);
+            if (current == null) {
+                SessionWheel.schedule(session);
+                return true;
+            }
+            if (current.isActive(System.currentTimeMillis())) {
+                return false;
+            }
+            current.close();
+            if (sessions.replace(session.getUsername(), current, session)) {
+                SessionWheel.schedule(session);
+                return true;
+            }
+        }
+    }
+}
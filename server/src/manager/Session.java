@@ -0,0 +1,144 @@
+package manager;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The state of a logged-in user: the UDP address for trade notifications, the price subscription and the time of
+ * the last command. A session is created at LOGIN, registered in ServerManager and bound to the client
+ * connection, which authorises each command by reading its fields instead of looking the username up.
+ * A session ends when the user logs out or stays idle longer than the timeout, checked on the next command and by
+ * the SessionWheel sweeper; once closed it is never reopened.
+ */
+public class Session {
+    static final long TIMEOUT = 100 * 60 * 1000;
+
+    private final String username;
+    private final long startedAt;
+    private volatile InetSocketAddress udpAddress;
+    private volatile long lastActivity;
+    private volatile boolean closed;
+    private final AtomicBoolean priceSubscribed = new AtomicBoolean();
+
+    /**
+     * @param username the logged-in user.
+     * @param clientIp the client's IP address for UDP unicast.
+     * @param udpPort  the client's UDP port for unicast.
+     */
+    public Session(String username, String clientIp, int udpPort) {
+        this.username = username;
+        this.startedAt = System.currentTimeMillis();
+        this.lastActivity = startedAt;
+        this.udpAddress = resolve(username, clientIp, udpPort);
+    }
+
+    /**
+     * Rebuilds a session from a checkpoint.
+     *
+     * @param username        the logged-in user.
+     * @param clientIp        the client's IP address for UDP unicast.
+     * @param udpPort         the client's UDP port for unicast.
+     * @param startedAt       the time of the login.
+     * @param lastActivity    the time of the last command.
+     * @param priceSubscribed true if the session was subscribed to the price updates.
+     */
+    Session(String username, String clientIp, int udpPort, long startedAt, long lastActivity, boolean priceSubscribed) {
+        this.username = username;
+        this.startedAt = startedAt;
+        this.lastActivity = lastActivity;
+        this.udpAddress = resolve(username, clientIp, udpPort);
+        this.priceSubscribed.set(priceSubscribed);
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    /**
+     * @return the time of the login, or of the RESUME that started the session.
+     */
+    public long getStartedAt() {
+        return startedAt;
+    }
+
+    /**
+     * @return the client's unicast address, or null if it could not be resolved.
+     */
+    public InetSocketAddress getUdpAddress() {
+        return udpAddress;
+    }
+
+    /**
+     * Changes the client's unicast address, e.g. when the session is resumed from another connection.
+     *
+     * @param clientIp the client's IP address.
+     * @param udpPort  the client's UDP port.
+     */
+    public void setUdpAddress(String clientIp, int udpPort) {
+        udpAddress = resolve(username, clientIp, udpPort);
+    }
+
+    /**
+     * Records a command from the client.
+     *
+     * @return false if the session is closed or has expired, in which case the command must be refused.
+     */
+    public boolean touch() {
+        if (closed) {
+            return false;
+        }
+        long now = System.currentTimeMillis();
+        if (now - lastActivity > TIMEOUT) {
+            return false;
+        }
+        lastActivity = now;
+        return true;
+    }
+
+    /**
+     * @param now the current time in milliseconds.
+     * @return true if the session is neither closed nor expired.
+     */
+    public boolean isActive(long now) {
+        return !closed && now - lastActivity <= TIMEOUT;
+    }
+
+    public long getLastActivity() {
+        return lastActivity;
+    }
+
+    /**
+     * Subscribes the session to the multicast price updates.
+     *
+     * @return false if it was already subscribed.
+     */
+    public boolean subscribeToPrices() {
+        return priceSubscribed.compareAndSet(false, true);
+    }
+
+    public boolean isSubscribedToPrices() {
+        return priceSubscribed.get();
+    }
+
+    /**
+     * @return the client's unicast address, or null if it cannot be resolved.
+     */
+    private static InetSocketAddress resolve(String username, String clientIp, int udpPort) {
+        try {
+            return new InetSocketAddress(InetAddress.getByName(clientIp), udpPort);
+        } catch (Exception e) {
+            System.err.println("Session: Error registering UDP info for " + username + ": " + e.getMessage());
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    void close() {
+        closed = true;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+}
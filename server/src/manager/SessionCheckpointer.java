@@ -0,0 +1,121 @@
+package manager;
+
+import auth.SessionTicket;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes the active sessions to disk every few seconds and on shutdown, and restores them at startup.
+ * Together with the persistent ticket key this lets clients RESUME after a restart, so a restart does not turn
+ * into a BCrypt storm of every user logging in again. Ticket revocations are checkpointed too, so a ticket
+ * revoked by a logout stays revoked.
+ * The start of each session is kept as well: a session outlives the tickets issued at its login, and RESUME accepts
+ * an expired ticket only if it was issued after the start of the user's session.
+ */
+public class SessionCheckpointer {
+    private static final String FILE_PATH = "sessions.json";
+    private static final long INTERVAL_SECONDS = 5;
+    private static final ObjectMapper mapper = new ObjectMapper();
+    private static final Object SAVE_LOCK = new Object();
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "session-checkpointer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Restores the sessions of the last checkpoint that have not expired meanwhile.
+     * Must be called at startup, before clients are accepted. A checkpoint written before the session start was
+     * recorded gives the last activity as start, so only tickets that have not expired can resume those sessions.
+     *
+     * @return the number of sessions restored.
+     */
+    public static int restore() {
+        File file = new File(FILE_PATH);
+        if (!file.exists()) {
+            return 0;
+        }
+        try {
+            SessionSnapshot snapshot = mapper.readValue(file, SessionSnapshot.class);
+            SessionTicket.restoreRevocations(snapshot.getRevocations());
+            long now = System.currentTimeMillis();
+            int restored = 0;
+            for (SessionSnapshot.Entry entry : snapshot.getSessions()) {
+                long startedAt = entry.getStartedAt() > 0 ? entry.getStartedAt() : entry.getLastActivity();
+                Session session = new Session(entry.getUsername(), entry.getUdpHost(), entry.getUdpPort(),
+                        startedAt, entry.getLastActivity(), entry.isPriceSubscribed());
+                if (session.isActive(now) && ServerManager.restore(session)) {
+                    restored++;
+                }
+            }
+            System.out.println("SessionCheckpointer: " + restored + " sessioni ripristinate.");
+            return restored;
+        } catch (IOException e) {
+            System.err.println("Impossibile ripristinare le sessioni: " + e.getMessage());
+            e.printStackTrace();
+            return 0;
+        }
+    }
+
+    /**
+     * Writes the active sessions through a temporary file and an atomic rename.
+     *
+     * @return true if the file was written, false if an I/O error occurred.
+     */
+    public static boolean save() {
+        synchronized (SAVE_LOCK) {
+            SessionSnapshot snapshot = new SessionSnapshot();
+            long now = System.currentTimeMillis();
+            snapshot.setSavedAt(now);
+            for (Session session : ServerManager.activeSessions()) {
+                InetSocketAddress address = session.getUdpAddress();
+                if (address == null || !session.isActive(now)) {
+                    continue;
+                }
+                SessionSnapshot.Entry entry = new SessionSnapshot.Entry();
+                entry.setUsername(session.getUsername());
+                entry.setUdpHost(address.getAddress().getHostAddress());
+                entry.setUdpPort(address.getPort());
+                entry.setPriceSubscribed(session.isSubscribedToPrices());
+                entry.setStartedAt(session.getStartedAt());
+                entry.setLastActivity(session.getLastActivity());
+                snapshot.getSessions().add(entry);
+            }
+            snapshot.setRevocations(SessionTicket.revocations());
+            try {
+                File tmp = new File(FILE_PATH + ".tmp");
+                mapper.writeValue(tmp, snapshot);
+                Files.move(tmp.toPath(), new File(FILE_PATH).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                return true;
+            } catch (IOException e) {
+                System.err.println("Errore durante il salvataggio delle sessioni: " + e.getMessage());
+                e.printStackTrace();
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Schedules the periodic checkpoints.
+     */
+    public void start() {
+        scheduler.scheduleWithFixedDelay(SessionCheckpointer::save, INTERVAL_SECONDS, INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stops the periodic checkpoints and writes a last one.
+     */
+    public void shutdown() {
+        scheduler.shutdown();
+        save();
+    }
+}
@@ -0,0 +1,107 @@
+package manager;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Checkpoint of the active sessions and of the recent ticket revocations, written periodically by
+ * SessionCheckpointer so that clients can RESUME after a server restart instead of logging in again.
+ */
+public class SessionSnapshot {
+    private long savedAt;
+    private List<Entry> sessions = new ArrayList<>();
+    private Map<String, Long> revocations = new HashMap<>();
+
+    public SessionSnapshot() {
+    }
+
+    public long getSavedAt() {
+        return savedAt;
+    }
+
+    public void setSavedAt(long savedAt) {
+        this.savedAt = savedAt;
+    }
+
+    public List<Entry> getSessions() {
+        return sessions;
+    }
+
+    public void setSessions(List<Entry> sessions) {
+        this.sessions = sessions;
+    }
+
+    public Map<String, Long> getRevocations() {
+        return revocations;
+    }
+
+    public void setRevocations(Map<String, Long> revocations) {
+        this.revocations = revocations;
+    }
+
+    /**
+     * One session: the user, the UDP endpoint, the price subscription, the start, which bounds the tickets that
+     * can resume it, and the last activity, from which the expiry follows.
+     */
+    public static class Entry {
+        private String username;
+        private String udpHost;
+        private int udpPort;
+        private boolean priceSubscribed;
+        private long startedAt;
+        private long lastActivity;
+
+        public Entry() {
+        }
+
+        public String getUsername() {
+            return username;
+        }
+
+        public void setUsername(String username) {
+            this.username = username;
+        }
+
+        public String getUdpHost() {
+            return udpHost;
+        }
+
+        public void setUdpHost(String udpHost) {
+            this.udpHost = udpHost;
+        }
+
+        public int getUdpPort() {
+            return udpPort;
+        }
+
+        public void setUdpPort(int udpPort) {
+            this.udpPort = udpPort;
+        }
+
+        public boolean isPriceSubscribed() {
+            return priceSubscribed;
+        }
+
+        public void setPriceSubscribed(boolean priceSubscribed) {
+            this.priceSubscribed = priceSubscribed;
+        }
+
+        public long getStartedAt() {
+            return startedAt;
+        }
+
+        public void setStartedAt(long startedAt) {
+            this.startedAt = startedAt;
+        }
+
+        public long getLastActivity() {
+            return lastActivity;
+        }
+
+        public void setLastActivity(long lastActivity) {
+            this.lastActivity = lastActivity;
+        }
+    }
+}
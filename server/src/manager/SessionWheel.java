@@ -0,0 +1,94 @@
+package manager;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Hashed timing wheel that expires idle sessions in the background, so a session nobody uses any more is dropped
+ * and stops receiving trade notifications even if its user never sends another command.
+ * The wheel has one slot per second, hashed modulo the number of slots. A session is scheduled once, at its
+ * deadline; activity only moves Session's last activity time forward. When the sweeper reaches a session's slot
+ * it reads the real deadline: a session that was used meanwhile is filed again under its new deadline in O(1),
+ * the expired ones of the tick are removed together.
+ */
+class SessionWheel {
+    private static final long TICK_MS = 1000;
+    private static final int SLOTS = 1024;
+    private static final Object START_LOCK = new Object();
+
+    private static final List<ConcurrentLinkedQueue<Session>> wheel = new ArrayList<>(SLOTS);
+    private static volatile long processedTick = System.currentTimeMillis() / TICK_MS;
+    private static Thread sweeper;
+
+    static {
+        for (int i = 0; i < SLOTS; i++) {
+            wheel.add(new ConcurrentLinkedQueue<>());
+        }
+    }
+
+    /**
+     * Tracks a new session until it expires, starting the sweeper on first use.
+     *
+     * @param session the session.
+     */
+    static void schedule(Session session) {
+        start();
+        file(session, session.getLastActivity() + Session.TIMEOUT);
+    }
+
+    private static void file(Session session, long deadline) {
+        long tick = Math.max(deadline / TICK_MS, processedTick + 1);
+        wheel.get((int) (tick % SLOTS)).add(session);
+    }
+
+    private static void start() {
+        synchronized (START_LOCK) {
+            if (sweeper != null) {
+                return;
+            }
+            sweeper = new Thread(SessionWheel::run, "session-sweeper");
+            sweeper.setDaemon(true);
+            sweeper.start();
+        }
+    }
+
+    private static void run() {
+        List<Session> due = new ArrayList<>();
+        List<Session> expired = new ArrayList<>();
+        while (true) {
+            try {
+                Thread.sleep(TICK_MS - System.currentTimeMillis() % TICK_MS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            long now = System.currentTimeMillis();
+            long currentTick = now / TICK_MS;
+            while (processedTick < currentTick) {
+                long tick = processedTick + 1;
+                processedTick = tick;
+                ConcurrentLinkedQueue<Session> slot = wheel.get((int) (tick % SLOTS));
+                Session session;
+                while ((session = slot.poll()) != null) {
+                    due.add(session);
+                }
+                for (Session candidate : due) {
+                    if (candidate.isClosed()) {
+                        continue;
+                    }
+                    long deadline = candidate.getLastActivity() + Session.TIMEOUT;
+                    if (deadline > now) {
+                        file(candidate, deadline);
+                    } else {
+                        expired.add(candidate);
+                    }
+                }
+                due.clear();
+            }
+            if (!expired.isEmpty()) {
+                ServerManager.expireAll(expired);
+                expired.clear();
+            }
+        }
+    }
+}
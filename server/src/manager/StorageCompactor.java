@@ -0,0 +1,68 @@
+package manager;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Background maintenance of the append-based stores, run periodically on a single low-priority daemon thread.
+ * Each run folds the sealed order book journal segments into the base file, converts closed trade months to
+ * archives, compresses archives older than the retention window into cold storage and deletes the files that
+ * were superseded. Every step works on sealed or closed data only, so the persistence thread keeps appending.
+ */
+public class StorageCompactor {
+    private static final long INITIAL_DELAY_SECONDS = 10;
+    private static final long INTERVAL_SECONDS = 60;
+    private static final int TRADE_RETENTION_MONTHS = 12;
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "storage-compactor");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+
+    /**
+     * Schedules the periodic runs.
+     */
+    public void start() {
+        scheduler.scheduleWithFixedDelay(this::runOnce, INITIAL_DELAY_SECONDS, INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Runs all the maintenance steps once on the calling thread.
+     */
+    public void runOnce() {
+        try {
+            int folded = OrdersFileManager.foldOrderBookSegments();
+            int archived = TradePartitionStore.archiveClosedPartitions();
+            int cold = TradePartitionStore.moveToColdStorage(TRADE_RETENTION_MONTHS);
+            int deleted = TradePartitionStore.deleteObsoleteFiles();
+            if (folded + archived + cold + deleted > 0) {
+                System.out.println("StorageCompactor: " + folded + " segments folded, " + archived + " partitions archived, "
+                        + cold + " moved to cold storage, " + deleted + " obsolete files deleted.");
+            }
+        } catch (RuntimeException e) {
+            System.err.println("StorageCompactor: run failed: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Stops the periodic runs and waits for a run in progress to complete. The compactor thread is a daemon, so
+     * the JVM would otherwise exit in the middle of a step; each step replaces files atomically, so a run cut short
+     * by the timeout leaves the old files in place.
+     *
+     * @param timeoutMs The maximum time to wait in milliseconds.
+     */
+    public void shutdown(long timeoutMs) {
+        scheduler.shutdown();
+        try {
+            if (!scheduler.awaitTermination(timeoutMs, TimeUnit.MILLISECONDS)) {
+                System.err.println("StorageCompactor: manutenzione ancora in corso allo spegnimento, interrotta.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,530 @@
+package manager;
+
+import orders.ExecutedOrder;
+import orders.OrderType;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Columnar archive format for the executed orders of a closed month.
+ * <p>
+ * Layout: magic, version, record count, the dictionary of usernames and then a sequence of blocks of at most
+ * BLOCK_SIZE records. Every block starts with its record count, min/max timestamp, min/max price, total volume and
+ * the byte length of each column, so a scan can skip whole blocks by their statistics and skip the columns it
+ * does not need. Columns are stored as variable-length integers: timestamps and order IDs as zigzag deltas,
+ * prices as zigzag deltas, sizes as zigzag values, buyers and sellers as dictionary indexes.
+ * Archives moved to cold storage are the same bytes compressed with gzip.
+ */
+public class TradeArchive {
+    private static final int MAGIC = 0x58415243;
+    private static final int VERSION = 1;
+    private static final int BLOCK_SIZE = 4096;
+    private static final int COLUMN_COUNT = 7;
+    private static final int COPY_BUFFER_SIZE = 65536;
+
+    /**
+     * File name suffix of gzip-compressed archives.
+     */
+    public static final String COMPRESSED_SUFFIX = ".gz";
+
+    private static final int COL_TIMESTAMP = 0;
+    private static final int COL_PRICE = 1;
+    private static final int COL_SIZE = 2;
+    private static final int COL_ORDER_ID = 3;
+    private static final int COL_BUYER = 4;
+    private static final int COL_SELLER = 5;
+    private static final int COL_ORDER_TYPE = 6;
+
+    private static final OrderType[] ORDER_TYPES = OrderType.values();
+
+    /**
+     * Receives the columns needed for price and volume statistics.
+     */
+    public interface PriceVisitor {
+        void accept(long timestamp, int price, int size);
+    }
+
+    /**
+     * Writes the executed orders to an archive file, through a temporary file and an atomic rename.
+     *
+     * @param path   the archive file.
+     * @param orders the executed orders, in execution order.
+     * @throws IOException if the file cannot be written.
+     */
+    public static void write(Path path, List<ExecutedOrder> orders) throws IOException {
+        Map<String, Integer> dictionary = new HashMap<>();
+        List<String> names = new ArrayList<>();
+        for (ExecutedOrder order : orders) {
+            for (String name : new String[]{order.getBuyer(), order.getSeller()}) {
+                String key = name != null ? name : "";
+                if (!dictionary.containsKey(key)) {
+                    dictionary.put(key, names.size());
+                    names.add(key);
+                }
+            }
+        }
+
+        Encoder out = new Encoder();
+        out.writeFixedInt(MAGIC);
+        out.writeVarInt(VERSION);
+        out.writeVarInt(orders.size());
+        out.writeVarInt(names.size());
+        for (String name : names) {
+            byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+            out.writeVarInt(bytes.length);
+            out.write(bytes, 0, bytes.length);
+        }
+
+        Encoder[] columns = new Encoder[COLUMN_COUNT];
+        for (int i = 0; i < COLUMN_COUNT; i++) {
+            columns[i] = new Encoder();
+        }
+
+        for (int start = 0; start < orders.size(); start += BLOCK_SIZE) {
+            int end = Math.min(orders.size(), start + BLOCK_SIZE);
+            for (Encoder column : columns) {
+                column.reset();
+            }
+
+            long minTimestamp = Long.MAX_VALUE, maxTimestamp = Long.MIN_VALUE;
+            int minPrice = Integer.MAX_VALUE, maxPrice = Integer.MIN_VALUE;
+            long volume = 0;
+            long previousTimestamp = 0;
+            int previousPrice = 0;
+            int previousOrderId = 0;
+
+            for (int i = start; i < end; i++) {
+                ExecutedOrder order = orders.get(i);
+                minTimestamp = Math.min(minTimestamp, order.getTimestamp());
+                maxTimestamp = Math.max(maxTimestamp, order.getTimestamp());
+                minPrice = Math.min(minPrice, order.getPrice());
+                maxPrice = Math.max(maxPrice, order.getPrice());
+                volume += order.getSize();
+
+                columns[COL_TIMESTAMP].writeVarLong(zigzag(order.getTimestamp() - previousTimestamp));
+                columns[COL_PRICE].writeVarLong(zigzag((long) order.getPrice() - previousPrice));
+                columns[COL_SIZE].writeVarLong(zigzag(order.getSize()));
+                columns[COL_ORDER_ID].writeVarLong(zigzag((long) order.getOrderID() - previousOrderId));
+                columns[COL_BUYER].writeVarInt(dictionary.get(order.getBuyer() != null ? order.getBuyer() : ""));
+                columns[COL_SELLER].writeVarInt(dictionary.get(order.getSeller() != null ? order.getSeller() : ""));
+                columns[COL_ORDER_TYPE].writeVarInt(order.getOrderType() != null ? order.getOrderType().ordinal() + 1 : 0);
+
+                previousTimestamp = order.getTimestamp();
+                previousPrice = order.getPrice();
+                previousOrderId = order.getOrderID();
+            }
+
+            out.writeVarInt(end - start);
+            out.writeVarLong(zigzag(minTimestamp));
+            out.writeVarLong(zigzag(maxTimestamp));
+            out.writeVarLong(zigzag(minPrice));
+            out.writeVarLong(zigzag(maxPrice));
+            out.writeVarLong(volume);
+            for (Encoder column : columns) {
+                out.writeVarInt(column.size());
+            }
+            for (Encoder column : columns) {
+                out.write(column.buffer(), 0, column.size());
+            }
+        }
+
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        Files.write(tmp, out.toByteArray());
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Decodes every record of an archive.
+     *
+     * @param path the archive file.
+     * @return the executed orders, in execution order.
+     * @throws IOException if the file cannot be read or is not a valid archive.
+     */
+    public static List<ExecutedOrder> readAll(Path path) throws IOException {
+        List<ExecutedOrder> result = new ArrayList<>();
+        try (CloseableIterator<ExecutedOrder> iterator = iterator(path)) {
+            while (iterator.hasNext()) {
+                result.add(iterator.next());
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return result;
+    }
+
+    /**
+     * Opens a streaming iterator over the records of an archive. Only one block of columns is held in memory.
+     * I/O errors while iterating are thrown as UncheckedIOException.
+     *
+     * @param path the archive file.
+     * @return an iterator over the executed orders, in execution order. Must be closed.
+     * @throws IOException if the file cannot be opened or is not a valid archive.
+     */
+    public static CloseableIterator<ExecutedOrder> iterator(Path path) throws IOException {
+        return new RecordIterator(new ArchiveReader(path));
+    }
+
+    /**
+     * Visits timestamp, price and size of the records in [fromTimestamp, toTimestamp].
+     * Blocks whose time range does not overlap the interval are skipped without decoding, and only the
+     * timestamp, price and size columns are decoded.
+     *
+     * @param path          the archive file.
+     * @param fromTimestamp the first timestamp of the interval, inclusive.
+     * @param toTimestamp   the last timestamp of the interval, inclusive.
+     * @param visitor       receives the matching records in execution order.
+     * @throws IOException if the file cannot be read or is not a valid archive.
+     */
+    public static void scanPrices(Path path, long fromTimestamp, long toTimestamp, PriceVisitor visitor) throws IOException {
+        try (ArchiveReader reader = new ArchiveReader(path)) {
+            BlockHeader block;
+            while ((block = reader.nextBlock()) != null) {
+                if (block.maxTimestamp < fromTimestamp || block.minTimestamp > toTimestamp) {
+                    reader.skip(block.totalLength());
+                    continue;
+                }
+                Decoder timestamps = reader.readColumn(block.columnLengths[COL_TIMESTAMP]);
+                Decoder prices = reader.readColumn(block.columnLengths[COL_PRICE]);
+                Decoder sizes = reader.readColumn(block.columnLengths[COL_SIZE]);
+                reader.skip(block.totalLength() - block.columnLengths[COL_TIMESTAMP] - block.columnLengths[COL_PRICE] - block.columnLengths[COL_SIZE]);
+
+                long timestamp = 0;
+                long price = 0;
+                for (int i = 0; i < block.count; i++) {
+                    timestamp += unzigzag(timestamps.readVarLong());
+                    price += unzigzag(prices.readVarLong());
+                    int size = (int) unzigzag(sizes.readVarLong());
+                    if (timestamp >= fromTimestamp && timestamp <= toTimestamp) {
+                        visitor.accept(timestamp, (int) price, size);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Sums the traded size in [fromTimestamp, toTimestamp]. Blocks entirely inside the interval are answered
+     * from their statistics, only blocks crossing a boundary are decoded.
+     *
+     * @param path          the archive file.
+     * @param fromTimestamp the first timestamp of the interval, inclusive.
+     * @param toTimestamp   the last timestamp of the interval, inclusive.
+     * @return the total traded size.
+     * @throws IOException if the file cannot be read or is not a valid archive.
+     */
+    public static long volume(Path path, long fromTimestamp, long toTimestamp) throws IOException {
+        long volume = 0;
+        try (ArchiveReader reader = new ArchiveReader(path)) {
+            BlockHeader block;
+            while ((block = reader.nextBlock()) != null) {
+                if (block.maxTimestamp < fromTimestamp || block.minTimestamp > toTimestamp) {
+                    reader.skip(block.totalLength());
+                } else if (block.minTimestamp >= fromTimestamp && block.maxTimestamp <= toTimestamp) {
+                    volume += block.volume;
+                    reader.skip(block.totalLength());
+                } else {
+                    Decoder timestamps = reader.readColumn(block.columnLengths[COL_TIMESTAMP]);
+                    reader.skip(block.columnLengths[COL_PRICE]);
+                    Decoder sizes = reader.readColumn(block.columnLengths[COL_SIZE]);
+                    reader.skip(block.totalLength() - block.columnLengths[COL_TIMESTAMP] - block.columnLengths[COL_PRICE] - block.columnLengths[COL_SIZE]);
+                    long timestamp = 0;
+                    for (int i = 0; i < block.count; i++) {
+                        timestamp += unzigzag(timestamps.readVarLong());
+                        long size = unzigzag(sizes.readVarLong());
+                        if (timestamp >= fromTimestamp && timestamp <= toTimestamp) {
+                            volume += size;
+                        }
+                    }
+                }
+            }
+        }
+        return volume;
+    }
+
+    /**
+     * Writes a gzip-compressed copy of an archive, through a temporary file and an atomic rename.
+     * The copy can be read by every method of this class, which recognise it by the COMPRESSED_SUFFIX.
+     *
+     * @param source the archive file.
+     * @param target the compressed file, ending with COMPRESSED_SUFFIX.
+     * @throws IOException if a file cannot be read or written.
+     */
+    public static void compress(Path source, Path target) throws IOException {
+        Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(tmp), COPY_BUFFER_SIZE)) {
+            Files.copy(source, out);
+        }
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static InputStream open(Path path) throws IOException {
+        InputStream in = Files.newInputStream(path);
+        if (path.getFileName().toString().endsWith(COMPRESSED_SUFFIX)) {
+            return new GZIPInputStream(in, COPY_BUFFER_SIZE);
+        }
+        return in;
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Sequential reader over an archive file: the header and dictionary are read on open, then blocks one by one.
+     */
+    private static class ArchiveReader implements Closeable {
+        private final DataInputStream in;
+        private final String[] names;
+
+        ArchiveReader(Path path) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(open(path)));
+            try {
+                if (in.readInt() != MAGIC) {
+                    throw new IOException("Not a trade archive: " + path);
+                }
+                int version = readVarInt();
+                if (version != VERSION) {
+                    throw new IOException("Unsupported trade archive version " + version + ": " + path);
+                }
+                readVarInt();
+                names = new String[readVarInt()];
+                for (int i = 0; i < names.length; i++) {
+                    byte[] bytes = new byte[readVarInt()];
+                    in.readFully(bytes);
+                    names[i] = new String(bytes, StandardCharsets.UTF_8);
+                }
+            } catch (IOException e) {
+                in.close();
+                throw e;
+            }
+        }
+
+        /**
+         * @return the next block header, or null at the end of the file.
+         */
+        BlockHeader nextBlock() throws IOException {
+            int first = in.read();
+            if (first < 0) {
+                return null;
+            }
+            BlockHeader header = new BlockHeader();
+            header.count = (int) readVarLong(first);
+            header.minTimestamp = unzigzag(readVarLong(in.readUnsignedByte()));
+            header.maxTimestamp = unzigzag(readVarLong(in.readUnsignedByte()));
+            header.minPrice = (int) unzigzag(readVarLong(in.readUnsignedByte()));
+            header.maxPrice = (int) unzigzag(readVarLong(in.readUnsignedByte()));
+            header.volume = readVarLong(in.readUnsignedByte());
+            for (int i = 0; i < COLUMN_COUNT; i++) {
+                header.columnLengths[i] = readVarInt();
+            }
+            return header;
+        }
+
+        Decoder readColumn(int length) throws IOException {
+            byte[] bytes = new byte[length];
+            in.readFully(bytes);
+            return new Decoder(bytes);
+        }
+
+        void skip(int length) throws IOException {
+            int remaining = length;
+            while (remaining > 0) {
+                int skipped = in.skipBytes(remaining);
+                if (skipped <= 0) {
+                    throw new EOFException("Truncated trade archive block");
+                }
+                remaining -= skipped;
+            }
+        }
+
+        String name(int index) {
+            return names[index];
+        }
+
+        private int readVarInt() throws IOException {
+            return (int) readVarLong(in.readUnsignedByte());
+        }
+
+        private long readVarLong(int first) throws IOException {
+            long value = first & 0x7F;
+            int shift = 7;
+            int b = first;
+            while ((b & 0x80) != 0) {
+                b = in.readUnsignedByte();
+                value |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            }
+            return value;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    /**
+     * Decodes the archive one record at a time, reading the columns of one block at a time.
+     */
+    private static class RecordIterator implements CloseableIterator<ExecutedOrder> {
+        private final ArchiveReader reader;
+        private final Decoder[] columns = new Decoder[COLUMN_COUNT];
+        private int remainingInBlock = 0;
+        private long timestamp;
+        private long price;
+        private long orderId;
+        private boolean finished = false;
+
+        RecordIterator(ArchiveReader reader) {
+            this.reader = reader;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (remainingInBlock > 0) {
+                return true;
+            }
+            if (finished) {
+                return false;
+            }
+            try {
+                BlockHeader block;
+                do {
+                    block = reader.nextBlock();
+                } while (block != null && block.count == 0);
+                if (block == null) {
+                    finished = true;
+                    return false;
+                }
+                for (int i = 0; i < COLUMN_COUNT; i++) {
+                    columns[i] = reader.readColumn(block.columnLengths[i]);
+                }
+                remainingInBlock = block.count;
+                timestamp = 0;
+                price = 0;
+                orderId = 0;
+                return true;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public ExecutedOrder next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            remainingInBlock--;
+            timestamp += unzigzag(columns[COL_TIMESTAMP].readVarLong());
+            price += unzigzag(columns[COL_PRICE].readVarLong());
+            int size = (int) unzigzag(columns[COL_SIZE].readVarLong());
+            orderId += unzigzag(columns[COL_ORDER_ID].readVarLong());
+            String buyer = reader.name(columns[COL_BUYER].readVarInt());
+            String seller = reader.name(columns[COL_SELLER].readVarInt());
+            int orderType = columns[COL_ORDER_TYPE].readVarInt();
+            return new ExecutedOrder((int) orderId, buyer, seller, size, (int) price, timestamp,
+                    orderType == 0 ? null : ORDER_TYPES[orderType - 1]);
+        }
+
+        @Override
+        public void close() {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                System.err.println("Errore durante la chiusura dell'archivio: " + e.getMessage());
+            }
+        }
+    }
+
+    private static class BlockHeader {
+        int count;
+        long minTimestamp;
+        long maxTimestamp;
+        int minPrice;
+        int maxPrice;
+        long volume;
+        final int[] columnLengths = new int[COLUMN_COUNT];
+
+        int totalLength() {
+            int total = 0;
+            for (int length : columnLengths) {
+                total += length;
+            }
+            return total;
+        }
+    }
+
+    private static class Encoder extends ByteArrayOutputStream {
+        void writeFixedInt(int value) {
+            write(value >>> 24);
+            write(value >>> 16);
+            write(value >>> 8);
+            write(value);
+        }
+
+        void writeVarInt(int value) {
+            writeVarLong(value & 0xFFFFFFFFL);
+        }
+
+        void writeVarLong(long value) {
+            while ((value & ~0x7FL) != 0) {
+                write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            write((int) value);
+        }
+
+        byte[] buffer() {
+            return buf;
+        }
+    }
+
+    private static class Decoder {
+        private final byte[] data;
+        private int position;
+
+        Decoder(byte[] data) {
+            this.data = data;
+            this.position = 0;
+        }
+
+        int readVarInt() {
+            return (int) readVarLong();
+        }
+
+        long readVarLong() {
+            long value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = data[position++];
+                value |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return value;
+        }
+    }
+}
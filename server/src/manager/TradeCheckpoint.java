@@ -0,0 +1,158 @@
+package manager;
+
+import orders.ExecutedOrder;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+
+/**
+ * Small summary of the trade history, rewritten after every batch of executed orders so that startup does not
+ * have to read the history: the last trade, the number of trades recorded and the statistics of the current
+ * session (the calendar day of the last trade, in the server's default time zone).
+ * The trade count tells whether the checkpoint matches the partitions on disk.
+ */
+public class TradeCheckpoint {
+    private long tradeCount;
+    private int lastPrice;
+    private long lastTimestamp;
+    private String sessionDate;
+    private int sessionOpen;
+    private int sessionHigh;
+    private int sessionLow;
+    private long sessionVolume;
+    private int sessionTrades;
+
+    public TradeCheckpoint() {
+    }
+
+    /**
+     * Accounts for an executed order appended to the history, starting a new session when the day changes.
+     *
+     * @param order the executed order.
+     */
+    public void update(ExecutedOrder order) {
+        tradeCount++;
+        lastPrice = order.getPrice();
+        lastTimestamp = order.getTimestamp();
+        addToSession(order.getTimestamp(), order.getPrice(), order.getSize());
+    }
+
+    /**
+     * Accounts for a trade in the session statistics only.
+     *
+     * @param timestamp the trade timestamp in milliseconds.
+     * @param price     the trade price.
+     * @param size      the trade size.
+     */
+    void addToSession(long timestamp, int price, int size) {
+        String date = sessionDate(timestamp);
+        if (!date.equals(sessionDate)) {
+            sessionDate = date;
+            sessionOpen = price;
+            sessionHigh = price;
+            sessionLow = price;
+            sessionVolume = 0;
+            sessionTrades = 0;
+        }
+        sessionHigh = Math.max(sessionHigh, price);
+        sessionLow = Math.min(sessionLow, price);
+        sessionVolume += size;
+        sessionTrades++;
+    }
+
+    /**
+     * @param timestamp a timestamp in milliseconds.
+     * @return the session (yyyy-MM-dd) the timestamp belongs to.
+     */
+    public static String sessionDate(long timestamp) {
+        return LocalDate.ofInstant(Instant.ofEpochMilli(timestamp), ZoneId.systemDefault()).toString();
+    }
+
+    public long getTradeCount() {
+        return tradeCount;
+    }
+
+    public void setTradeCount(long tradeCount) {
+        this.tradeCount = tradeCount;
+    }
+
+    public int getLastPrice() {
+        return lastPrice;
+    }
+
+    public void setLastPrice(int lastPrice) {
+        this.lastPrice = lastPrice;
+    }
+
+    public long getLastTimestamp() {
+        return lastTimestamp;
+    }
+
+    public void setLastTimestamp(long lastTimestamp) {
+        this.lastTimestamp = lastTimestamp;
+    }
+
+    public String getSessionDate() {
+        return sessionDate;
+    }
+
+    public void setSessionDate(String sessionDate) {
+        this.sessionDate = sessionDate;
+    }
+
+    public int getSessionOpen() {
+        return sessionOpen;
+    }
+
+    public void setSessionOpen(int sessionOpen) {
+        this.sessionOpen = sessionOpen;
+    }
+
+    public int getSessionHigh() {
+        return sessionHigh;
+    }
+
+    public void setSessionHigh(int sessionHigh) {
+        this.sessionHigh = sessionHigh;
+    }
+
+    public int getSessionLow() {
+        return sessionLow;
+    }
+
+    public void setSessionLow(int sessionLow) {
+        this.sessionLow = sessionLow;
+    }
+
+    public long getSessionVolume() {
+        return sessionVolume;
+    }
+
+    public void setSessionVolume(long sessionVolume) {
+        this.sessionVolume = sessionVolume;
+    }
+
+    public int getSessionTrades() {
+        return sessionTrades;
+    }
+
+    public void setSessionTrades(int sessionTrades) {
+        this.sessionTrades = sessionTrades;
+    }
+
+    @Override
+    public String toString() {
+        return "TradeCheckpoint{" +
+                "tradeCount=" + tradeCount +
+                ", lastPrice=" + lastPrice +
+                ", lastTimestamp=" + lastTimestamp +
+                ", sessionDate='" + sessionDate + '\'' +
+                ", sessionOpen=" + sessionOpen +
+                ", sessionHigh=" + sessionHigh +
+                ", sessionLow=" + sessionLow +
+                ", sessionVolume=" + sessionVolume +
+                ", sessionTrades=" + sessionTrades +
+                '}';
+    }
+}
@@ -0,0 +1,113 @@
+package manager;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import orders.OrderCodec;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Hand-written codec for the trades of storicoOrdini.json, without reflective data binding.
+ * The JSON form has the same field names Jackson data binding used; unknown fields are skipped.
+ */
+public final class TradeCodec {
+
+    private TradeCodec() {
+    }
+
+    /**
+     * Writes a trade as a JSON object.
+     *
+     * @param generator the JSON generator.
+     * @param trade     the trade.
+     * @throws IOException if the generator fails.
+     */
+    public static void write(JsonGenerator generator, Trade trade) throws IOException {
+        generator.writeStartObject();
+        generator.writeNumberField("orderId", trade.getOrderId());
+        generator.writeStringField("type", trade.getType());
+        generator.writeStringField("orderType", trade.getOrderType());
+        generator.writeNumberField("size", trade.getSize());
+        generator.writeNumberField("price", trade.getPrice());
+        generator.writeNumberField("timestamp", trade.getTimestamp());
+        generator.writeEndObject();
+    }
+
+    /**
+     * Reads a trade from the JSON object the parser is positioned on.
+     * On return the parser is on the END_OBJECT token of the trade.
+     *
+     * @param parser the JSON parser, positioned on START_OBJECT.
+     * @return the trade.
+     * @throws IOException if the input is not a valid trade object.
+     */
+    public static Trade read(JsonParser parser) throws IOException {
+        if (parser.currentToken() != JsonToken.START_OBJECT) {
+            throw new IOException("Expected a trade object but found " + parser.currentToken() + " at " + parser.currentLocation());
+        }
+        Trade trade = new Trade();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            parser.nextToken();
+            switch (field) {
+                case "orderId":
+                    trade.setOrderId(parser.getIntValue());
+                    break;
+                case "type":
+                    trade.setType(parser.getValueAsString());
+                    break;
+                case "orderType":
+                    trade.setOrderType(parser.getValueAsString());
+                    break;
+                case "size":
+                    trade.setSize(parser.getIntValue());
+                    break;
+                case "price":
+                    trade.setPrice(parser.getLongValue());
+                    break;
+                case "timestamp":
+                    trade.setTimestamp(parser.getLongValue());
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+        return trade;
+    }
+
+    /**
+     * Writes a trade in binary form.
+     *
+     * @param out   the output.
+     * @param trade the trade.
+     * @throws IOException if the output fails.
+     */
+    public static void write(DataOutput out, Trade trade) throws IOException {
+        out.writeInt(trade.getOrderId());
+        OrderCodec.writeString(out, trade.getType());
+        OrderCodec.writeString(out, trade.getOrderType());
+        out.writeInt(trade.getSize());
+        out.writeLong(trade.getPrice());
+        out.writeLong(trade.getTimestamp());
+    }
+
+    /**
+     * Reads a trade written by write(DataOutput, Trade).
+     *
+     * @param in the input.
+     * @return the trade.
+     * @throws IOException if the input fails or ends early.
+     */
+    public static Trade read(DataInput in) throws IOException {
+        int orderId = in.readInt();
+        String type = OrderCodec.readString(in);
+        String orderType = OrderCodec.readString(in);
+        int size = in.readInt();
+        long price = in.readLong();
+        long timestamp = in.readLong();
+        return new Trade(orderId, type, orderType, size, price, timestamp);
+    }
+}
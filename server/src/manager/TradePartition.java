@@ -0,0 +1,129 @@
+package manager;
+
+/**
+ * Index entry of a trade partition: the executed orders of one calendar month.
+ * The length is the offset right after the last complete record, so readers never see a half-written line.
+ * Once the month is closed the partition is converted to a TradeArchive and its length is the archive size.
+ * Past the retention window the archive is compressed into the cold folder, and the file points there.
+ */
+public class TradePartition {
+    private String key;
+    private String file;
+    private int count;
+    private long length;
+    private long firstTimestamp;
+    private long lastTimestamp;
+    private boolean archived;
+    private boolean cold;
+
+    public TradePartition() {
+    }
+
+    public TradePartition(String key, String file) {
+        this.key = key;
+        this.file = file;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public void setKey(String key) {
+        this.key = key;
+    }
+
+    public String getFile() {
+        return file;
+    }
+
+    public void setFile(String file) {
+        this.file = file;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public void setCount(int count) {
+        this.count = count;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    public void setLength(long length) {
+        this.length = length;
+    }
+
+    public long getFirstTimestamp() {
+        return firstTimestamp;
+    }
+
+    public void setFirstTimestamp(long firstTimestamp) {
+        this.firstTimestamp = firstTimestamp;
+    }
+
+    public long getLastTimestamp() {
+        return lastTimestamp;
+    }
+
+    public void setLastTimestamp(long lastTimestamp) {
+        this.lastTimestamp = lastTimestamp;
+    }
+
+    public boolean isArchived() {
+        return archived;
+    }
+
+    public void setArchived(boolean archived) {
+        this.archived = archived;
+    }
+
+    public boolean isCold() {
+        return cold;
+    }
+
+    public void setCold(boolean cold) {
+        this.cold = cold;
+    }
+
+    /**
+     * Accounts for a record appended at the end of the partition.
+     *
+     * @param timestamp   the record's timestamp.
+     * @param recordBytes the record's size in bytes, including the line terminator.
+     */
+    void addRecord(long timestamp, long recordBytes) {
+        if (count == 0 || timestamp < firstTimestamp) {
+            firstTimestamp = timestamp;
+        }
+        if (count == 0 || timestamp > lastTimestamp) {
+            lastTimestamp = timestamp;
+        }
+        count++;
+        length += recordBytes;
+    }
+
+    TradePartition copy() {
+        TradePartition copy = new TradePartition(key, file);
+        copy.count = count;
+        copy.length = length;
+        copy.firstTimestamp = firstTimestamp;
+        copy.lastTimestamp = lastTimestamp;
+        copy.archived = archived;
+        copy.cold = cold;
+        return copy;
+    }
+
+    @Override
+    public String toString() {
+        return "TradePartition{" +
+                "key='" + key + '\'' +
+                ", count=" + count +
+                ", length=" + length +
+                ", archived=" + archived +
+                ", cold=" + cold +
+                '}';
+    }
+}
@@ -0,0 +1,968 @@
+package manager;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import orders.ExecutedOrder;
+import orders.OrderCodec;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Executed orders partitioned by calendar month.
+ * Each month is an append-only file with one JSON record per line, framed by ChecksummedLog with its ordinal in the
+ * partition and a CRC32C checksum, and a small index keeps, for every partition,
+ * the number of records, the offset of the end of the last complete record and the time range.
+ * A month query reads only its own partition. Months are computed in the server's default time zone,
+ * like the original Calendar based filter.
+ * Partitions of months before the current one are closed: the StorageCompactor converts them to the columnar
+ * TradeArchive format and, past the retention window, compresses them into cold storage. Both conversions run
+ * without holding the store lock, so appends are never blocked by them.
+ */
+public class TradePartitionStore {
+    private static final String DIRECTORY = "executed_orders";
+    private static final String INDEX_FILE = "index.json";
+    private static final String USER_INDEX_FILE = "user_trades.idx";
+    private static final String PARTITION_SUFFIX = ".jsonl";
+    private static final String ARCHIVE_SUFFIX = ".archive";
+    private static final String COLD_DIRECTORY = "cold";
+    private static final String LEGACY_FILE_PATH = "executed_orders.json";
+    private static final String MIGRATED_SUFFIX = ".migrated";
+    private static final int MIGRATION_CHUNK = 10000;
+    private static final int TAIL_CHUNK = 4096;
+    private static final ObjectMapper mapper = new ObjectMapper();
+    private static final JsonFactory jsonFactory = new JsonFactory();
+    private static final ReentrantLock STORE_LOCK = new ReentrantLock();
+
+    private static final TreeMap<String, TradePartition> index = new TreeMap<>();
+    private static boolean initialized = false;
+
+    /**
+     * Returns the partition key (yyyy-MM) of a timestamp.
+     *
+     * @param timestamp epoch milliseconds.
+     * @return the partition key.
+     */
+    public static String partitionKey(long timestamp) {
+        YearMonth yearMonth = YearMonth.from(Instant.ofEpochMilli(timestamp).atZone(ZoneId.systemDefault()));
+        return partitionKey(yearMonth.getYear(), yearMonth.getMonthValue());
+    }
+
+    /**
+     * Returns the partition key (yyyy-MM) of a month.
+     *
+     * @param year  the year.
+     * @param month the month (1-12).
+     * @return the partition key.
+     */
+    public static String partitionKey(int year, int month) {
+        return String.format("%04d-%02d", year, month);
+    }
+
+    /**
+     * Appends executed orders to their monthly partitions and updates the index.
+     * Stops at the first partition that cannot be written: the orders of that partition and of the following ones
+     * are not written and can be passed again. A failed index save does not fail the append, because the records
+     * are on disk and counted again by recoverPartitions; the index is written again by the next append.
+     *
+     * @param orders the executed orders, in execution order.
+     * @return the orders written, in the order they were appended; all of them unless an I/O error occurred.
+     */
+    public static List<ExecutedOrder> append(List<ExecutedOrder> orders) {
+        STORE_LOCK.lock();
+        try {
+            ensureInitialized();
+
+            Map<String, List<ExecutedOrder>> byPartition = new LinkedHashMap<>();
+            for (ExecutedOrder order : orders) {
+                byPartition.computeIfAbsent(partitionKey(order.getTimestamp()), k -> new ArrayList<>()).add(order);
+            }
+
+            List<ExecutedOrder> written = new ArrayList<>(orders.size());
+            for (Map.Entry<String, List<ExecutedOrder>> entry : byPartition.entrySet()) {
+                TradePartition partition = index.computeIfAbsent(entry.getKey(), k -> new TradePartition(k, k + PARTITION_SUFFIX));
+                try {
+                    if (partition.isArchived()) {
+                        unarchive(partition);
+                    }
+                    int firstOrdinal = partition.getCount();
+                    appendToPartition(partition, entry.getValue());
+                    UserTradeIndex.add(entry.getKey(), firstOrdinal, entry.getValue());
+                    written.addAll(entry.getValue());
+                } catch (IOException e) {
+                    System.err.println("Errore durante il salvataggio degli ordini eseguiti nella partizione " + entry.getKey() + ": " + e.getMessage());
+                    e.printStackTrace();
+                    break;
+                }
+            }
+            if (!written.isEmpty()) {
+                saveIndex();
+            }
+            return written;
+        } finally {
+            STORE_LOCK.unlock();
+        }
+    }
+
+    /**
+     * Converts the partitions of the months before the current one to the columnar archive format.
+     * The archive is written without holding the store lock; it replaces the partition only if no order was
+     * appended to it meanwhile, otherwise it is discarded and the month is converted on a later run.
+     * The JSON lines file is deleted only after the archive and the updated index are on disk.
+     *
+     * @return the number of partitions archived.
+     */
+    public static int archiveClosedPartitions() {
+        String currentKey = partitionKey(System.currentTimeMillis());
+        int converted = 0;
+        for (TradePartition partition : getPartitions()) {
+            if (partition.isArchived() || partition.getKey().compareTo(currentKey) >= 0) {
+                continue;
+            }
+            TradePartition archived = partition.copy();
+            archived.setFile(partition.getKey() + ARCHIVE_SUFFIX);
+            archived.setArchived(true);
+            Path archivePath = partitionPath(archived);
+            try {
+                List<ExecutedOrder> orders = new ArrayList<>(partition.getCount());
+                try (CloseableIterator<ExecutedOrder> iterator = iterate(partition)) {
+                    while (iterator.hasNext()) {
+                        orders.add(iterator.next());
+                    }
+                } catch (UncheckedIOException e) {
+                    throw e.getCause();
+                }
+                TradeArchive.write(archivePath, orders);
+                archived.setLength(Files.size(archivePath));
+
+                if (replacePartition(partition, archived)) {
+                    converted++;
+                    System.out.println("Partizione " + partition.getKey() + " archiviata: " + orders.size() + " ordini, " + archived.getLength() + " byte.");
+                } else {
+                    Files.deleteIfExists(archivePath);
+                }
+            } catch (IOException e) {
+                System.err.println("Errore durante l'archiviazione della partizione " + partition.getKey() + ": " + e.getMessage());
+                e.printStackTrace();
+            }
+        }
+        return converted;
+    }
+
+    /**
+     * Compresses the archives of the months older than the retention window into the cold folder.
+     * Cold partitions stay readable by every query, at the cost of decompressing them.
+     *
+     * @param retentionMonths the number of months, the current one included, kept uncompressed.
+     * @return the number of partitions moved to cold storage.
+     */
+    public static int moveToColdStorage(int retentionMonths) {
+        YearMonth oldestKept = YearMonth.now(ZoneId.systemDefault()).minusMonths(Math.max(retentionMonths, 1) - 1);
+        String cutoffKey = partitionKey(oldestKept.getYear(), oldestKept.getMonthValue());
+        int moved = 0;
+        for (TradePartition partition : getPartitions()) {
+            if (!partition.isArchived() || partition.isCold() || partition.getKey().compareTo(cutoffKey) >= 0) {
+                continue;
+            }
+            TradePartition cold = partition.copy();
+            cold.setFile(COLD_DIRECTORY + "/" + partition.getKey() + ARCHIVE_SUFFIX + TradeArchive.COMPRESSED_SUFFIX);
+            cold.setCold(true);
+            Path coldPath = partitionPath(cold);
+            try {
+                Files.createDirectories(coldPath.getParent());
+                TradeArchive.compress(partitionPath(partition), coldPath);
+                cold.setLength(Files.size(coldPath));
+
+                if (replacePartition(partition, cold)) {
+                    moved++;
+                    System.out.println("Partizione " + partition.getKey() + " spostata nell'archivio freddo: " + partition.getLength() + " -> " + cold.getLength() + " byte.");
+                } else {
+                    Files.deleteIfExists(coldPath);
+                }
+            } catch (IOException e) {
+                System.err.println("Errore durante lo spostamento della partizione " + partition.getKey() + " nell'archivio freddo: " + e.getMessage());
+                e.printStackTrace();
+            }
+        }
+        return moved;
+    }
+
+    /**
+     * Deletes partition files that the index no longer references, left behind by a conversion interrupted
+     * between the index update and the deletion of the old file.
+     *
+     * @return the number of files deleted.
+     */
+    public static int deleteObsoleteFiles() {
+        STORE_LOCK.lock();
+        try {
+            ensureInitialized();
+            Set<Path> referenced = new HashSet<>();
+            for (TradePartition partition : index.values()) {
+                referenced.add(partitionPath(partition).toAbsolutePath().normalize());
+            }
+            int deleted = 0;
+            for (Path folder : new Path[]{directory(), directory().resolve(COLD_DIRECTORY)}) {
+                File[] files = folder.toFile().listFiles((dir, name) -> name.endsWith(ARCHIVE_SUFFIX)
+                        || name.endsWith(ARCHIVE_SUFFIX + TradeArchive.COMPRESSED_SUFFIX));
+                if (files == null) {
+                    continue;
+                }
+                for (File file : files) {
+                    if (!referenced.contains(file.toPath().toAbsolutePath().normalize()) && file.delete()) {
+                        deleted++;
+                    }
+                }
+            }
+            return deleted;
+        } finally {
+            STORE_LOCK.unlock();
+        }
+    }
+
+    /**
+     * Points the index entry of a partition to a converted copy of it, if the partition was not modified since
+     * the copy was made, and deletes the old file once the index is on disk.
+     *
+     * @param original    the index entry the copy was made from.
+     * @param replacement the index entry of the converted file.
+     * @return true if the partition was replaced, false if it changed meanwhile or the index could not be saved.
+     * @throws IOException if the old file cannot be deleted.
+     */
+    private static boolean replacePartition(TradePartition original, TradePartition replacement) throws IOException {
+        STORE_LOCK.lock();
+        try {
+            TradePartition current = index.get(original.getKey());
+            if (current == null || current.getCount() != original.getCount() || current.getLength() != original.getLength()
+                    || !current.getFile().equals(original.getFile())) {
+                return false;
+            }
+            index.put(original.getKey(), replacement);
+            if (!saveIndex()) {
+                index.put(original.getKey(), current);
+                return false;
+            }
+            Files.deleteIfExists(partitionPath(original));
+            return true;
+        } finally {
+            STORE_LOCK.unlock();
+        }
+    }
+
+    /**
+     * Visits timestamp, price and size of the executed orders in [fromTimestamp, toTimestamp].
+     * Partitions outside the interval are not read; archived partitions decode only the needed columns
+     * of the blocks overlapping the interval.
+     *
+     * @param fromTimestamp the first timestamp of the interval, inclusive.
+     * @param toTimestamp   the last timestamp of the interval, inclusive.
+     * @param visitor       receives the matching records, partition by partition in execution order.
+     */
+    public static void scanPrices(long fromTimestamp, long toTimestamp, TradeArchive.PriceVisitor visitor) {
+        for (TradePartition partition : getPartitions()) {
+            if (partition.getCount() == 0 || partition.getLastTimestamp() < fromTimestamp || partition.getFirstTimestamp() > toTimestamp) {
+                continue;
+            }
+            if (partition.isArchived()) {
+                try {
+                    TradeArchive.scanPrices(partitionPath(partition), fromTimestamp, toTimestamp, visitor);
+                } catch (IOException e) {
+                    System.err.println("Errore I/O durante la lettura dell'archivio " + partition.getKey() + ": " + e.getMessage());
+                }
+            } else {
+                try (CloseableIterator<ExecutedOrder> iterator = iterate(partition)) {
+                    while (iterator.hasNext()) {
+                        ExecutedOrder order = iterator.next();
+                        if (order.getTimestamp() >= fromTimestamp && order.getTimestamp() <= toTimestamp) {
+                            visitor.accept(order.getTimestamp(), order.getPrice(), order.getSize());
+                        }
+                    }
+                } catch (IOException | UncheckedIOException e) {
+                    System.err.println("Errore I/O durante la lettura della partizione " + partition.getKey() + ": " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the executed orders of one month, touching only that month's partition.
+     *
+     * @param year  the year.
+     * @param month the month (1-12).
+     * @return the executed orders of that month, in execution order.
+     */
+    public static List<ExecutedOrder> readPartition(int year, int month) {
+        TradePartition partition = getPartition(year, month);
+        if (partition == null) {
+            return new ArrayList<>();
+        }
+        return readRecords(partition);
+    }
+
+    /**
+     * Reads every executed order, partition by partition.
+     *
+     * @return all executed orders, ordered by month and then by execution order.
+     */
+    public static List<ExecutedOrder> readAll() {
+        List<ExecutedOrder> result = new ArrayList<>();
+        for (TradePartition partition : getPartitions()) {
+            result.addAll(readRecords(partition));
+        }
+        return result;
+    }
+
+    /**
+     * Streams the executed orders of one month without loading the partition in memory.
+     *
+     * @param year  the year.
+     * @param month the month (1-12).
+     * @return an iterator over the executed orders of that month. Must be closed.
+     * @throws IOException if the partition cannot be opened.
+     */
+    public static CloseableIterator<ExecutedOrder> iterateMonth(int year, int month) throws IOException {
+        TradePartition partition = getPartition(year, month);
+        if (partition == null) {
+            return new PartitionChainIterator(Collections.emptyList());
+        }
+        return iterate(partition);
+    }
+
+    /**
+     * Streams every executed order, opening one partition at a time.
+     *
+     * @return an iterator over all executed orders, ordered by month and then by execution order. Must be closed.
+     */
+    public static CloseableIterator<ExecutedOrder> iterateAll() {
+        return new PartitionChainIterator(getPartitions());
+    }
+
+    /**
+     * Streams the records of a partition: JSON lines are parsed one at a time up to the indexed length,
+     * archives are decoded one block at a time.
+     *
+     * @param partition the partition, as returned by getPartitions.
+     * @return an iterator over the partition's executed orders. Must be closed.
+     * @throws IOException if the partition cannot be opened.
+     */
+    public static CloseableIterator<ExecutedOrder> iterate(TradePartition partition) throws IOException {
+        if (partition.isArchived()) {
+            return TradeArchive.iterator(partitionPath(partition));
+        }
+        InputStream in = new LimitedInputStream(Files.newInputStream(partitionPath(partition)), partition.getLength());
+        return ChecksummedLog.records(in, TradePartitionStore::decodeLine);
+    }
+
+    /**
+     * @param username the user.
+     * @return the number of executed orders the user was buyer or seller of.
+     */
+    public static int userTradeCount(String username) {
+        STORE_LOCK.lock();
+        try {
+            ensureInitialized();
+        } finally {
+            STORE_LOCK.unlock();
+        }
+        return UserTradeIndex.count(username);
+    }
+
+    /**
+     * Reads one page of a user's executed orders, newest first, through the per-user index.
+     * Only the partitions holding the page's records are read, each one once and only up to the last record needed.
+     *
+     * @param username the user, as buyer or seller.
+     * @param page     the page number, starting from 0.
+     * @param pageSize the number of records per page.
+     * @return the page's executed orders, most recent first; empty past the last page.
+     */
+    public static List<ExecutedOrder> readUserTrades(String username, int page, int pageSize) {
+        STORE_LOCK.lock();
+        try {
+            ensureInitialized();
+        } finally {
+            STORE_LOCK.unlock();
+        }
+        long[] positions = UserTradeIndex.positions(username);
+        if (page < 0 || pageSize <= 0 || (long) page * pageSize >= positions.length) {
+            return new ArrayList<>();
+        }
+        int from = positions.length - 1 - page * pageSize;
+        int to = Math.max(-1, from - pageSize);
+
+        TreeMap<Integer, TreeMap<Integer, Integer>> wanted = new TreeMap<>();
+        for (int i = from; i > to; i--) {
+            wanted.computeIfAbsent(UserTradeIndex.partitionOf(positions[i]), k -> new TreeMap<>())
+                    .put(UserTradeIndex.ordinalOf(positions[i]), from - i);
+        }
+
+        ExecutedOrder[] result = new ExecutedOrder[from - to];
+        for (Map.Entry<Integer, TreeMap<Integer, Integer>> entry : wanted.entrySet()) {
+            String key = UserTradeIndex.partitionKey(entry.getKey());
+            TreeMap<Integer, Integer> slots = entry.getValue();
+            int last = slots.lastKey();
+            TradePartition partition;
+            STORE_LOCK.lock();
+            try {
+                partition = index.get(key);
+                partition = partition != null ? partition.copy() : null;
+            } finally {
+                STORE_LOCK.unlock();
+            }
+            if (partition == null) {
+                continue;
+            }
+            try (CloseableIterator<ExecutedOrder> iterator = iterate(partition)) {
+                for (int ordinal = 0; ordinal <= last && iterator.hasNext(); ordinal++) {
+                    ExecutedOrder order = iterator.next();
+                    Integer slot = slots.get(ordinal);
+                    if (slot != null) {
+                        result[slot] = order;
+                    }
+                }
+            } catch (IOException | UncheckedIOException e) {
+                System.err.println("Errore I/O durante la lettura della partizione " + key + ": " + e.getMessage());
+                e.printStackTrace();
+            }
+        }
+
+        List<ExecutedOrder> trades = new ArrayList<>(result.length);
+        for (ExecutedOrder order : result) {
+            if (order != null) {
+                trades.add(order);
+            }
+        }
+        return trades;
+    }
+
+    /**
+     * @return the number of executed orders recorded in all partitions, read from the index.
+     */
+    public static long totalCount() {
+        STORE_LOCK.lock();
+        try {
+            ensureInitialized();
+            long total = 0;
+            for (TradePartition partition : index.values()) {
+                total += partition.getCount();
+            }
+            return total;
+        } finally {
+            STORE_LOCK.unlock();
+        }
+    }
+
+    /**
+     * Reads the most recent executed order. A JSON lines partition is read backwards from its indexed end,
+     * so the cost does not depend on the size of the history.
+     *
+     * @return the last executed order, or null if there is none.
+     */
+    public static ExecutedOrder readLast() {
+        List<TradePartition> partitions = getPartitions();
+        for (int i = partitions.size() - 1; i >= 0; i--) {
+            TradePartition partition = partitions.get(i);
+            if (partition.getCount() == 0) {
+                continue;
+            }
+            try {
+                return partition.isArchived() ? readLastArchived(partition) : readLastLine(partition);
+            } catch (IOException | UncheckedIOException e) {
+                System.err.println("Errore I/O durante la lettura della partizione " + partition.getKey() + ": " + e.getMessage());
+                e.printStackTrace();
+            }
+        }
+        return null;
+    }
+
+    private static ExecutedOrder readLastLine(TradePartition partition) throws IOException {
+        try (FileChannel channel = FileChannel.open(partitionPath(partition), StandardOpenOption.READ)) {
+            long end = partition.getLength() - 1;
+            long lineStart = 0;
+            ByteBuffer buffer = ByteBuffer.allocate(TAIL_CHUNK);
+            long chunkEnd = end;
+            search:
+            while (chunkEnd > 0) {
+                long chunkStart = Math.max(0, chunkEnd - TAIL_CHUNK);
+                buffer.clear().limit((int) (chunkEnd - chunkStart));
+                channel.position(chunkStart);
+                readFully(channel, buffer);
+                for (int i = buffer.position() - 1; i >= 0; i--) {
+                    if (buffer.get(i) == '\n') {
+                        lineStart = chunkStart + i + 1;
+                        break search;
+                    }
+                }
+                chunkEnd = chunkStart;
+            }
+            ByteBuffer line = ByteBuffer.allocate((int) (end - lineStart));
+            channel.position(lineStart);
+            readFully(channel, line);
+            int payload = ChecksummedLog.payloadOffset(line.array(), 0, line.capacity(), null);
+            if (payload < 0) {
+                throw new IOException("Ultimo record non valido");
+            }
+            return decodeLine(line.array(), payload, line.capacity() - payload);
+        }
+    }
+
+    private static ExecutedOrder readLastArchived(TradePartition partition) throws IOException {
+        ExecutedOrder last = null;
+        try (CloseableIterator<ExecutedOrder> iterator = TradeArchive.iterator(partitionPath(partition))) {
+            while (iterator.hasNext()) {
+                last = iterator.next();
+            }
+        }
+        return last;
+    }
+
+    private static TradePartition getPartition(int year, int month) {
+        STORE_LOCK.lock();
+        try {
+            ensureInitialized();
+            TradePartition partition = index.get(partitionKey(year, month));
+            return partition != null ? partition.copy() : null;
+        } finally {
+            STORE_LOCK.unlock();
+        }
+    }
+
+    /**
+     * @return a copy of the index entries, ordered by month.
+     */
+    public static List<TradePartition> getPartitions() {
+        STORE_LOCK.lock();
+        try {
+            ensureInitialized();
+            List<TradePartition> partitions = new ArrayList<>(index.size());
+            for (TradePartition partition : index.values()) {
+                partitions.add(partition.copy());
+            }
+            return partitions;
+        } finally {
+            STORE_LOCK.unlock();
+        }
+    }
+
+    private static Path directory() {
+        return Paths.get(DIRECTORY);
+    }
+
+    /**
+     * Decodes one JSON line; fails if the line is incomplete or holds anything after the record.
+     */
+    private static ExecutedOrder decodeLine(byte[] bytes, int offset, int length) throws IOException {
+        try (JsonParser parser = jsonFactory.createParser(bytes, offset, length)) {
+            parser.nextToken();
+            ExecutedOrder order = OrderCodec.readExecutedOrder(parser);
+            if (parser.nextToken() != null) {
+                throw new IOException("Dati inattesi dopo il record");
+            }
+            return order;
+        }
+    }
+
+    private static Path partitionPath(TradePartition partition) {
+        return directory().resolve(partition.getFile());
+    }
+
+    /**
+     * Writes the records after the last complete record of the partition, framed with their ordinal in the
+     * partition as sequence number.
+     * Anything past the indexed length is a leftover of a failed write and is cut off first.
+     */
+    private static void appendToPartition(TradePartition partition, List<ExecutedOrder> orders) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(orders.size() * 160);
+        ByteArrayOutputStream record = new ByteArrayOutputStream(128);
+        int[] lineLengths = new int[orders.size()];
+        for (int i = 0; i < orders.size(); i++) {
+            int start = out.size();
+            record.reset();
+            try (JsonGenerator generator = jsonFactory.createGenerator(record, JsonEncoding.UTF8)) {
+                OrderCodec.writeExecutedOrder(generator, orders.get(i));
+            }
+            ChecksummedLog.writeRecord(out, partition.getCount() + i, record.toByteArray(), 0, record.size());
+            lineLengths[i] = out.size() - start;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(out.toByteArray());
+
+        try (FileChannel channel = FileChannel.open(partitionPath(partition), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            if (channel.size() > partition.getLength()) {
+                channel.truncate(partition.getLength());
+            }
+            channel.position(partition.getLength());
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+
+        for (int i = 0; i < orders.size(); i++) {
+            partition.addRecord(orders.get(i).getTimestamp(), lineLengths[i]);
+        }
+    }
+
+    /**
+     * Turns an archived partition back into a JSON lines file, for the rare trade that lands in a closed month.
+     */
+    private static void unarchive(TradePartition partition) throws IOException {
+        Path archivePath = partitionPath(partition);
+        List<ExecutedOrder> orders = TradeArchive.readAll(archivePath);
+        TradePartition hot = new TradePartition(partition.getKey(), partition.getKey() + PARTITION_SUFFIX);
+        appendToPartition(hot, orders);
+
+        partition.setFile(hot.getFile());
+        partition.setLength(hot.getLength());
+        partition.setArchived(false);
+        partition.setCold(false);
+        if (saveIndex()) {
+            Files.deleteIfExists(archivePath);
+        }
+    }
+
+    private static List<ExecutedOrder> readRecords(TradePartition partition) {
+        List<ExecutedOrder> result = new ArrayList<>(partition.getCount());
+        try (CloseableIterator<ExecutedOrder> iterator = iterate(partition)) {
+            while (iterator.hasNext()) {
+                result.add(iterator.next());
+            }
+        } catch (IOException | UncheckedIOException e) {
+            System.err.println("Errore I/O durante la lettura della partizione " + partition.getKey() + ": " + e.getMessage());
+            e.printStackTrace();
+        }
+        return result;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Loads the index, brings it up to date with the partition files and migrates the legacy single-file history.
+     * Must be called while holding STORE_LOCK.
+     */
+    private static void ensureInitialized() {
+        if (initialized) {
+            return;
+        }
+        initialized = true;
+
+        try {
+            Files.createDirectories(directory());
+        } catch (IOException e) {
+            System.err.println("Impossibile creare la cartella " + DIRECTORY + ": " + e.getMessage());
+            return;
+        }
+
+        File indexFile = directory().resolve(INDEX_FILE).toFile();
+        if (indexFile.exists() && indexFile.length() > 0) {
+            try {
+                index.putAll(mapper.readValue(indexFile, new TypeReference<TreeMap<String, TradePartition>>() {
+                }));
+            } catch (IOException e) {
+                System.err.println("Indice delle partizioni illeggibile, verra' ricostruito: " + e.getMessage());
+                index.clear();
+            }
+        }
+
+        boolean changed = recoverPartitions();
+        changed |= migrateLegacyFile();
+        if (changed) {
+            saveIndex();
+        }
+        UserTradeIndex.load(directory().resolve(USER_INDEX_FILE), index.values());
+    }
+
+    /**
+     * Verifies the JSON lines partitions in parallel and cuts each one at its first torn or corrupt record,
+     * then counts the records appended after the index was last saved.
+     *
+     * @return true if the index was modified.
+     */
+    private static boolean recoverPartitions() {
+        boolean changed = false;
+        File[] files = directory().toFile().listFiles((dir, name) -> name.endsWith(PARTITION_SUFFIX));
+        if (files == null) {
+            return false;
+        }
+        List<File> hotFiles = new ArrayList<>();
+        List<Path> paths = new ArrayList<>();
+        for (File file : files) {
+            TradePartition partition = index.get(file.getName().substring(0, file.getName().length() - PARTITION_SUFFIX.length()));
+            if (partition != null && partition.isArchived()) {
+                file.delete();
+                continue;
+            }
+            hotFiles.add(file);
+            paths.add(file.toPath());
+        }
+
+        List<ChecksummedLog.Verification> verifications = null;
+        try {
+            verifications = ChecksummedLog.verifyAll(paths);
+        } catch (IOException e) {
+            System.err.println("Errore I/O durante la verifica delle partizioni: " + e.getMessage());
+            e.printStackTrace();
+        }
+
+        for (int i = 0; i < hotFiles.size(); i++) {
+            File file = hotFiles.get(i);
+            String key = file.getName().substring(0, file.getName().length() - PARTITION_SUFFIX.length());
+            if (verifications != null && !verifications.get(i).isComplete()) {
+                System.err.println("Partizione " + key + ": record non valido all'offset " + verifications.get(i).getValidLength() + ", file troncato");
+                try {
+                    ChecksummedLog.truncate(verifications.get(i));
+                } catch (IOException e) {
+                    System.err.println("Impossibile troncare la partizione " + key + ": " + e.getMessage());
+                }
+            }
+            TradePartition partition = index.get(key);
+            if (partition == null || partition.getLength() > file.length()) {
+                partition = new TradePartition(key, file.getName());
+                index.put(key, partition);
+                changed = true;
+            }
+            if (file.length() > partition.getLength()) {
+                scanTail(partition);
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    private static void scanTail(TradePartition partition) {
+        Path path = partitionPath(partition);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long start = partition.getLength();
+            ByteBuffer buffer = ByteBuffer.allocate((int) (channel.size() - start));
+            channel.position(start);
+            readFully(channel, buffer);
+            byte[] bytes = buffer.array();
+            int lineStart = 0;
+            for (int i = 0; i < buffer.position(); i++) {
+                if (bytes[i] != '\n') {
+                    continue;
+                }
+                int payload = ChecksummedLog.payloadOffset(bytes, lineStart, i - lineStart, null);
+                if (payload < 0) {
+                    break;
+                }
+                ExecutedOrder order;
+                try {
+                    order = decodeLine(bytes, payload, i - payload);
+                } catch (IOException e) {
+                    break;
+                }
+                partition.addRecord(order.getTimestamp(), i - lineStart + 1);
+                lineStart = i + 1;
+            }
+            if (channel.size() > partition.getLength()) {
+                System.err.println("Partizione " + partition.getKey() + ": record incompleto rimosso a partire dall'offset " + partition.getLength());
+                channel.truncate(partition.getLength());
+            }
+        } catch (IOException e) {
+            System.err.println("Errore I/O durante il recupero della partizione " + partition.getKey() + ": " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Splits the legacy executed_orders.json into monthly partitions, then renames it so it is not imported twice.
+     * The legacy array is parsed one element at a time and written in chunks of MIGRATION_CHUNK records.
+     *
+     * @return true if the index was modified.
+     */
+    private static boolean migrateLegacyFile() {
+        File legacy = new File(LEGACY_FILE_PATH);
+        if (!index.isEmpty() || !legacy.exists() || legacy.length() == 0) {
+            return false;
+        }
+
+        int migrated = 0;
+        try (JsonParser parser = jsonFactory.createParser(legacy)) {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                throw new IOException(LEGACY_FILE_PATH + " non contiene un array JSON");
+            }
+            Map<String, List<ExecutedOrder>> chunk = new LinkedHashMap<>();
+            int chunkSize = 0;
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                ExecutedOrder order = OrderCodec.readExecutedOrder(parser);
+                chunk.computeIfAbsent(partitionKey(order.getTimestamp()), k -> new ArrayList<>()).add(order);
+                if (++chunkSize == MIGRATION_CHUNK) {
+                    migrated += appendChunk(chunk);
+                    chunkSize = 0;
+                }
+            }
+            migrated += appendChunk(chunk);
+            Files.move(legacy.toPath(), Paths.get(LEGACY_FILE_PATH + MIGRATED_SUFFIX), StandardCopyOption.REPLACE_EXISTING);
+            System.out.println("Migrati " + migrated + " ordini eseguiti in " + index.size() + " partizioni mensili.");
+        } catch (IOException e) {
+            System.err.println("Errore durante la migrazione di " + LEGACY_FILE_PATH + ", partizioni annullate: " + e.getMessage());
+            e.printStackTrace();
+            for (TradePartition partition : index.values()) {
+                partitionPath(partition).toFile().delete();
+            }
+            index.clear();
+        }
+        return true;
+    }
+
+    private static int appendChunk(Map<String, List<ExecutedOrder>> chunk) throws IOException {
+        int count = 0;
+        for (Map.Entry<String, List<ExecutedOrder>> entry : chunk.entrySet()) {
+            TradePartition partition = index.computeIfAbsent(entry.getKey(), k -> new TradePartition(k, k + PARTITION_SUFFIX));
+            appendToPartition(partition, entry.getValue());
+            count += entry.getValue().size();
+        }
+        chunk.clear();
+        return count;
+    }
+
+    /**
+     * Writes the index through a temporary file and an atomic rename.
+     * Must be called while holding STORE_LOCK.
+     *
+     * @return true if the index was written.
+     */
+    private static boolean saveIndex() {
+        Path indexPath = directory().resolve(INDEX_FILE);
+        Path tmp = directory().resolve(INDEX_FILE + ".tmp");
+        try {
+            mapper.writerWithDefaultPrettyPrinter().writeValue(tmp.toFile(), index);
+            Files.move(tmp, indexPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        } catch (IOException e) {
+            System.err.println("Errore durante il salvataggio dell'indice delle partizioni: " + e.getMessage());
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Streams a list of partitions one after the other, keeping only the current one open.
+     */
+    private static class PartitionChainIterator implements CloseableIterator<ExecutedOrder> {
+        private final Iterator<TradePartition> partitions;
+        private CloseableIterator<ExecutedOrder> current;
+
+        PartitionChainIterator(List<TradePartition> partitions) {
+            this.partitions = partitions.iterator();
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (current == null || !current.hasNext()) {
+                if (current != null) {
+                    current.close();
+                    current = null;
+                }
+                if (!partitions.hasNext()) {
+                    return false;
+                }
+                try {
+                    current = iterate(partitions.next());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public ExecutedOrder next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return current.next();
+        }
+
+        @Override
+        public void close() {
+            if (current != null) {
+                current.close();
+                current = null;
+            }
+        }
+    }
+
+    /**
+     * Exposes only the first limit bytes of a stream, so readers stop at the indexed end of a partition.
+     */
+    private static class LimitedInputStream extends FilterInputStream {
+        private long remaining;
+
+        LimitedInputStream(InputStream in, long limit) {
+            super(in);
+            this.remaining = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int b = super.read();
+            if (b >= 0) {
+                remaining--;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int n = super.read(b, off, (int) Math.min(len, remaining));
+            if (n > 0) {
+                remaining -= n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(Math.min(n, remaining));
+            remaining -= skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(super.available(), remaining);
+        }
+    }
+}
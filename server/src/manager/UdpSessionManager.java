@@ -5,15 +5,9 @@ import java.net.DatagramSocket;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.MulticastSocket;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.Set;
 
 public class UdpSessionManager {
 
-    private static final Map<String, InetSocketAddress> loggedUserUdpInfo = new ConcurrentHashMap<>();
-    private static final Set<String> multicastSubscribers = ConcurrentHashMap.newKeySet();
-
     private static String localServerIpForMulticast;
 
     private static final String MULTICAST_GROUP_IP = "230.0.0.1";
@@ -24,41 +18,23 @@ public class UdpSessionManager {
         System.out.println("UdpSessionManager configurato con IP locale: " + localServerIpForMulticast);
     }
 
-    public static void registerClientUdpInfo(String username, String clientIp, int udpPort) {
-        try {
-            InetAddress clientAddress = InetAddress.getByName(clientIp);
-            InetSocketAddress socketAddress = new InetSocketAddress(clientAddress, udpPort);
-            loggedUserUdpInfo.put(username, socketAddress);
-            System.out.println("UdpSessionManager: Registered user " + username + " for unicast on " + clientIp + ":" + udpPort);
-        } catch (Exception e) {
-            System.err.println("UdpSessionManager: Error registering UDP info for " + username + ": " + e.getMessage());
-            e.printStackTrace();
-        }
-    }
-
-    public static void removeClientUdpInfo(String username) {
-        loggedUserUdpInfo.remove(username);
-        multicastSubscribers.remove(username);
-        System.out.println("UdpSessionManager: Removed UDP info for user " + username);
-    }
-
-    public static int handleMulticastInterest(String username, int clientMulticastPort) {
-        if (!loggedUserUdpInfo.containsKey(username)) {
-            System.out.println("UdpSessionManager: User " + username + " not found in loggedUserUdpInfo for multicast notification. Code 101.");
+    public static int handleMulticastInterest(Session session, int clientMulticastPort) {
+        String username = session.getUsername();
+        if (session.getUdpAddress() == null) {
+            System.out.println("UdpSessionManager: User " + username + " has no UDP address registered for multicast notification. Code 101.");
             return 101;
         }
-        if (multicastSubscribers.contains(username)) {
+        if (!session.subscribeToPrices()) {
             System.out.println("UdpSessionManager: User " + username + " already subscribed to multicast notifications. Code 102.");
             return 102;
         }
 
-        multicastSubscribers.add(username);
         System.out.println("UdpSessionManager: User " + username + " subscribed to multicast notifications on port " + clientMulticastPort + ". Code 100.");
         return 100;
     }
 
     public static void notifyTradeExecution(String username, String message) {
-        InetSocketAddress userAddress = loggedUserUdpInfo.get(username);
+        InetSocketAddress userAddress = getClientUdpInfo(username);
         if (userAddress != null) {
             try (DatagramSocket socket = new DatagramSocket()) {
                 byte[] data = message.getBytes();
@@ -90,6 +66,7 @@ public class UdpSessionManager {
     }
 
     public static InetSocketAddress getClientUdpInfo(String username) {
-        return loggedUserUdpInfo.get(username);
+        Session session = ServerManager.getSession(username);
+        return session != null && session.isActive(System.currentTimeMillis()) ? session.getUdpAddress() : null;
     }
 }
\ No newline at end of file
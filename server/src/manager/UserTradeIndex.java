@@ -0,0 +1,317 @@
+package manager;
+
+import orders.ExecutedOrder;
+import orders.OrderCodec;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Secondary index from username to the positions of the user's trades in the execution log,
+ * covering both the buyer and the seller side.
+ * A position is the partition's month number in the high 32 bits and the record's ordinal inside the partition
+ * in the low 32 bits; ordinals survive the archive and cold storage conversions, which keep the record order.
+ * The index is kept in memory and mirrored to an append-only file with one entry per trade. On startup the file is
+ * read back, a torn last entry is cut off and the trades appended after the last entry are indexed from the log;
+ * a missing or inconsistent file is rebuilt from scratch.
+ * Updated only by TradePartitionStore while holding its store lock.
+ */
+class UserTradeIndex {
+    private static final int CATCH_UP_CHUNK = 10000;
+    private static final ReentrantLock INDEX_LOCK = new ReentrantLock();
+    private static final Map<String, Positions> byUser = new HashMap<>();
+    private static final Map<Integer, Integer> indexedCounts = new HashMap<>();
+    private static Path file;
+    private static boolean persistent = true;
+
+    /**
+     * Loads the index file and indexes the trades missing from it.
+     *
+     * @param indexFile  the index file.
+     * @param partitions the partitions of the store, already recovered.
+     */
+    static void load(Path indexFile, Collection<TradePartition> partitions) {
+        INDEX_LOCK.lock();
+        try {
+            file = indexFile;
+            byUser.clear();
+            indexedCounts.clear();
+            boolean consistent = Files.exists(file) && readFile();
+            if (consistent) {
+                for (TradePartition partition : partitions) {
+                    if (indexedCounts.getOrDefault(partitionNumber(partition.getKey()), 0) > partition.getCount()) {
+                        consistent = false;
+                        break;
+                    }
+                }
+            }
+            if (!consistent) {
+                byUser.clear();
+                indexedCounts.clear();
+                try {
+                    Files.deleteIfExists(file);
+                } catch (IOException e) {
+                    System.err.println("Impossibile eliminare l'indice delle operazioni per utente: " + e.getMessage());
+                }
+            }
+
+            for (TradePartition partition : partitions) {
+                int indexed = indexedCounts.getOrDefault(partitionNumber(partition.getKey()), 0);
+                if (indexed < partition.getCount()) {
+                    catchUp(partition, indexed);
+                }
+            }
+        } finally {
+            INDEX_LOCK.unlock();
+        }
+    }
+
+    /**
+     * Records trades just appended to a partition.
+     *
+     * @param partitionKey the partition key (yyyy-MM).
+     * @param firstOrdinal the ordinal of the first trade in the partition.
+     * @param orders       the trades, in append order.
+     */
+    static void add(String partitionKey, int firstOrdinal, List<ExecutedOrder> orders) {
+        INDEX_LOCK.lock();
+        try {
+            int partition = partitionNumber(partitionKey);
+            for (int i = 0; i < orders.size(); i++) {
+                put(partition, firstOrdinal + i, orders.get(i).getBuyer(), orders.get(i).getSeller());
+            }
+            persist(partition, firstOrdinal, orders);
+        } finally {
+            INDEX_LOCK.unlock();
+        }
+    }
+
+    /**
+     * @param username the user.
+     * @return a copy of the user's trade positions, oldest first.
+     */
+    static long[] positions(String username) {
+        INDEX_LOCK.lock();
+        try {
+            Positions positions = byUser.get(username);
+            return positions != null ? Arrays.copyOf(positions.values, positions.size) : new long[0];
+        } finally {
+            INDEX_LOCK.unlock();
+        }
+    }
+
+    /**
+     * @param username the user.
+     * @return the number of trades the user took part in.
+     */
+    static int count(String username) {
+        INDEX_LOCK.lock();
+        try {
+            Positions positions = byUser.get(username);
+            return positions != null ? positions.size : 0;
+        } finally {
+            INDEX_LOCK.unlock();
+        }
+    }
+
+    static int partitionNumber(String partitionKey) {
+        int year = Integer.parseInt(partitionKey.substring(0, 4));
+        int month = Integer.parseInt(partitionKey.substring(5, 7));
+        return year * 12 + month - 1;
+    }
+
+    static String partitionKey(int partitionNumber) {
+        return TradePartitionStore.partitionKey(partitionNumber / 12, partitionNumber % 12 + 1);
+    }
+
+    static long position(int partitionNumber, int ordinal) {
+        return ((long) partitionNumber << 32) | (ordinal & 0xFFFFFFFFL);
+    }
+
+    static int partitionOf(long position) {
+        return (int) (position >>> 32);
+    }
+
+    static int ordinalOf(long position) {
+        return (int) position;
+    }
+
+    private static void put(int partition, int ordinal, String buyer, String seller) {
+        long position = position(partition, ordinal);
+        if (buyer != null) {
+            byUser.computeIfAbsent(buyer, k -> new Positions()).add(position);
+        }
+        if (seller != null && !seller.equals(buyer)) {
+            byUser.computeIfAbsent(seller, k -> new Positions()).add(position);
+        }
+        indexedCounts.merge(partition, ordinal + 1, Math::max);
+    }
+
+    /**
+     * Reads the entries of the index file, cutting off a torn last entry.
+     *
+     * @return false if the file is unreadable or its entries are out of order.
+     */
+    private static boolean readFile() {
+        long validLength = 0;
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(file));
+             CountingInputStream counter = new CountingInputStream(in);
+             DataInputStream data = new DataInputStream(counter)) {
+            while (true) {
+                int partition;
+                int ordinal;
+                String buyer;
+                String seller;
+                try {
+                    partition = data.readInt();
+                    ordinal = data.readInt();
+                    buyer = OrderCodec.readString(data);
+                    seller = OrderCodec.readString(data);
+                } catch (EOFException e) {
+                    break;
+                }
+                if (ordinal != indexedCounts.getOrDefault(partition, 0)) {
+                    return false;
+                }
+                put(partition, ordinal, buyer, seller);
+                validLength = counter.count;
+            }
+        } catch (IOException | UncheckedIOException e) {
+            System.err.println("Indice delle operazioni per utente illeggibile, verra' ricostruito: " + e.getMessage());
+            return false;
+        }
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            if (channel.size() > validLength) {
+                channel.truncate(validLength);
+            }
+        } catch (IOException e) {
+            System.err.println("Impossibile troncare l'indice delle operazioni per utente: " + e.getMessage());
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Indexes the records of a partition from the given ordinal on and appends them to the index file.
+     */
+    private static void catchUp(TradePartition partition, int fromOrdinal) {
+        int number = partitionNumber(partition.getKey());
+        List<ExecutedOrder> batch = new ArrayList<>();
+        int batchStart = fromOrdinal;
+        int ordinal = 0;
+        try (CloseableIterator<ExecutedOrder> iterator = TradePartitionStore.iterate(partition)) {
+            while (iterator.hasNext()) {
+                ExecutedOrder order = iterator.next();
+                if (ordinal++ < fromOrdinal) {
+                    continue;
+                }
+                put(number, ordinal - 1, order.getBuyer(), order.getSeller());
+                batch.add(order);
+                if (batch.size() == CATCH_UP_CHUNK) {
+                    persist(number, batchStart, batch);
+                    batchStart += batch.size();
+                    batch.clear();
+                }
+            }
+        } catch (IOException | UncheckedIOException e) {
+            System.err.println("Errore durante l'indicizzazione della partizione " + partition.getKey() + ": " + e.getMessage());
+            e.printStackTrace();
+        }
+        if (!batch.isEmpty()) {
+            persist(number, batchStart, batch);
+        }
+    }
+
+    /**
+     * Appends entries to the index file. After a write error the file is deleted, so that the next startup
+     * rebuilds it instead of trusting an index with a gap, and the index is kept in memory only.
+     */
+    private static void persist(int partition, int firstOrdinal, List<ExecutedOrder> orders) {
+        if (!persistent) {
+            return;
+        }
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(orders.size() * 32);
+            DataOutputStream data = new DataOutputStream(bytes);
+            for (int i = 0; i < orders.size(); i++) {
+                data.writeInt(partition);
+                data.writeInt(firstOrdinal + i);
+                OrderCodec.writeString(data, orders.get(i).getBuyer());
+                OrderCodec.writeString(data, orders.get(i).getSeller());
+            }
+            try (OutputStream out = Files.newOutputStream(file,
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                bytes.writeTo(out);
+            }
+        } catch (IOException e) {
+            System.err.println("Errore durante il salvataggio dell'indice delle operazioni per utente: " + e.getMessage());
+            e.printStackTrace();
+            persistent = false;
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Growable array of positions, appended in log order.
+     */
+    private static class Positions {
+        private long[] values = new long[8];
+        private int size;
+
+        void add(long position) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = position;
+        }
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+        private long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+    }
+}
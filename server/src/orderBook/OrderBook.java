@@ -1,10 +1,14 @@
 package orderBook;
 
+import manager.OrderBookDelta;
 import manager.OrdersFileManager;
+import manager.PersistenceStage;
 import manager.UdpSessionManager;
 import orders.*;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class OrderBook {
     private TreeMap<Integer, LinkedHashSet<Integer>> bidsByPrice = new TreeMap<>(Collections.reverseOrder());
@@ -15,14 +19,19 @@ public class OrderBook {
     private Map<Integer, LimitOrder> bid;
     private Map<Integer, StopOrder> stopOrders = new HashMap<>();
     private Map<String, Set<Integer>> usersOrders = new HashMap<>();
+    private final Set<Integer> dirtyOrders = new LinkedHashSet<>();
     private int lastPrice = 0;
     private static final int GLOBAL_BTC_PRICE_TRIGGER = 10;
+    private static final long PERSISTENCE_SHUTDOWN_TIMEOUT_MS = 10000;
+    private final PersistenceStage persistenceStage = new PersistenceStage("orderbook-persistence");
+    private final ReentrantLock lock = new ReentrantLock();
 
     /**
      * Constructor. Initializes the OrderBook by loading existing orders from files.
      */
     public OrderBook() {
         loadAllOrders();
+        persistenceStage.submitOrderBook(bid, ask, Order.getNextOrderId());
     }
 
     /**
@@ -40,11 +49,8 @@ public class OrderBook {
         this.stopOrders = stopOrders;
         this.stopAsksByPrice = stopAsksByPrice;
         this.stopBidsByPrice = stopBidsByPrice;
-        OrderBookHelper.populatePriceBook(asks, asksByPrice);
-        OrderBookHelper.populatePriceBook(bids, bidsByPrice);
-
-        OrderBookHelper.populateUserOrders(ask, usersOrders);
-        OrderBookHelper.populateUserOrders(bid, usersOrders);
+        OrderBookHelper.populateIndexes(asks, bids, asksByPrice, bidsByPrice, usersOrders);
+        persistenceStage.submitOrderBook(bid, ask, Order.getNextOrderId());
     }
 
     /**
@@ -55,7 +61,8 @@ public class OrderBook {
      * @return The order ID if added, otherwise 100 -> OK.
      */
     public int addOrder(LimitOrder order) {
-        synchronized (this) {
+        lock.lock();
+        try {
             int remainingSize = matchOrder(order);
 
             checkAndActivateStopOrders(getLatestMarketPrice());
@@ -63,12 +70,14 @@ public class OrderBook {
             if (remainingSize > 0) {
                 order.setSize(remainingSize);
                 addToOrderBook(order);
-                OrdersFileManager.saveOrders(bid, ask);
+                persistOrders();
                 return order.getOrderID();
             }
 
-            OrdersFileManager.saveOrders(bid, ask);
+            persistOrders();
             return 100;
+        } finally {
+            lock.unlock();
         }
     }
 
@@ -94,7 +103,6 @@ public class OrderBook {
             addRemainingOrder(incomingOrder, sameBook, sameOrders, remainingSize);
         }
 
-        OrdersFileManager.saveOrders(bid, ask);
         return remainingSize;
     }
 
@@ -129,6 +137,7 @@ public class OrderBook {
                 saveExecution(incomingOrder, bookOrder, matchedSize, price);
 
                 remainingSize = OrderBookHelper.getRemainingSize(oppositeOrders, remainingSize, idIterator, orderId, bookOrder, matchedSize, usersOrders);
+                dirtyOrders.add(orderId);
             }
 
             if (entry.getValue().isEmpty()) {
@@ -186,7 +195,7 @@ public class OrderBook {
                 incomingOrder.getOrderType()
         );
         lastPrice = price;
-        OrdersFileManager.saveExecutedOrder(executed);
+        persistenceStage.submitExecutedOrder(executed);
         String buyerMessage = String.format("[%d]: You have Bought %d bitcoin at %d price each.",
                 incomingOrder.getOrderID(), matchedSize, price);
         UdpSessionManager.notifyTradeExecution(buyer, buyerMessage);
@@ -215,6 +224,7 @@ public class OrderBook {
 
         int orderId = incomingOrder.getOrderID();
         sameOrders.put(orderId, incomingOrder);
+        dirtyOrders.add(orderId);
 
         sameBook
                 .computeIfAbsent(incomingOrder.getPrice(), k -> new LinkedHashSet<>())
@@ -231,8 +241,13 @@ public class OrderBook {
      * @param bids The new map of bid orders.
      */
     public void setBids(Map<Integer, LimitOrder> bids) {
-        synchronized (this) {
+        lock.lock();
+        try {
+            dirtyOrders.addAll(this.bid.keySet());
+            dirtyOrders.addAll(bids.keySet());
             this.bid = bids;
+        } finally {
+            lock.unlock();
         }
     }
 
@@ -242,8 +257,13 @@ public class OrderBook {
      * @param asks The new map of ask orders.
      */
     public void setAsks(Map<Integer, LimitOrder> asks) {
-        synchronized (this) {
+        lock.lock();
+        try {
+            dirtyOrders.addAll(this.ask.keySet());
+            dirtyOrders.addAll(asks.keySet());
             this.ask = asks;
+        } finally {
+            lock.unlock();
         }
     }
 
@@ -260,6 +280,7 @@ public class OrderBook {
 
         int orderId = order.getOrderID();
         orderMap.put(orderId, order);
+        dirtyOrders.add(orderId);
 
         bookByPrice
                 .computeIfAbsent(order.getPrice(), k -> new LinkedHashSet<>())
@@ -278,8 +299,11 @@ public class OrderBook {
      * @return a Set of orderID.
      */
     public Set<Integer> getUserOrderIDs(String username) {
-        synchronized (this) {
+        lock.lock();
+        try {
             return OrderBookHelper.getUserOrderIDs(username, usersOrders);
+        } finally {
+            lock.unlock();
         }
     }
 
@@ -292,7 +316,8 @@ public class OrderBook {
      * @return 100 -> OK, 101 -> Error.
      */
     public int cancelOrder(String username, int orderId) {
-        synchronized (this) {
+        lock.lock();
+        try {
             if (!OrderBookHelper.isOrderPresent(username, orderId, usersOrders)) {
                 return 101;
             }
@@ -307,8 +332,11 @@ public class OrderBook {
             OrderBookHelper.removeFromOrderMap(orderId, isAsk, ask, bid);
             OrderBookHelper.removeFromPriceBook(order, isAsk, asksByPrice, bidsByPrice);
             OrderBookHelper.removeFromUserOrders(username, orderId, usersOrders);
-            OrdersFileManager.saveOrders(bid, ask);
+            dirtyOrders.add(orderId);
+            persistOrders();
             return 100;
+        } finally {
+            lock.unlock();
         }
     }
 
@@ -320,7 +348,8 @@ public class OrderBook {
      * @return true -> OK, false -> ERROR.
      */
     public boolean executeMarketOrder(MarketOrder marketOrder) {
-        synchronized (this) {
+        lock.lock();
+        try {
             boolean isAsk = marketOrder.getTypeAB() == TypeAB.ASK;
             TreeMap<Integer, LinkedHashSet<Integer>> oppositeBook = OrderBookHelper.getOppositeBook(isAsk, bidsByPrice, asksByPrice);
             Map<Integer, LimitOrder> oppositeOrders = OrderBookHelper.getOppositeOrders(isAsk, bid, ask);
@@ -339,9 +368,11 @@ public class OrderBook {
 
             processMatchingMarketOrder(marketOrder, oppositeBook, oppositeOrders);
 
-            OrdersFileManager.saveOrders(bid, ask);
+            persistOrders();
             checkAndActivateStopOrders(getLatestMarketPrice());
             return true;
+        } finally {
+            lock.unlock();
         }
     }
 
@@ -371,6 +402,7 @@ public class OrderBook {
                 saveExecution(marketOrder, bookOrder, matchedSize, entry.getKey());
 
                 remainingSize = OrderBookHelper.getRemainingSize(oppositeOrders, remainingSize, idIterator, orderId, bookOrder, matchedSize, usersOrders);
+                dirtyOrders.add(orderId);
             }
 
             if (entry.getValue().isEmpty()) {
@@ -417,7 +449,8 @@ public class OrderBook {
      * @return the order ID.
      */
     public int addStopOrder(StopOrder order) {
-        synchronized (this) {
+        lock.lock();
+        try {
             stopOrders.put(order.getOrderID(), order);
 
             int stopPrice = order.getLimitPrice();
@@ -427,10 +460,12 @@ public class OrderBook {
                 stopBidsByPrice.computeIfAbsent(stopPrice, k -> new ArrayList<>()).add(order.getOrderID());
             }
             usersOrders.computeIfAbsent(order.getUsername(), k -> new HashSet<>()).add(order.getOrderID());
-            OrdersFileManager.saveStopOrders(this.stopOrders);
+            persistenceStage.submitStopOrders(this.stopOrders);
 
             System.out.println("Stop Order added: " + order);
             return order.getOrderID();
+        } finally {
+            lock.unlock();
         }
     }
 
@@ -446,7 +481,7 @@ public class OrderBook {
         processActivatedStopOrders(stopSellToActivate, currentMarketPrice);
         processActivatedStopOrders(stopBuyToActivate, currentMarketPrice);
         if (!stopSellToActivate.isEmpty() || !stopBuyToActivate.isEmpty()) {
-            OrdersFileManager.saveStopOrders(this.stopOrders);
+            persistenceStage.submitStopOrders(this.stopOrders);
         }
     }
 
@@ -528,19 +563,22 @@ public class OrderBook {
 
     /**
      * Loads all existing limit and stop orders from file storage into the OrderBook.
+     * The order book, the stop orders and the trade checkpoint are read concurrently; the limit order indexes
+     * are then built in parallel while the stop orders may still be loading.
      * This method should ideally be called only once during initialization of the OrderBook.
      */
     private void loadAllOrders() {
-        Map<String, Map<Integer, LimitOrder>> loadedLimitOrders = OrdersFileManager.loadOrdersFromOrderBook();
+        CompletableFuture<Map<String, Map<Integer, LimitOrder>>> limitOrdersLoad = CompletableFuture.supplyAsync(OrdersFileManager::loadOrdersFromOrderBook);
+        CompletableFuture<Map<Integer, StopOrder>> stopOrdersLoad = CompletableFuture.supplyAsync(OrdersFileManager::loadStopOrders);
+        CompletableFuture<Integer> lastPriceLoad = CompletableFuture.supplyAsync(OrdersFileManager::loadLastExecutedPrice);
+
+        Map<String, Map<Integer, LimitOrder>> loadedLimitOrders = limitOrdersLoad.join();
         this.ask = loadedLimitOrders.get("asks");
         this.bid = loadedLimitOrders.get("bids");
 
-        OrderBookHelper.populatePriceBook(this.ask, this.asksByPrice);
-        OrderBookHelper.populatePriceBook(this.bid, this.bidsByPrice);
+        OrderBookHelper.populateIndexes(this.ask, this.bid, this.asksByPrice, this.bidsByPrice, this.usersOrders);
 
-        OrderBookHelper.populateUserOrders(this.ask, this.usersOrders);
-        OrderBookHelper.populateUserOrders(this.bid, this.usersOrders);
-        Map<Integer, StopOrder> loadedStopOrders = OrdersFileManager.loadStopOrders();
+        Map<Integer, StopOrder> loadedStopOrders = stopOrdersLoad.join();
         if (loadedStopOrders != null && !loadedStopOrders.isEmpty()) {
             this.stopOrders.putAll(loadedStopOrders);
 
@@ -554,10 +592,67 @@ public class OrderBook {
                 this.usersOrders.computeIfAbsent(order.getUsername(), k -> new HashSet<>()).add(order.getOrderID());
             }
         }
-        List<ExecutedOrder> executed = OrdersFileManager.loadExecutedOrders();
-        if (!executed.isEmpty()) {
-            this.lastPrice = executed.get(executed.size() - 1).getPrice();
+        int maxOrderId = -1;
+        for (Map<Integer, ? extends Order> orders : List.of(this.ask, this.bid, this.stopOrders)) {
+            for (Integer orderId : orders.keySet()) {
+                maxOrderId = Math.max(maxOrderId, orderId);
+            }
+        }
+        if (Order.getNextOrderId() <= maxOrderId) {
+            Order.setNextOrderId(maxOrderId + 1);
         }
+
+        Integer lastExecutedPrice = lastPriceLoad.join();
+        if (lastExecutedPrice != null) {
+            this.lastPrice = lastExecutedPrice;
+        }
+    }
+
+    /**
+     * Hands the limit orders inserted, modified or removed since the last call to the persistence stage.
+     * Must be called while holding the order book lock.
+     */
+    private void persistOrders() {
+        List<LimitOrder> upserts = new ArrayList<>();
+        List<Integer> removed = new ArrayList<>();
+        for (Integer orderId : dirtyOrders) {
+            LimitOrder order = OrderBookHelper.getOrderById(orderId, ask, bid);
+            if (order != null) {
+                upserts.add(new LimitOrder(order));
+            } else {
+                removed.add(orderId);
+            }
+        }
+        dirtyOrders.clear();
+        persistenceStage.submitOrderBookDelta(new OrderBookDelta(Order.getNextOrderId(), upserts, removed));
+    }
+
+    /**
+     * Returns the highest persistence sequence number whose changes are on disk.
+     * This is a read-only operation.
+     *
+     * @return the durable sequence number.
+     */
+    public long getDurableSequence() {
+        return persistenceStage.getDurableSequence();
+    }
+
+    /**
+     * Returns the sequence number of the last change handed to the persistence stage.
+     * This is a read-only operation.
+     *
+     * @return the last submitted sequence number.
+     */
+    public long getLastSubmittedSequence() {
+        return persistenceStage.getLastSubmittedSequence();
+    }
+
+    /**
+     * Writes every pending change to disk and stops the persistence stage.
+     * Should be called once, when the server is shutting down.
+     */
+    public void shutdownPersistence() {
+        persistenceStage.shutdown(PERSISTENCE_SHUTDOWN_TIMEOUT_MS);
     }
 
     /**
@@ -5,6 +5,8 @@ import orders.StopOrder;
 import orders.TypeAB;
 
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 public class OrderBookHelper {
 
@@ -39,6 +41,42 @@ public class OrderBookHelper {
         }
     }
 
+    /**
+     * Builds the price and user indexes of both sides in parallel on the common fork/join pool:
+     * one task per side and per index. The user indexes of the two sides are built separately and then merged,
+     * so no task writes to a map shared with another task.
+     *
+     * @param asks        The ask orders.
+     * @param bids        The bid orders.
+     * @param asksByPrice The ask price index to populate.
+     * @param bidsByPrice The bid price index to populate.
+     * @param usersOrders The Map of user orders to populate.
+     */
+    public static void populateIndexes(Map<Integer, LimitOrder> asks, Map<Integer, LimitOrder> bids,
+                                       TreeMap<Integer, LinkedHashSet<Integer>> asksByPrice,
+                                       TreeMap<Integer, LinkedHashSet<Integer>> bidsByPrice,
+                                       Map<String, Set<Integer>> usersOrders) {
+        Map<String, Set<Integer>> askUsers = new HashMap<>();
+        Map<String, Set<Integer>> bidUsers = new HashMap<>();
+        ForkJoinPool.commonPool().invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(
+                ForkJoinTask.adapt(() -> populatePriceBook(asks, asksByPrice)),
+                ForkJoinTask.adapt(() -> populatePriceBook(bids, bidsByPrice)),
+                ForkJoinTask.adapt(() -> populateUserOrders(asks, askUsers)),
+                ForkJoinTask.adapt(() -> populateUserOrders(bids, bidUsers))
+        )));
+        mergeUserOrders(askUsers, usersOrders);
+        mergeUserOrders(bidUsers, usersOrders);
+    }
+
+    private static void mergeUserOrders(Map<String, Set<Integer>> from, Map<String, Set<Integer>> usersOrders) {
+        for (Map.Entry<String, Set<Integer>> entry : from.entrySet()) {
+            Set<Integer> orders = usersOrders.putIfAbsent(entry.getKey(), entry.getValue());
+            if (orders != null) {
+                orders.addAll(entry.getValue());
+            }
+        }
+    }
+
     /**
      * Looks for all the orders of a user.
      *
@@ -1,7 +1,5 @@
 package orders;
 
-import com.fasterxml.jackson.annotation.JsonProperty;
-
 public class LimitOrder extends Order {
     int limitPrice;
 
@@ -17,6 +15,19 @@ public class LimitOrder extends Order {
         this.setOrderType(OrderType.valueOf("LIMIT"));
     }
 
+    /**
+     * Restores a persisted limit order with its original ID.
+     */
+    public LimitOrder(int orderID, TypeAB typeAB, int size, int price, long timestamp, String username, int limitPrice) {
+        super(orderID, typeAB, OrderType.LIMIT, size, price, timestamp, username);
+        this.limitPrice = limitPrice;
+    }
+
+    public LimitOrder(LimitOrder other) {
+        super(other);
+        this.limitPrice = other.limitPrice;
+    }
+
     public int getLimitPrice() {
         return limitPrice;
     }
@@ -1,7 +1,9 @@
 package orders;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 public abstract class Order {
-    private static int nextOrderId = 0;
+    private static final AtomicInteger nextOrderId = new AtomicInteger();
 
     private final int orderID;
     private TypeAB typeAB;
@@ -22,7 +24,7 @@ public abstract class Order {
      * @param timestamp Data creazione dell'ordine
      */
     public Order(TypeAB typeAB, OrderType orderType, int size, int price, long timestamp, String username) {
-        this.orderID = nextOrderId++;
+        this.orderID = nextOrderId.getAndIncrement();
         this.typeAB = typeAB;
         this.OrderType = orderType;
         this.size = size;
@@ -32,7 +34,7 @@ public abstract class Order {
     }
 
     public Order() {
-        this.orderID = nextOrderId++;
+        this.orderID = nextOrderId.getAndIncrement();
         this.typeAB = null;
         this.OrderType = null;
         this.size = 0;
@@ -41,6 +43,42 @@ public abstract class Order {
         this.username = "";
     }
 
+    /**
+     * Restores a persisted order with its original ID, without consuming a new one.
+     *
+     * @param orderID   the persisted order ID
+     * @param typeAB    ASK or BID
+     * @param orderType the order type
+     * @param size      number of coins
+     * @param price     price per coin
+     * @param timestamp creation time of the order
+     * @param username  owner of the order
+     */
+    protected Order(int orderID, TypeAB typeAB, OrderType orderType, int size, int price, long timestamp, String username) {
+        this.orderID = orderID;
+        this.typeAB = typeAB;
+        this.OrderType = orderType;
+        this.size = size;
+        this.price = price;
+        this.timestamp = timestamp;
+        this.username = username;
+    }
+
+    /**
+     * Copy constructor, keeps the original order ID without consuming a new one.
+     *
+     * @param other the order to copy
+     */
+    protected Order(Order other) {
+        this.orderID = other.orderID;
+        this.typeAB = other.typeAB;
+        this.OrderType = other.OrderType;
+        this.size = other.size;
+        this.price = other.price;
+        this.timestamp = other.timestamp;
+        this.username = other.username;
+    }
+
     /**
      * Restituisce l'identificatore univoco dell'ordine.
      *
@@ -124,15 +162,15 @@ public abstract class Order {
     }
 
     public static void setNextOrderId(int nextId) {
-        nextOrderId = nextId;
+        nextOrderId.set(nextId);
     }
 
     public static int getNextOrderId() {
-        return nextOrderId;
+        return nextOrderId.get();
     }
 
     public static void incrementNextOrderId() {
-        nextOrderId++;
+        nextOrderId.incrementAndGet();
     }
 
 }
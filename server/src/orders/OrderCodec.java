@@ -0,0 +1,447 @@
+package orders;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Hand-written codecs for limit, stop and executed orders, without reflective data binding.
+ * The JSON forms have the same field names and order that Jackson data binding produced, so existing files stay
+ * readable and written files stay readable by older versions; unknown fields are skipped.
+ * Orders are restored with their persisted ID, so loading them does not consume order IDs.
+ * The binary forms are compact fixed layouts for DataOutput/DataInput.
+ */
+public final class OrderCodec {
+    private static final TypeAB[] TYPES_AB = TypeAB.values();
+    private static final OrderType[] ORDER_TYPES = OrderType.values();
+
+    private OrderCodec() {
+    }
+
+    /**
+     * Writes a limit order as a JSON object.
+     *
+     * @param generator the JSON generator.
+     * @param order     the order.
+     * @throws IOException if the generator fails.
+     */
+    public static void writeLimitOrder(JsonGenerator generator, LimitOrder order) throws IOException {
+        generator.writeStartObject();
+        writeOrderFields(generator, order);
+        generator.writeNumberField("limitPrice", order.getLimitPrice());
+        writeEnumField(generator, "orderType", order.getOrderType());
+        generator.writeEndObject();
+    }
+
+    /**
+     * Reads a limit order from the JSON object the parser is positioned on.
+     * On return the parser is on the END_OBJECT token of the order.
+     *
+     * @param parser the JSON parser, positioned on START_OBJECT.
+     * @return the order, with its persisted ID.
+     * @throws IOException if the input is not a valid order object.
+     */
+    public static LimitOrder readLimitOrder(JsonParser parser) throws IOException {
+        OrderFields fields = readOrderFields(parser);
+        LimitOrder order = new LimitOrder(fields.orderID, fields.typeAB, fields.size, fields.price, fields.timestamp, fields.username, fields.limitPrice);
+        if (fields.orderType != null) {
+            order.setOrderType(fields.orderType);
+        }
+        return order;
+    }
+
+    /**
+     * Writes a stop order as a JSON object.
+     *
+     * @param generator the JSON generator.
+     * @param order     the order.
+     * @throws IOException if the generator fails.
+     */
+    public static void writeStopOrder(JsonGenerator generator, StopOrder order) throws IOException {
+        generator.writeStartObject();
+        writeOrderFields(generator, order);
+        generator.writeNumberField("limitPrice", order.getLimitPrice());
+        writeEnumField(generator, "orderType", order.getOrderType());
+        generator.writeEndObject();
+    }
+
+    /**
+     * Reads a stop order from the JSON object the parser is positioned on.
+     * On return the parser is on the END_OBJECT token of the order.
+     *
+     * @param parser the JSON parser, positioned on START_OBJECT.
+     * @return the order, with its persisted ID.
+     * @throws IOException if the input is not a valid order object.
+     */
+    public static StopOrder readStopOrder(JsonParser parser) throws IOException {
+        OrderFields fields = readOrderFields(parser);
+        return new StopOrder(fields.orderID, fields.typeAB, fields.orderType, fields.size, fields.price, fields.timestamp, fields.limitPrice, fields.username);
+    }
+
+    /**
+     * Writes a map of limit orders as a JSON object keyed by order ID.
+     *
+     * @param generator the JSON generator.
+     * @param orders    the orders.
+     * @throws IOException if the generator fails.
+     */
+    public static void writeLimitOrders(JsonGenerator generator, Map<Integer, LimitOrder> orders) throws IOException {
+        generator.writeStartObject();
+        for (Map.Entry<Integer, LimitOrder> entry : orders.entrySet()) {
+            generator.writeFieldName(String.valueOf(entry.getKey()));
+            writeLimitOrder(generator, entry.getValue());
+        }
+        generator.writeEndObject();
+    }
+
+    /**
+     * Reads a JSON object of limit orders keyed by order ID.
+     *
+     * @param parser the JSON parser, positioned on START_OBJECT or on a null value.
+     * @return the orders; empty for a null value.
+     * @throws IOException if the input is not a valid object of orders.
+     */
+    public static Map<Integer, LimitOrder> readLimitOrders(JsonParser parser) throws IOException {
+        Map<Integer, LimitOrder> orders = new HashMap<>();
+        if (parser.currentToken() == JsonToken.VALUE_NULL) {
+            return orders;
+        }
+        expect(parser, JsonToken.START_OBJECT);
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            int orderId = Integer.parseInt(parser.currentName());
+            parser.nextToken();
+            orders.put(orderId, readLimitOrder(parser));
+        }
+        return orders;
+    }
+
+    /**
+     * Writes a map of stop orders as a JSON object keyed by order ID.
+     *
+     * @param generator the JSON generator.
+     * @param orders    the orders.
+     * @throws IOException if the generator fails.
+     */
+    public static void writeStopOrders(JsonGenerator generator, Map<Integer, StopOrder> orders) throws IOException {
+        generator.writeStartObject();
+        for (Map.Entry<Integer, StopOrder> entry : orders.entrySet()) {
+            generator.writeFieldName(String.valueOf(entry.getKey()));
+            writeStopOrder(generator, entry.getValue());
+        }
+        generator.writeEndObject();
+    }
+
+    /**
+     * Reads a JSON object of stop orders keyed by order ID.
+     *
+     * @param parser the JSON parser, positioned on START_OBJECT or on a null value.
+     * @return the orders; empty for a null value.
+     * @throws IOException if the input is not a valid object of orders.
+     */
+    public static Map<Integer, StopOrder> readStopOrders(JsonParser parser) throws IOException {
+        Map<Integer, StopOrder> orders = new HashMap<>();
+        if (parser.currentToken() == JsonToken.VALUE_NULL) {
+            return orders;
+        }
+        expect(parser, JsonToken.START_OBJECT);
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            int orderId = Integer.parseInt(parser.currentName());
+            parser.nextToken();
+            orders.put(orderId, readStopOrder(parser));
+        }
+        return orders;
+    }
+
+    /**
+     * Writes an executed order as a JSON object.
+     *
+     * @param generator the JSON generator.
+     * @param order     the executed order.
+     * @throws IOException if the generator fails.
+     */
+    public static void writeExecutedOrder(JsonGenerator generator, ExecutedOrder order) throws IOException {
+        generator.writeStartObject();
+        generator.writeNumberField("orderID", order.getOrderID());
+        generator.writeStringField("buyer", order.getBuyer());
+        generator.writeStringField("seller", order.getSeller());
+        generator.writeNumberField("size", order.getSize());
+        generator.writeNumberField("price", order.getPrice());
+        generator.writeNumberField("timestamp", order.getTimestamp());
+        writeEnumField(generator, "orderType", order.getOrderType());
+        generator.writeEndObject();
+    }
+
+    /**
+     * Reads an executed order from the JSON object the parser is positioned on.
+     * On return the parser is on the END_OBJECT token of the order.
+     *
+     * @param parser the JSON parser, positioned on START_OBJECT.
+     * @return the executed order.
+     * @throws IOException if the input is not a valid executed order object.
+     */
+    public static ExecutedOrder readExecutedOrder(JsonParser parser) throws IOException {
+        expect(parser, JsonToken.START_OBJECT);
+        ExecutedOrder order = new ExecutedOrder();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            parser.nextToken();
+            switch (field) {
+                case "orderID":
+                    order.setOrderId(parser.getIntValue());
+                    break;
+                case "buyer":
+                    order.setBuyer(parser.getValueAsString());
+                    break;
+                case "seller":
+                    order.setSeller(parser.getValueAsString());
+                    break;
+                case "size":
+                    order.setSize(parser.getIntValue());
+                    break;
+                case "price":
+                    order.setPrice(parser.getIntValue());
+                    break;
+                case "timestamp":
+                    order.setTimestamp(parser.getLongValue());
+                    break;
+                case "orderType":
+                    order.setOrderType(readEnum(parser, OrderType.class));
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+        return order;
+    }
+
+    /**
+     * Writes a limit order in binary form.
+     *
+     * @param out   the output.
+     * @param order the order.
+     * @throws IOException if the output fails.
+     */
+    public static void writeLimitOrder(DataOutput out, LimitOrder order) throws IOException {
+        writeOrderFields(out, order);
+        out.writeInt(order.getLimitPrice());
+    }
+
+    /**
+     * Reads a limit order written by writeLimitOrder(DataOutput, LimitOrder).
+     *
+     * @param in the input.
+     * @return the order, with its persisted ID.
+     * @throws IOException if the input fails or ends early.
+     */
+    public static LimitOrder readLimitOrder(DataInput in) throws IOException {
+        OrderFields fields = readOrderFields(in);
+        fields.limitPrice = in.readInt();
+        LimitOrder order = new LimitOrder(fields.orderID, fields.typeAB, fields.size, fields.price, fields.timestamp, fields.username, fields.limitPrice);
+        if (fields.orderType != null) {
+            order.setOrderType(fields.orderType);
+        }
+        return order;
+    }
+
+    /**
+     * Writes a stop order in binary form.
+     *
+     * @param out   the output.
+     * @param order the order.
+     * @throws IOException if the output fails.
+     */
+    public static void writeStopOrder(DataOutput out, StopOrder order) throws IOException {
+        writeOrderFields(out, order);
+        out.writeInt(order.getLimitPrice());
+    }
+
+    /**
+     * Reads a stop order written by writeStopOrder(DataOutput, StopOrder).
+     *
+     * @param in the input.
+     * @return the order, with its persisted ID.
+     * @throws IOException if the input fails or ends early.
+     */
+    public static StopOrder readStopOrder(DataInput in) throws IOException {
+        OrderFields fields = readOrderFields(in);
+        fields.limitPrice = in.readInt();
+        return new StopOrder(fields.orderID, fields.typeAB, fields.orderType, fields.size, fields.price, fields.timestamp, fields.limitPrice, fields.username);
+    }
+
+    /**
+     * Writes an executed order in binary form.
+     *
+     * @param out   the output.
+     * @param order the executed order.
+     * @throws IOException if the output fails.
+     */
+    public static void writeExecutedOrder(DataOutput out, ExecutedOrder order) throws IOException {
+        out.writeInt(order.getOrderID());
+        writeString(out, order.getBuyer());
+        writeString(out, order.getSeller());
+        out.writeInt(order.getSize());
+        out.writeInt(order.getPrice());
+        out.writeLong(order.getTimestamp());
+        out.writeByte(order.getOrderType() != null ? order.getOrderType().ordinal() + 1 : 0);
+    }
+
+    /**
+     * Reads an executed order written by writeExecutedOrder(DataOutput, ExecutedOrder).
+     *
+     * @param in the input.
+     * @return the executed order.
+     * @throws IOException if the input fails or ends early.
+     */
+    public static ExecutedOrder readExecutedOrder(DataInput in) throws IOException {
+        int orderId = in.readInt();
+        String buyer = readString(in);
+        String seller = readString(in);
+        int size = in.readInt();
+        int price = in.readInt();
+        long timestamp = in.readLong();
+        int orderType = in.readUnsignedByte();
+        return new ExecutedOrder(orderId, buyer, seller, size, price, timestamp, orderType > 0 ? ORDER_TYPES[orderType - 1] : null);
+    }
+
+    /**
+     * Writes a string that may be null.
+     *
+     * @param out   the output.
+     * @param value the string, or null.
+     * @throws IOException if the output fails.
+     */
+    public static void writeString(DataOutput out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    /**
+     * Reads a string written by writeString.
+     *
+     * @param in the input.
+     * @return the string, or null.
+     * @throws IOException if the input fails or ends early.
+     */
+    public static String readString(DataInput in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeOrderFields(JsonGenerator generator, Order order) throws IOException {
+        generator.writeNumberField("orderID", order.getOrderID());
+        writeEnumField(generator, "typeAB", order.getTypeAB());
+        generator.writeNumberField("size", order.getSize());
+        generator.writeNumberField("price", order.getPrice());
+        generator.writeNumberField("timestamp", order.getTimestamp());
+        generator.writeStringField("username", order.getUsername());
+    }
+
+    private static OrderFields readOrderFields(JsonParser parser) throws IOException {
+        expect(parser, JsonToken.START_OBJECT);
+        OrderFields fields = new OrderFields();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            parser.nextToken();
+            switch (field) {
+                case "orderID":
+                    fields.orderID = parser.getIntValue();
+                    break;
+                case "typeAB":
+                    fields.typeAB = readEnum(parser, TypeAB.class);
+                    break;
+                case "orderType":
+                    fields.orderType = readEnum(parser, OrderType.class);
+                    break;
+                case "size":
+                    fields.size = parser.getIntValue();
+                    break;
+                case "price":
+                    fields.price = parser.getIntValue();
+                    break;
+                case "timestamp":
+                    fields.timestamp = parser.getLongValue();
+                    break;
+                case "username":
+                    fields.username = parser.getValueAsString();
+                    break;
+                case "limitPrice":
+                    fields.limitPrice = parser.getIntValue();
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+        return fields;
+    }
+
+    private static void writeOrderFields(DataOutput out, Order order) throws IOException {
+        out.writeInt(order.getOrderID());
+        out.writeByte(order.getTypeAB() != null ? order.getTypeAB().ordinal() + 1 : 0);
+        out.writeByte(order.getOrderType() != null ? order.getOrderType().ordinal() + 1 : 0);
+        out.writeInt(order.getSize());
+        out.writeInt(order.getPrice());
+        out.writeLong(order.getTimestamp());
+        writeString(out, order.getUsername());
+    }
+
+    private static OrderFields readOrderFields(DataInput in) throws IOException {
+        OrderFields fields = new OrderFields();
+        fields.orderID = in.readInt();
+        int typeAB = in.readUnsignedByte();
+        fields.typeAB = typeAB > 0 ? TYPES_AB[typeAB - 1] : null;
+        int orderType = in.readUnsignedByte();
+        fields.orderType = orderType > 0 ? ORDER_TYPES[orderType - 1] : null;
+        fields.size = in.readInt();
+        fields.price = in.readInt();
+        fields.timestamp = in.readLong();
+        fields.username = readString(in);
+        return fields;
+    }
+
+    private static void writeEnumField(JsonGenerator generator, String name, Enum<?> value) throws IOException {
+        if (value != null) {
+            generator.writeStringField(name, value.name());
+        } else {
+            generator.writeNullField(name);
+        }
+    }
+
+    private static <E extends Enum<E>> E readEnum(JsonParser parser, Class<E> type) throws IOException {
+        String value = parser.getValueAsString();
+        if (value == null) {
+            return null;
+        }
+        try {
+            return Enum.valueOf(type, value);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Unknown " + type.getSimpleName() + " " + value + " at " + parser.currentLocation());
+        }
+    }
+
+    private static void expect(JsonParser parser, JsonToken token) throws IOException {
+        if (parser.currentToken() != token) {
+            throw new IOException("Expected " + token + " but found " + parser.currentToken() + " at " + parser.currentLocation());
+        }
+    }
+
+    /**
+     * The fields shared by limit and stop orders, collected while parsing.
+     */
+    private static class OrderFields {
+        int orderID;
+        TypeAB typeAB;
+        OrderType orderType;
+        int size;
+        int price;
+        long timestamp;
+        String username = "";
+        int limitPrice;
+    }
+}
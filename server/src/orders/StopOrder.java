@@ -11,6 +11,19 @@ public class StopOrder extends Order {
     public StopOrder() {
     }
 
+    /**
+     * Restores a persisted stop order with its original ID.
+     */
+    public StopOrder(int orderID, TypeAB typeAB, OrderType ordertype, int size, int price, long timestamp, int limitPrice, String username) {
+        super(orderID, typeAB, ordertype, size, price, timestamp, username);
+        this.limitPrice = limitPrice;
+    }
+
+    public StopOrder(StopOrder other) {
+        super(other);
+        this.limitPrice = other.limitPrice;
+    }
+
     public int getLimitPrice() {
         return limitPrice;
     }
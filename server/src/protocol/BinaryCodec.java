@@ -0,0 +1,337 @@
+package protocol;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Binary framing of the client protocol, shared by client and server.
+ * A client opts in by sending the HANDSHAKE line as its first command and waiting for the reply: 100 means the
+ * server switched the connection to binary frames, anything else that it only speaks text.
+ * A frame is a big-endian int giving the length of the rest, a type byte, a correlation ID and the fields. The
+ * client picks the ID of each request and the server copies it into the reply, so a client can pipeline requests
+ * and match the replies whatever order they come back in.
+ * The order commands and their RESULT reply have fixed layouts of ints, so encoding and decoding them allocates
+ * nothing and parses no text. The other commands travel as COMMAND frames carrying the text command's name and
+ * argument lines, each a length-prefixed UTF-8 string, and are answered with a TEXT frame carrying the text
+ * protocol's reply.
+ */
+public final class BinaryCodec {
+    /**
+     * Text line switching a connection to binary frames.
+     */
+    public static final String HANDSHAKE = "BINARY";
+    /**
+     * Longest frame a server accepts, length prefix included. Replies may be longer.
+     */
+    public static final int MAX_REQUEST_LENGTH = 8192;
+    /**
+     * Longest reply frame a client accepts, length prefix included.
+     */
+    public static final int MAX_REPLY_LENGTH = 16 << 20;
+
+    /**
+     * side, size.
+     */
+    public static final byte MARKET_ORDER = 1;
+    /**
+     * side, size, limit price.
+     */
+    public static final byte LIMIT_ORDER = 2;
+    /**
+     * side, size, stop price.
+     */
+    public static final byte STOP_ORDER = 3;
+    /**
+     * order ID.
+     */
+    public static final byte CANCEL = 4;
+    /**
+     * command name, argument count (one byte), arguments.
+     */
+    public static final byte COMMAND = 16;
+    /**
+     * result code, the reply to an order.
+     */
+    public static final byte RESULT = 64;
+    /**
+     * UTF-8 text up to the end of the frame, a text protocol reply.
+     */
+    public static final byte TEXT = 65;
+
+    private static final int PREFIX_LENGTH = 4;
+    private static final int HEADER_LENGTH = PREFIX_LENGTH + 1 + 4;
+    private static final int MAX_STRING_LENGTH = 0xFFFF;
+
+    private BinaryCodec() {
+    }
+
+    public static void encodeMarketOrder(ByteBuffer out, int correlationId, int side, int size) {
+        header(out, MARKET_ORDER, correlationId, 8);
+        out.putInt(side);
+        out.putInt(size);
+    }
+
+    public static void encodeLimitOrder(ByteBuffer out, int correlationId, int side, int size, int price) {
+        header(out, LIMIT_ORDER, correlationId, 12);
+        out.putInt(side);
+        out.putInt(size);
+        out.putInt(price);
+    }
+
+    public static void encodeStopOrder(ByteBuffer out, int correlationId, int side, int size, int price) {
+        header(out, STOP_ORDER, correlationId, 12);
+        out.putInt(side);
+        out.putInt(size);
+        out.putInt(price);
+    }
+
+    public static void encodeCancel(ByteBuffer out, int correlationId, int orderId) {
+        header(out, CANCEL, correlationId, 4);
+        out.putInt(orderId);
+    }
+
+    public static void encodeResult(ByteBuffer out, int correlationId, int code) {
+        header(out, RESULT, correlationId, 4);
+        out.putInt(code);
+    }
+
+    /**
+     * Writes a COMMAND frame.
+     *
+     * @param out           the buffer to write to.
+     * @param correlationId the request's ID.
+     * @param command       the text command's name.
+     * @param args          its argument lines, at most 255.
+     */
+    public static void encodeCommand(ByteBuffer out, int correlationId, String command, String... args) {
+        if (args.length > 0xFF) {
+            throw new IllegalArgumentException("Too many arguments: " + args.length);
+        }
+        int length = 2 + utf8Length(command) + 1;
+        for (String arg : args) {
+            length += 2 + utf8Length(arg);
+        }
+        header(out, COMMAND, correlationId, length);
+        putString(out, command);
+        out.put((byte) args.length);
+        for (String arg : args) {
+            putString(out, arg);
+        }
+    }
+
+    /**
+     * Writes a TEXT frame.
+     *
+     * @param out           the buffer to write to, with at least textFrameLength(text) bytes left.
+     * @param correlationId the ID of the request answered.
+     * @param text          the reply text.
+     */
+    public static void encodeText(ByteBuffer out, int correlationId, CharSequence text) {
+        header(out, TEXT, correlationId, utf8Length(text));
+        putUtf8(out, text);
+    }
+
+    /**
+     * @param text the reply text.
+     * @return the length of its TEXT frame, length prefix included.
+     */
+    public static int textFrameLength(CharSequence text) {
+        return HEADER_LENGTH + utf8Length(text);
+    }
+
+    /**
+     * Decodes the frame at the buffer's position, if the buffer holds all of it.
+     *
+     * @param in        the buffer, in read mode.
+     * @param maxLength the longest frame accepted, length prefix included.
+     * @param message   the message to overwrite with the frame's content.
+     * @return true if a frame was decoded and the buffer advanced past it, false if the frame is incomplete and the
+     * buffer was left unchanged.
+     * @throws ProtocolException if the frame is too long, of an unknown type or does not match its type's layout.
+     */
+    public static boolean decode(ByteBuffer in, int maxLength, Message message) throws ProtocolException {
+        if (in.remaining() < PREFIX_LENGTH) {
+            return false;
+        }
+        int start = in.position();
+        int length = in.getInt(start);
+        checkLength(length, maxLength);
+        if (in.remaining() < PREFIX_LENGTH + length) {
+            return false;
+        }
+        int end = start + PREFIX_LENGTH + length;
+        int limit = in.limit();
+        in.limit(end);
+        in.position(start + PREFIX_LENGTH);
+        try {
+            byte type = in.get();
+            message.setCorrelationId(in.getInt());
+            switch (type) {
+                case MARKET_ORDER:
+                    message.setType(type, "MARKET_ORDER");
+                    message.setOrder(in.getInt(), in.getInt(), 0);
+                    break;
+                case LIMIT_ORDER:
+                    message.setType(type, "LIMIT_ORDER");
+                    message.setOrder(in.getInt(), in.getInt(), in.getInt());
+                    break;
+                case STOP_ORDER:
+                    message.setType(type, "STOP_ORDER");
+                    message.setOrder(in.getInt(), in.getInt(), in.getInt());
+                    break;
+                case CANCEL:
+                    message.setType(type, "CANCEL");
+                    message.setOrderId(in.getInt());
+                    break;
+                case RESULT:
+                    message.setType(type, null);
+                    message.setCode(in.getInt());
+                    break;
+                case COMMAND:
+                    message.setType(type, getString(in, in.getShort() & 0xFFFF));
+                    String[] args = new String[in.get() & 0xFF];
+                    for (int i = 0; i < args.length; i++) {
+                        args[i] = getString(in, in.getShort() & 0xFFFF);
+                    }
+                    message.setArgs(args);
+                    break;
+                case TEXT:
+                    message.setType(type, null);
+                    message.setText(getString(in, in.remaining()));
+                    break;
+                default:
+                    throw new ProtocolException("Unknown frame type " + type);
+            }
+            if (in.hasRemaining()) {
+                throw new ProtocolException("Frame of type " + type + " longer than its fields");
+            }
+        } catch (BufferUnderflowException e) {
+            throw new ProtocolException("Frame shorter than its fields");
+        } finally {
+            in.limit(limit);
+        }
+        in.position(end);
+        return true;
+    }
+
+    /**
+     * Reads one frame from a stream.
+     *
+     * @param in        the stream.
+     * @param buffer    a heap buffer to read the frame into.
+     * @param maxLength the longest frame accepted, length prefix included.
+     * @return the buffer holding the frame in read mode: the given one, or a larger one if the frame did not fit.
+     * Null if the stream ended before the frame started.
+     * @throws IOException if the stream fails or ends within the frame, or the frame is too long.
+     */
+    public static ByteBuffer readFrame(DataInputStream in, ByteBuffer buffer, int maxLength) throws IOException {
+        int first = in.read();
+        if (first < 0) {
+            return null;
+        }
+        int length = first << 24 | in.readUnsignedByte() << 16 | in.readUnsignedByte() << 8 | in.readUnsignedByte();
+        checkLength(length, maxLength);
+        int total = PREFIX_LENGTH + length;
+        if (buffer.capacity() < total) {
+            buffer = ByteBuffer.allocate(Math.min(maxLength, Math.max(total, buffer.capacity() * 2)));
+        }
+        buffer.clear();
+        buffer.putInt(length);
+        in.readFully(buffer.array(), buffer.arrayOffset() + PREFIX_LENGTH, length);
+        buffer.limit(total);
+        buffer.position(0);
+        return buffer;
+    }
+
+    private static void checkLength(int length, int maxLength) throws ProtocolException {
+        if (length < 1 || length > maxLength - PREFIX_LENGTH) {
+            throw new ProtocolException("Frame length " + length + " out of range");
+        }
+    }
+
+    private static void header(ByteBuffer out, byte type, int correlationId, int fieldsLength) {
+        out.putInt(HEADER_LENGTH - PREFIX_LENGTH + fieldsLength);
+        out.put(type);
+        out.putInt(correlationId);
+    }
+
+    private static void putString(ByteBuffer out, String value) {
+        int length = utf8Length(value);
+        if (length > MAX_STRING_LENGTH) {
+            throw new IllegalArgumentException("String too long: " + length + " bytes");
+        }
+        out.putShort((short) length);
+        putUtf8(out, value);
+    }
+
+    private static String getString(ByteBuffer in, int length) {
+        if (in.remaining() < length) {
+            throw new BufferUnderflowException();
+        }
+        String value;
+        if (in.hasArray()) {
+            value = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+            in.position(in.position() + length);
+        } else {
+            byte[] bytes = new byte[length];
+            in.get(bytes);
+            value = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return value;
+    }
+
+    /**
+     * @return the length of the text in UTF-8, as putUtf8 writes it.
+     */
+    private static int utf8Length(CharSequence text) {
+        int length = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < text.length() && Character.isLowSurrogate(text.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                length++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Writes the text in UTF-8 without an intermediate byte array. Unpaired surrogates become '?', as in
+     * String.getBytes.
+     */
+    private static void putUtf8(ByteBuffer out, CharSequence text) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                out.put((byte) c);
+            } else if (c < 0x800) {
+                out.put((byte) (0xC0 | c >> 6));
+                out.put((byte) (0x80 | c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < text.length() && Character.isLowSurrogate(text.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, text.charAt(++i));
+                out.put((byte) (0xF0 | codePoint >> 18));
+                out.put((byte) (0x80 | codePoint >> 12 & 0x3F));
+                out.put((byte) (0x80 | codePoint >> 6 & 0x3F));
+                out.put((byte) (0x80 | codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                out.put((byte) '?');
+            } else {
+                out.put((byte) (0xE0 | c >> 12));
+                out.put((byte) (0x80 | c >> 6 & 0x3F));
+                out.put((byte) (0x80 | c & 0x3F));
+            }
+        }
+    }
+}
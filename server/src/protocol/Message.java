@@ -0,0 +1,116 @@
+package protocol;
+
+/**
+ * A decoded binary frame: its type, its correlation ID and its fields. Which fields are set depends on the type:
+ * side, size and price for the order types (price only for limit and stop orders), the order ID for CANCEL, the
+ * command and its arguments for COMMAND, the code for RESULT and the text for TEXT.
+ * BinaryCodec.decode overwrites a message in place, so a connection can decode every frame into the same one.
+ */
+public final class Message {
+    private byte type;
+    private int correlationId;
+    private String command;
+    private String[] args;
+    private int side;
+    private int size;
+    private int price;
+    private int orderId;
+    private int code;
+    private String text;
+
+    public Message() {
+    }
+
+    /**
+     * @param command the command name.
+     * @param args    the command's arguments.
+     * @return a COMMAND message, as a text transport frames it.
+     */
+    public static Message command(String command, String[] args) {
+        Message message = new Message();
+        message.type = BinaryCodec.COMMAND;
+        message.command = command;
+        message.args = args;
+        return message;
+    }
+
+    public byte getType() {
+        return type;
+    }
+
+    /**
+     * @return the ID the client gave the request, which its reply carries too.
+     */
+    public int getCorrelationId() {
+        return correlationId;
+    }
+
+    /**
+     * @return the command name; for the order types, the name of the matching text command.
+     */
+    public String getCommand() {
+        return command;
+    }
+
+    public String[] getArgs() {
+        return args;
+    }
+
+    /**
+     * @return 0 for ASK (sell), 1 for BID (buy).
+     */
+    public int getSide() {
+        return side;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public int getPrice() {
+        return price;
+    }
+
+    public int getOrderId() {
+        return orderId;
+    }
+
+    public int getCode() {
+        return code;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    void setType(byte type, String command) {
+        this.type = type;
+        this.command = command;
+    }
+
+    void setCorrelationId(int correlationId) {
+        this.correlationId = correlationId;
+    }
+
+    void setArgs(String[] args) {
+        this.args = args;
+    }
+
+    void setOrder(int side, int size, int price) {
+        this.side = side;
+        this.size = size;
+        this.price = price;
+    }
+
+    void setOrderId(int orderId) {
+        this.orderId = orderId;
+    }
+
+    void setCode(int code) {
+        this.code = code;
+    }
+
+    void setText(String text) {
+        this.text = text;
+    }
+}